@@ -0,0 +1,120 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import org.apache.ftpserver.ftplet.AuthenticationFailedException;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+import org.apache.hadoop.contrib.ftp.HdfsLogUserStore;
+import org.apache.hadoop.contrib.ftp.HdfsPasswordEncryptor;
+import org.apache.hadoop.contrib.ftp.HdfsUser;
+import org.apache.hadoop.contrib.ftp.HdfsUserManager;
+import org.apache.hadoop.fs.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HdfsUserManager.authenticate() with many sessions logging in at once.
+ * Failed logins always pay the full PBKDF2 cost, successful ones are served
+ * from the verification cache when it is enabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class AuthenticateBenchmark {
+
+	private final static int USERS = 1000;
+
+	// 0 disables the cache of successful verifications
+	@Param({"0", "60000"})
+	public long passwordCacheTtl;
+
+	@Param({"1000", "10000"})
+	public int iterations;
+
+	private File dir;
+
+	private HdfsPasswordEncryptor encryptor;
+
+	private HdfsUserManager userManager;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next = 0;
+
+		int next() {
+			if (++next >= USERS) {
+				next = 0;
+			}
+			return next;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, FtpException {
+		dir = Files.createTempDirectory("hdfs-over-ftp-bench").toFile();
+		encryptor = new HdfsPasswordEncryptor(iterations, Runtime.getRuntime().availableProcessors(),
+				60000L, passwordCacheTtl, USERS);
+		userManager = new HdfsUserManager();
+		userManager.setUserStore(new HdfsLogUserStore(new File(dir, "users.log"), null, false));
+		userManager.setPasswordEncryptor(encryptor);
+		userManager.configure();
+		for (int i = 0; i < USERS; i++) {
+			HdfsUser user = new HdfsUser();
+			user.setName("user-" + i);
+			user.setPassword("password-" + i);
+			user.setHomeDirectory("/user/user-" + i);
+			user.setEnabled(true);
+			userManager.save(user);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		userManager.dispose();
+		encryptor.close();
+		FileUtil.fullyDelete(dir);
+	}
+
+	@Benchmark
+	public User validLogin(Cursor cursor) throws AuthenticationFailedException {
+		int i = cursor.next();
+		return userManager.authenticate(new UsernamePasswordAuthentication("user-" + i, "password-" + i));
+	}
+
+	@Benchmark
+	public boolean invalidLogin(Cursor cursor) {
+		int i = cursor.next();
+		try {
+			userManager.authenticate(new UsernamePasswordAuthentication("user-" + i, "wrong-" + i));
+			return true;
+		} catch (AuthenticationFailedException e) {
+			return false;
+		}
+	}
+
+	@Benchmark
+	public User getUserByName(Cursor cursor) {
+		return userManager.getUserByName("user-" + cursor.next());
+	}
+}
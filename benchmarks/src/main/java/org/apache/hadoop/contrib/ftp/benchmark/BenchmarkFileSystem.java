@@ -0,0 +1,134 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.usermanager.WritePermission;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.contrib.ftp.HdfsOverFtpSystem;
+import org.apache.hadoop.contrib.ftp.HdfsUser;
+import org.apache.hadoop.contrib.ftp.HdfsWriteProfile;
+import org.apache.hadoop.contrib.ftp.HdfsWriteProfiles;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * File system the benchmarks run against, either the local file system or
+ * an in-process MiniDFSCluster. The gateway is pointed at it, so only one
+ * instance may exist per JVM; JMH runs every parameter combination in its
+ * own fork.
+ */
+public class BenchmarkFileSystem {
+
+	public final static String LOCAL = "local";
+
+	public final static String MINIDFS = "minidfs";
+
+	private final File baseDir;
+
+	private final MiniDFSCluster cluster;
+
+	private final FileSystem fs;
+
+	private final Path root;
+
+	/**
+	 * Start the file system
+	 *
+	 * @param backend {@link #LOCAL} or {@link #MINIDFS}
+	 * @throws IOException if the file system can not be started
+	 */
+	public BenchmarkFileSystem(String backend) throws IOException {
+		baseDir = Files.createTempDirectory("hdfs-over-ftp-bench").toFile();
+		Configuration conf = new Configuration();
+		if (MINIDFS.equals(backend)) {
+			conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, new File(baseDir, "dfs").getAbsolutePath());
+			conf.setBoolean("dfs.namenode.acls.enabled", true);
+			cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+			cluster.waitActive();
+			fs = cluster.getFileSystem();
+			root = new Path("/bench");
+		} else if (LOCAL.equals(backend)) {
+			cluster = null;
+			fs = FileSystem.getLocal(conf);
+			root = new Path(new File(baseDir, "local").getAbsolutePath());
+		} else {
+			throw new IllegalArgumentException("Unknown backend " + backend);
+		}
+		fs.mkdirs(root);
+
+		// a single data node can not hold more than one replica
+		HdfsOverFtpSystem.setWriteProfiles(new HdfsWriteProfiles(Collections.singletonList(
+				new HdfsWriteProfile("benchmark", 0, (short) 1, 0))));
+		HdfsOverFtpSystem.setHDFS_URI(fs.getUri().toString());
+	}
+
+	/**
+	 * Get the file system as the user running the benchmark, used to prepare
+	 * the data
+	 *
+	 * @return file system
+	 */
+	public FileSystem getFileSystem() {
+		return fs;
+	}
+
+	/**
+	 * Get the directory all data of the benchmark is kept in
+	 *
+	 * @return root directory
+	 */
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Create the FTP user owning the benchmark data, with the root as its home
+	 *
+	 * @return user with write permission
+	 * @throws IOException if the current user can not be got
+	 */
+	public HdfsUser createUser() throws IOException {
+		HdfsUser user = new HdfsUser();
+		user.setName(UserGroupInformation.getCurrentUser().getShortUserName());
+		user.setHomeDirectory(root.toUri().getPath());
+		user.setEnabled(true);
+		user.setAuthorities(new Authority[]{new WritePermission()});
+		return user;
+	}
+
+	/**
+	 * Create empty files in a directory
+	 *
+	 * @param dir   directory to fill
+	 * @param count number of files
+	 * @throws IOException if a file can not be created
+	 */
+	public void createFiles(Path dir, int count) throws IOException {
+		fs.mkdirs(dir);
+		for (int i = 0; i < count; i++) {
+			fs.create(new Path(dir, String.format("file-%08d", i)), true).close();
+		}
+	}
+
+	/**
+	 * Stop the file system and remove its data
+	 */
+	public void close() throws IOException {
+		try {
+			if (cluster != null) {
+				cluster.shutdown();
+			} else {
+				fs.delete(root, true);
+			}
+		} finally {
+			FileUtil.fullyDelete(baseDir);
+		}
+	}
+}
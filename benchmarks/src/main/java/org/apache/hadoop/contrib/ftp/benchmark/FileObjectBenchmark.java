@@ -0,0 +1,85 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import org.apache.ftpserver.ftplet.FileObject;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.hadoop.contrib.ftp.HdfsFileSystemManager;
+import org.apache.hadoop.contrib.ftp.HdfsOverFtpSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attribute access of a single HdfsFileObject, the way SIZE, MDTM, STAT and
+ * CWD use it: a new object per command followed by a few getters
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileObjectBenchmark {
+
+	@Param({BenchmarkFileSystem.LOCAL, BenchmarkFileSystem.MINIDFS})
+	public String backend;
+
+	// 0 disables the metadata cache, so every new object costs a lookup
+	@Param({"0", "10000"})
+	public int metadataCacheSize;
+
+	private BenchmarkFileSystem fileSystem;
+
+	private FileSystemView view;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, FtpException {
+		fileSystem = new BenchmarkFileSystem(backend);
+		fileSystem.getFileSystem().create(new Path(fileSystem.getRoot(), "file"), true).close();
+		HdfsOverFtpSystem.setMetadataCacheSize(metadataCacheSize);
+		view = new HdfsFileSystemManager(false).createFileSystemView(fileSystem.createUser());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		view.dispose();
+		fileSystem.close();
+	}
+
+	@Benchmark
+	public long size() throws FtpException {
+		return view.getFileObject("file").getSize();
+	}
+
+	@Benchmark
+	public void attributes(Blackhole bh) throws FtpException {
+		FileObject file = view.getFileObject("file");
+		bh.consume(file.doesExist());
+		bh.consume(file.isFile());
+		bh.consume(file.getSize());
+		bh.consume(file.getLastModified());
+		bh.consume(file.getOwnerName());
+		bh.consume(file.getGroupName());
+		bh.consume(file.hasReadPermission());
+	}
+
+	@Benchmark
+	public boolean changeDirectory() throws FtpException {
+		return view.changeDirectory(fileSystem.getRoot().toUri().getPath());
+	}
+}
@@ -0,0 +1,169 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import org.apache.hadoop.contrib.ftp.HdfsOverFtpServer;
+import org.apache.hadoop.contrib.ftp.HdfsPasswordEncryptor;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Helpers shared by the load test and the trace replay: starting the
+ * gateway in-process against a cluster, preparing data and writing the
+ * JSON reports.
+ */
+class Gateway {
+
+	private Gateway() {
+	}
+
+	/**
+	 * Start the gateway through its main method, with a configuration
+	 * pointing at the cluster
+	 *
+	 * @param fileSystem cluster to serve
+	 * @param confDir    directory the configuration is written to
+	 * @param port       control port
+	 * @param dataPorts  passive data ports
+	 * @param passwords  passwords by user name
+	 * @param homes      absolute home directories by user name
+	 */
+	static void start(BenchmarkFileSystem fileSystem, File confDir, int port, String dataPorts,
+					  Map<String, String> passwords, Map<String, String> homes) throws Exception {
+		Properties conf = new Properties();
+		conf.setProperty("port", String.valueOf(port));
+		conf.setProperty("data-ports", dataPorts);
+		conf.setProperty("hdfs-uri", fileSystem.getFileSystem().getUri().toString());
+		conf.setProperty("write-profile.load.replication", "1");
+		File confFile = new File(confDir, "hdfs-over-ftp.properties");
+		store(conf, confFile);
+
+		HdfsPasswordEncryptor encryptor = new HdfsPasswordEncryptor();
+		Properties usersConf = new Properties();
+		for (Map.Entry<String, String> user : passwords.entrySet()) {
+			String prefix = "ftpserver.user." + user.getKey() + ".";
+			usersConf.setProperty(prefix + "userpassword", encryptor.encrypt(user.getValue()));
+			usersConf.setProperty(prefix + "homedirectory", homes.get(user.getKey()));
+			usersConf.setProperty(prefix + "enableflag", "true");
+			usersConf.setProperty(prefix + "writepermission", "true");
+			usersConf.setProperty(prefix + "maxloginnumber", "0");
+			usersConf.setProperty(prefix + "maxloginperip", "0");
+			usersConf.setProperty(prefix + "idletime", "0");
+			usersConf.setProperty(prefix + "uploadrate", "0");
+			usersConf.setProperty(prefix + "downloadrate", "0");
+		}
+		encryptor.close();
+		File usersFile = new File(confDir, "users.properties");
+		store(usersConf, usersFile);
+
+		System.setProperty("conf.file", confFile.getAbsolutePath());
+		System.setProperty("users.file", usersFile.getAbsolutePath());
+		HdfsOverFtpServer.main(new String[0]);
+	}
+
+	private static void store(Properties props, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			props.store(out, null);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write a file of the given size, repeating the buffer
+	 */
+	static void writeFile(FileSystem fs, Path path, long size, byte[] buffer) throws IOException {
+		FSDataOutputStream out = fs.create(path, true);
+		try {
+			for (long written = 0; written < size; written += buffer.length) {
+				out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Get the NameNode operations issued by the gateway so far
+	 */
+	static long nameNodeOperations() {
+		long operations = 0;
+		for (FileSystem.Statistics statistics : FileSystem.getAllStatistics()) {
+			if ("hdfs".equals(statistics.getScheme())) {
+				operations += statistics.getReadOps() + statistics.getLargeReadOps() + statistics.getWriteOps();
+			}
+		}
+		return operations;
+	}
+
+	static Map<String, Long> delta(Map<String, Long> end, Map<String, Long> start) {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, Long> entry : end.entrySet()) {
+			Long before = start.get(entry.getKey());
+			result.put(entry.getKey(), entry.getValue() - (before == null ? 0 : before));
+		}
+		return result;
+	}
+
+	/**
+	 * Append the options of a run as a JSON object member
+	 */
+	static void appendOptions(StringBuilder sb, Map<String, String> options) {
+		sb.append("  \"options\": {");
+		String separator = "\n";
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			sb.append(separator).append("    ").append(quote(option.getKey())).append(": ").append(quote(option.getValue()));
+			separator = ",\n";
+		}
+		sb.append("\n  },\n");
+	}
+
+	/**
+	 * Append the latency of a histogram as a JSON object
+	 */
+	static void appendLatency(StringBuilder sb, LatencyHistogram histogram) {
+		sb.append("\"meanMs\": ").append(format(histogram.getMeanMillis()))
+				.append(", \"p50Ms\": ").append(format(histogram.getPercentileMillis(0.5)))
+				.append(", \"p99Ms\": ").append(format(histogram.getPercentileMillis(0.99)))
+				.append(", \"p999Ms\": ").append(format(histogram.getPercentileMillis(0.999)))
+				.append(", \"maxMs\": ").append(format(histogram.getMaxMillis()));
+	}
+
+	/**
+	 * Append the commands the gateway served and their NameNode operations
+	 * as the last JSON object member
+	 */
+	static void appendCommands(StringBuilder sb, Map<String, Long> commandCounts, Map<String, Long> commandRpcs) {
+		sb.append("  \"commands\": {");
+		String separator = "\n";
+		for (Map.Entry<String, Long> command : commandCounts.entrySet()) {
+			if (command.getValue() == 0) {
+				continue;
+			}
+			Long commandRpc = commandRpcs.get(command.getKey());
+			sb.append(separator).append("    ").append(quote(command.getKey())).append(": {")
+					.append("\"count\": ").append(command.getValue())
+					.append(", \"nameNodeOperations\": ").append(commandRpc == null ? 0 : commandRpc)
+					.append('}');
+			separator = ",\n";
+		}
+		sb.append("\n  }\n");
+	}
+
+	static String format(double value) {
+		return String.format(Locale.ENGLISH, "%.3f", value);
+	}
+
+	static String quote(String value) {
+		return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+	}
+}
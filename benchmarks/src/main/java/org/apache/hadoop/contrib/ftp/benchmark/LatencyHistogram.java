@@ -0,0 +1,100 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram safe for concurrent recording. Values below a
+ * millisecond are kept to the microsecond, larger ones with three
+ * significant digits, so percentiles are exact to 1%.
+ */
+public class LatencyHistogram {
+
+	// microseconds recorded exactly
+	private final static int EXACT = 1000;
+
+	// buckets of a decade above EXACT, the values 100..999 times a power of 10
+	private final static int DECADE = 900;
+
+	private final static int DECADES = 12;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(EXACT + DECADE * DECADES);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong totalMicros = new AtomicLong();
+
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		buckets.incrementAndGet(bucket(micros));
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		long max = maxMicros.get();
+		while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+			max = maxMicros.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getMeanMillis() {
+		long n = count.get();
+		return n == 0 ? 0 : totalMicros.get() / 1000.0 / n;
+	}
+
+	public double getMaxMillis() {
+		return maxMicros.get() / 1000.0;
+	}
+
+	/**
+	 * Get a percentile of the recorded values
+	 *
+	 * @param quantile quantile between 0 and 1, 0.99 for the 99th percentile
+	 * @return lower bound of the bucket holding the percentile in milliseconds
+	 */
+	public double getPercentileMillis(double quantile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(quantile * n));
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= target) {
+				return lowerBound(i) / 1000.0;
+			}
+		}
+		return getMaxMillis();
+	}
+
+	private static int bucket(long micros) {
+		if (micros < EXACT) {
+			return (int) micros;
+		}
+		int exponent = 0;
+		long mantissa = micros;
+		while (mantissa >= 1000) {
+			mantissa /= 10;
+			exponent++;
+		}
+		int decade = Math.min(exponent, DECADES) - 1;
+		return EXACT + decade * DECADE + (int) (mantissa - 100);
+	}
+
+	private static long lowerBound(int bucket) {
+		if (bucket < EXACT) {
+			return bucket;
+		}
+		int decade = (bucket - EXACT) / DECADE;
+		long value = (bucket - EXACT) % DECADE + 100;
+		for (int i = 0; i <= decade; i++) {
+			value *= 10;
+		}
+		return value;
+	}
+}
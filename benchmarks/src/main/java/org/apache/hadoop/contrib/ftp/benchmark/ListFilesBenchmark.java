@@ -0,0 +1,83 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import org.apache.ftpserver.ftplet.FileObject;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.hadoop.contrib.ftp.HdfsFileSystemManager;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Directory listings through HdfsFileObject.listFiles(). The directory is
+ * filled once per fork, which takes several minutes for a million entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ListFilesBenchmark {
+
+	@Param({BenchmarkFileSystem.LOCAL, BenchmarkFileSystem.MINIDFS})
+	public String backend;
+
+	@Param({"10", "10000", "1000000"})
+	public int entries;
+
+	private BenchmarkFileSystem fileSystem;
+
+	private FileSystemView view;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, FtpException {
+		fileSystem = new BenchmarkFileSystem(backend);
+		fileSystem.createFiles(new Path(fileSystem.getRoot(), "dir"), entries);
+		view = new HdfsFileSystemManager(false).createFileSystemView(fileSystem.createUser());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		view.dispose();
+		fileSystem.close();
+	}
+
+	@Benchmark
+	public FileObject[] listFiles() throws FtpException {
+		return view.getFileObject("dir").listFiles();
+	}
+
+	/**
+	 * Listing plus the attributes an ls style LIST line is made of
+	 */
+	@Benchmark
+	public void listWithAttributes(Blackhole bh) throws FtpException {
+		for (FileObject file : view.getFileObject("dir").listFiles()) {
+			bh.consume(file.isDirectory());
+			bh.consume(file.hasReadPermission());
+			bh.consume(file.hasWritePermission());
+			bh.consume(file.getLinkCount());
+			bh.consume(file.getOwnerName());
+			bh.consume(file.getGroupName());
+			bh.consume(file.getSize());
+			bh.consume(file.getLastModified());
+			bh.consume(file.getShortName());
+		}
+	}
+}
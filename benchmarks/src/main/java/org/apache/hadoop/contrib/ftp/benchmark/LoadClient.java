@@ -0,0 +1,230 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scripted FTP client of the load test. It logs in, runs operations drawn
+ * from the mix until the end of its session, logs out and starts over
+ * until the test stops.
+ */
+public class LoadClient implements Runnable {
+
+	private final static Logger log = LoggerFactory.getLogger(LoadClient.class);
+
+	public enum Operation {
+		LOGIN, CWD, LIST, RETR_SMALL, RETR_LARGE, STOR_SMALL, STOR_LARGE
+	}
+
+	/**
+	 * Results shared by all clients
+	 */
+	public static class Results {
+		final Map<Operation, LatencyHistogram> latencies =
+				new EnumMap<Operation, LatencyHistogram>(Operation.class);
+		final Map<Operation, AtomicLong> failures = new EnumMap<Operation, AtomicLong>(Operation.class);
+		final AtomicLong bytesRead = new AtomicLong();
+		final AtomicLong bytesWritten = new AtomicLong();
+
+		public Results() {
+			for (Operation operation : Operation.values()) {
+				latencies.put(operation, new LatencyHistogram());
+				failures.put(operation, new AtomicLong());
+			}
+		}
+	}
+
+	private final int id;
+
+	private final LoadTest test;
+
+	private final String userName;
+
+	private final String password;
+
+	// absolute path of the home directory, the gateway does not chroot users
+	private final String home;
+
+	private final Random random;
+
+	private FTPClient ftp = null;
+
+	LoadClient(int id, LoadTest test, String userName, String password, String home) {
+		this.id = id;
+		this.test = test;
+		this.userName = userName;
+		this.password = password;
+		this.home = home;
+		this.random = new Random(id);
+	}
+
+	public void run() {
+		while (test.isRunning()) {
+			try {
+				runSession();
+			} catch (IOException e) {
+				// the failed operation is already counted, reconnect
+				log.debug("Client " + id + " session failed", e);
+			} finally {
+				disconnect();
+			}
+		}
+	}
+
+	private void runSession() throws IOException {
+		ftp = new FTPClient();
+		long start = System.nanoTime();
+		boolean loggedIn = false;
+		try {
+			ftp.connect(test.getHost(), test.getPort());
+			loggedIn = ftp.login(userName, password);
+		} finally {
+			finish(Operation.LOGIN, start, loggedIn);
+		}
+		if (!loggedIn) {
+			thinkTime();
+			return;
+		}
+		ftp.enterLocalPassiveMode();
+		ftp.setFileType(FTP.BINARY_FILE_TYPE);
+
+		for (int i = 0; i < test.getSessionOperations() && test.isRunning(); i++) {
+			Operation operation = test.nextOperation(random);
+			start = System.nanoTime();
+			boolean ok = false;
+			try {
+				ok = execute(operation);
+			} finally {
+				finish(operation, start, ok);
+			}
+			thinkTime();
+		}
+		ftp.logout();
+	}
+
+	private boolean execute(Operation operation) throws IOException {
+		switch (operation) {
+			case CWD:
+				return ftp.changeWorkingDirectory(random.nextBoolean() ? home : home + "/" + LoadTest.POLL_DIR);
+			case LIST:
+				return ftp.listFiles(home + "/" + LoadTest.POLL_DIR) != null;
+			case RETR_SMALL:
+				return retrieve(home + "/" + LoadTest.POLL_DIR + "/"
+						+ LoadTest.pollFileName(random.nextInt(test.getListEntries())));
+			case RETR_LARGE:
+				return retrieve(home + "/" + LoadTest.LARGE_FILE);
+			case STOR_SMALL:
+				return store(home + "/" + LoadTest.UPLOAD_DIR + "/client-" + id + "-small", test.getSmallSize());
+			case STOR_LARGE:
+				return store(home + "/" + LoadTest.UPLOAD_DIR + "/client-" + id + "-large", test.getLargeSize());
+			default:
+				throw new IllegalArgumentException("Unsupported operation " + operation);
+		}
+	}
+
+	private boolean retrieve(String path) throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		boolean ok = ftp.retrieveFile(path, out);
+		if (test.isRecording()) {
+			test.getResults().bytesRead.addAndGet(out.count);
+		}
+		return ok;
+	}
+
+	private boolean store(String path, long size) throws IOException {
+		boolean ok = ftp.storeFile(path, new GeneratedInputStream(size));
+		if (ok && test.isRecording()) {
+			test.getResults().bytesWritten.addAndGet(size);
+		}
+		return ok;
+	}
+
+	private void finish(Operation operation, long start, boolean ok) {
+		if (!test.isRecording()) {
+			return;
+		}
+		Results results = test.getResults();
+		if (ok) {
+			results.latencies.get(operation).record(System.nanoTime() - start);
+		} else {
+			results.failures.get(operation).incrementAndGet();
+		}
+	}
+
+	private void thinkTime() {
+		long thinkTime = test.getThinkTimeMs();
+		if (thinkTime <= 0) {
+			return;
+		}
+		try {
+			// uniform around the mean, so clients do not move in lockstep
+			Thread.sleep((long) (random.nextDouble() * 2 * thinkTime));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void disconnect() {
+		if (ftp != null && ftp.isConnected()) {
+			try {
+				ftp.disconnect();
+			} catch (IOException e) {
+				log.debug("Client " + id + " failed disconnecting", e);
+			}
+		}
+		ftp = null;
+	}
+
+	static class CountingOutputStream extends OutputStream {
+		long count = 0;
+
+		public void write(int b) {
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	/**
+	 * Stream of the given number of bytes without holding them in memory
+	 */
+	static class GeneratedInputStream extends InputStream {
+		private long remaining;
+
+		GeneratedInputStream(long size) {
+			this.remaining = size;
+		}
+
+		public int read() {
+			if (remaining <= 0) {
+				return -1;
+			}
+			remaining--;
+			return (int) (remaining & 0xff);
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int n = (int) Math.min(len, remaining);
+			for (int i = 0; i < n; i++) {
+				b[off + i] = (byte) (remaining - i);
+			}
+			remaining -= n;
+			return n;
+		}
+	}
+}
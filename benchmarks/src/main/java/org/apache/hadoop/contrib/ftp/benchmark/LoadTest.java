@@ -0,0 +1,353 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import org.apache.hadoop.contrib.ftp.HdfsOverFtpSystem;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * End-to-end load test. Starts HdfsOverFtpServer in-process against a
+ * MiniDFSCluster, drives concurrent scripted FTP clients through a mix of
+ * operations and reports throughput, latency percentiles per operation and
+ * NameNode operations as JSON, so runs of different builds can be compared.
+ * <pre>
+ * java -cp benchmarks.jar org.apache.hadoop.contrib.ftp.benchmark.LoadTest \
+ *     --clients 64 --duration 120 --mix poll --output result.json
+ * </pre>
+ */
+public class LoadTest {
+
+	final static String POLL_DIR = "poll";
+
+	final static String UPLOAD_DIR = "upload";
+
+	final static String LARGE_FILE = "large";
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	// operation weights of the named mixes
+	private final static Map<String, String> MIXES = new HashMap<String, String>();
+
+	static {
+		MIXES.put("poll", "CWD=10,LIST=80,RETR_SMALL=10");
+		MIXES.put("mixed", "CWD=10,LIST=40,RETR_SMALL=25,RETR_LARGE=5,STOR_SMALL=15,STOR_LARGE=5");
+		MIXES.put("transfer", "RETR_SMALL=30,RETR_LARGE=20,STOR_SMALL=30,STOR_LARGE=20");
+	}
+
+	private final Map<String, String> options = new LinkedHashMap<String, String>();
+
+	private final List<LoadClient.Operation> mixOperations = new ArrayList<LoadClient.Operation>();
+
+	private int[] mixWeights;
+
+	private int totalWeight = 0;
+
+	private final LoadClient.Results results = new LoadClient.Results();
+
+	private volatile boolean running = true;
+
+	private volatile boolean recording = false;
+
+	private int clients;
+
+	private int users;
+
+	private int port;
+
+	private int listEntries;
+
+	private long smallSize;
+
+	private long largeSize;
+
+	private long thinkTimeMs;
+
+	private int sessionOperations;
+
+	public static void main(String[] args) throws Exception {
+		LoadTest test = new LoadTest();
+		try {
+			test.parseOptions(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: LoadTest [--clients 32] [--users 4] [--duration 60] [--warmup 10]"
+					+ " [--mix poll|mixed|transfer|OPERATION=WEIGHT,...] [--list-entries 100]"
+					+ " [--small-size 65536] [--large-size 67108864] [--think-time 0]"
+					+ " [--session-operations 100] [--port 21210] [--data-ports 21211-21999]"
+					+ " [--output result.json]");
+			System.exit(2);
+		}
+		String report = test.run();
+		System.out.println(report);
+		String output = test.options.get("output");
+		if (output != null) {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(output), UTF8);
+			try {
+				writer.write(report);
+			} finally {
+				writer.close();
+			}
+		}
+		// the FTP server has no shutdown hook
+		System.exit(0);
+	}
+
+	private void parseOptions(String[] args) {
+		options.put("clients", "32");
+		options.put("users", "4");
+		options.put("duration", "60");
+		options.put("warmup", "10");
+		options.put("mix", "mixed");
+		options.put("list-entries", "100");
+		options.put("small-size", "65536");
+		options.put("large-size", "67108864");
+		options.put("think-time", "0");
+		options.put("session-operations", "100");
+		options.put("port", "21210");
+		options.put("data-ports", "21211-21999");
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--") || i + 1 == args.length) {
+				throw new IllegalArgumentException("Invalid argument " + args[i]);
+			}
+			String name = args[i].substring(2);
+			if (!options.containsKey(name) && !"output".equals(name)) {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+			options.put(name, args[++i]);
+		}
+
+		clients = Integer.parseInt(options.get("clients"));
+		users = Integer.parseInt(options.get("users"));
+		port = Integer.parseInt(options.get("port"));
+		listEntries = Integer.parseInt(options.get("list-entries"));
+		smallSize = Long.parseLong(options.get("small-size"));
+		largeSize = Long.parseLong(options.get("large-size"));
+		thinkTimeMs = Long.parseLong(options.get("think-time"));
+		sessionOperations = Integer.parseInt(options.get("session-operations"));
+		parseMix(options.get("mix"));
+	}
+
+	private void parseMix(String mix) {
+		String spec = MIXES.containsKey(mix) ? MIXES.get(mix) : mix;
+		List<Integer> weights = new ArrayList<Integer>();
+		for (String entry : spec.split(",")) {
+			String[] parts = entry.trim().split("=");
+			if (parts.length != 2) {
+				throw new IllegalArgumentException("Invalid mix " + mix);
+			}
+			LoadClient.Operation operation = LoadClient.Operation.valueOf(parts[0].trim().toUpperCase(Locale.ENGLISH));
+			if (operation == LoadClient.Operation.LOGIN) {
+				throw new IllegalArgumentException("LOGIN is measured per session, set --session-operations");
+			}
+			int weight = Integer.parseInt(parts[1].trim());
+			totalWeight += weight;
+			mixOperations.add(operation);
+			weights.add(totalWeight);
+		}
+		mixWeights = new int[weights.size()];
+		for (int i = 0; i < mixWeights.length; i++) {
+			mixWeights[i] = weights.get(i);
+		}
+		if (totalWeight <= 0) {
+			throw new IllegalArgumentException("Invalid mix " + mix);
+		}
+	}
+
+	private String run() throws Exception {
+		BenchmarkFileSystem fileSystem = new BenchmarkFileSystem(BenchmarkFileSystem.MINIDFS);
+		File confDir = Files.createTempDirectory("hdfs-over-ftp-load").toFile();
+		try {
+			String[] homes = prepareData(fileSystem);
+			Map<String, String> passwords = new HashMap<String, String>();
+			Map<String, String> homeDirectories = new HashMap<String, String>();
+			for (int user = 0; user < users; user++) {
+				passwords.put(userName(user), password(user));
+				homeDirectories.put(userName(user), homes[user]);
+			}
+			Gateway.start(fileSystem, confDir, port, options.get("data-ports"), passwords, homeDirectories);
+
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < clients; i++) {
+				int user = i % users;
+				Thread thread = new Thread(new LoadClient(i, this, userName(user), password(user), homes[user]),
+						"load-client-" + i);
+				thread.setDaemon(true);
+				thread.start();
+				threads.add(thread);
+			}
+
+			Thread.sleep(Long.parseLong(options.get("warmup")) * 1000);
+			long startRpcs = Gateway.nameNodeOperations();
+			Map<String, Long> startCommandRpcs = HdfsOverFtpSystem.getMetrics().getCommandRpcs();
+			Map<String, Long> startCommandCounts = HdfsOverFtpSystem.getMetrics().getCommandCounts();
+			long start = System.nanoTime();
+			recording = true;
+
+			Thread.sleep(Long.parseLong(options.get("duration")) * 1000);
+
+			recording = false;
+			long elapsed = System.nanoTime() - start;
+			long rpcs = Gateway.nameNodeOperations() - startRpcs;
+			Map<String, Long> commandRpcs = Gateway.delta(HdfsOverFtpSystem.getMetrics().getCommandRpcs(), startCommandRpcs);
+			Map<String, Long> commandCounts = Gateway.delta(HdfsOverFtpSystem.getMetrics().getCommandCounts(), startCommandCounts);
+
+			running = false;
+			for (Thread thread : threads) {
+				thread.join(30000);
+			}
+			return report(elapsed, rpcs, commandCounts, commandRpcs);
+		} finally {
+			fileSystem.close();
+			FileUtil.fullyDelete(confDir);
+		}
+	}
+
+	/**
+	 * Create the home directory of every user, holding a directory of small
+	 * files to poll, a large file to download and a directory to upload to
+	 *
+	 * @return home directories by user
+	 */
+	private String[] prepareData(BenchmarkFileSystem fileSystem) throws IOException {
+		FileSystem fs = fileSystem.getFileSystem();
+		byte[] buffer = new byte[64 * 1024];
+		new Random(0).nextBytes(buffer);
+		String[] homes = new String[users];
+		for (int user = 0; user < users; user++) {
+			Path home = new Path(fileSystem.getRoot(), userName(user));
+			Path upload = new Path(home, UPLOAD_DIR);
+			fs.mkdirs(upload);
+			for (int i = 0; i < listEntries; i++) {
+				Gateway.writeFile(fs, new Path(new Path(home, POLL_DIR), pollFileName(i)), smallSize, buffer);
+			}
+			Gateway.writeFile(fs, new Path(home, LARGE_FILE), largeSize, buffer);
+			fs.setOwner(home, userName(user), null);
+			fs.setOwner(upload, userName(user), null);
+			homes[user] = home.toUri().getPath();
+		}
+		return homes;
+	}
+
+	private String report(long elapsedNanos, long rpcs, Map<String, Long> commandCounts,
+						  Map<String, Long> commandRpcs) {
+		double seconds = elapsedNanos / 1e9;
+		long operations = 0;
+		for (LoadClient.Operation operation : LoadClient.Operation.values()) {
+			operations += results.latencies.get(operation).getCount();
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		Gateway.appendOptions(sb, options);
+		sb.append("  \"durationSeconds\": ").append(Gateway.format(seconds)).append(",\n");
+		sb.append("  \"operations\": ").append(operations).append(",\n");
+		sb.append("  \"operationsPerSecond\": ").append(Gateway.format(operations / seconds)).append(",\n");
+		sb.append("  \"bytesReadPerSecond\": ").append(Gateway.format(results.bytesRead.get() / seconds)).append(",\n");
+		sb.append("  \"bytesWrittenPerSecond\": ").append(Gateway.format(results.bytesWritten.get() / seconds)).append(",\n");
+		sb.append("  \"nameNodeOperations\": ").append(rpcs).append(",\n");
+		sb.append("  \"nameNodeOperationsPerSecond\": ").append(Gateway.format(rpcs / seconds)).append(",\n");
+		sb.append("  \"latency\": {");
+		String separator = "\n";
+		for (LoadClient.Operation operation : LoadClient.Operation.values()) {
+			LatencyHistogram histogram = results.latencies.get(operation);
+			long failures = results.failures.get(operation).get();
+			if (histogram.getCount() == 0 && failures == 0) {
+				continue;
+			}
+			sb.append(separator).append("    ").append(Gateway.quote(operation.name())).append(": {")
+					.append("\"count\": ").append(histogram.getCount())
+					.append(", \"failures\": ").append(failures)
+					.append(", ");
+			Gateway.appendLatency(sb, histogram);
+			sb.append('}');
+			separator = ",\n";
+		}
+		sb.append("\n  },\n");
+		Gateway.appendCommands(sb, commandCounts, commandRpcs);
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	static String userName(int user) {
+		return "load-" + user;
+	}
+
+	private static String password(int user) {
+		return "password-" + user;
+	}
+
+	static String pollFileName(int i) {
+		return String.format("file-%08d", i);
+	}
+
+	boolean isRunning() {
+		return running;
+	}
+
+	boolean isRecording() {
+		return recording;
+	}
+
+	LoadClient.Results getResults() {
+		return results;
+	}
+
+	String getHost() {
+		return "127.0.0.1";
+	}
+
+	int getPort() {
+		return port;
+	}
+
+	int getListEntries() {
+		return listEntries;
+	}
+
+	long getSmallSize() {
+		return smallSize;
+	}
+
+	long getLargeSize() {
+		return largeSize;
+	}
+
+	long getThinkTimeMs() {
+		return thinkTimeMs;
+	}
+
+	int getSessionOperations() {
+		return sessionOperations;
+	}
+
+	/**
+	 * Draw the next operation from the mix
+	 *
+	 * @param random random of the calling client
+	 * @return operation
+	 */
+	LoadClient.Operation nextOperation(Random random) {
+		int value = random.nextInt(totalWeight);
+		for (int i = 0; i < mixWeights.length; i++) {
+			if (value < mixWeights[i]) {
+				return mixOperations.get(i);
+			}
+		}
+		return mixOperations.get(mixOperations.size() - 1);
+	}
+}
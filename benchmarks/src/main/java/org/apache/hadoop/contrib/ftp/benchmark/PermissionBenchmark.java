@@ -0,0 +1,143 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import org.apache.hadoop.contrib.ftp.HdfsPermissionChecker;
+import org.apache.hadoop.contrib.ftp.HdfsUser;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Permission evaluation of HdfsPermissionChecker on statuses held in
+ * memory, so no file system is involved. The number of distinct paths
+ * against the cache size decides the hit ratio of the decision cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionBenchmark {
+
+	// 0 disables the decision cache
+	@Param({"0", "10000"})
+	public int cacheSize;
+
+	@Param({"100", "100000"})
+	public int paths;
+
+	// groups of the user, the group check is a set lookup
+	@Param({"1", "100"})
+	public int groups;
+
+	private HdfsPermissionChecker checker;
+
+	private HdfsUser user;
+
+	private Path parent;
+
+	private FileStatus parentStatus;
+
+	private Path[] files;
+
+	private FileStatus[] ownerStatuses;
+
+	private FileStatus[] groupStatuses;
+
+	private FileStatus[] otherStatuses;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next = 0;
+
+		int next(int size) {
+			if (++next >= size) {
+				next = 0;
+			}
+			return next;
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		checker = new HdfsPermissionChecker(cacheSize, 60000L);
+
+		user = new HdfsUser();
+		user.setName("bench");
+		ArrayList<String> userGroups = new ArrayList<String>();
+		for (int i = 0; i < groups; i++) {
+			userGroups.add("group-" + i);
+		}
+		user.setGroups(userGroups);
+
+		FsPermission dirPermission = new FsPermission(FsAction.ALL, FsAction.ALL, FsAction.READ_EXECUTE, true);
+		FsPermission filePermission = new FsPermission(FsAction.READ_WRITE, FsAction.READ, FsAction.READ);
+		long now = System.currentTimeMillis();
+		parent = new Path("/data");
+		parentStatus = new FileStatus(0, true, 0, 0, now, now, dirPermission, "hdfs", "group-0", parent);
+		files = new Path[paths];
+		ownerStatuses = new FileStatus[paths];
+		groupStatuses = new FileStatus[paths];
+		otherStatuses = new FileStatus[paths];
+		for (int i = 0; i < paths; i++) {
+			files[i] = new Path(parent, "file-" + i);
+			ownerStatuses[i] = new FileStatus(1, false, 3, 128L << 20, now, now, filePermission,
+					"bench", "other", files[i]);
+			groupStatuses[i] = new FileStatus(1, false, 3, 128L << 20, now, now, filePermission,
+					"hdfs", "group-" + (groups - 1), files[i]);
+			otherStatuses[i] = new FileStatus(1, false, 3, 128L << 20, now, now, filePermission,
+					"hdfs", "other", files[i]);
+		}
+	}
+
+	@Benchmark
+	public boolean owner(Cursor cursor) {
+		int i = cursor.next(paths);
+		return checker.check(user, null, files[i], ownerStatuses[i], FsAction.READ);
+	}
+
+	@Benchmark
+	public boolean group(Cursor cursor) {
+		int i = cursor.next(paths);
+		return checker.check(user, null, files[i], groupStatuses[i], FsAction.READ);
+	}
+
+	@Benchmark
+	public boolean other(Cursor cursor) {
+		int i = cursor.next(paths);
+		return checker.check(user, null, files[i], otherStatuses[i], FsAction.WRITE);
+	}
+
+	@Benchmark
+	public boolean delete(Cursor cursor) {
+		int i = cursor.next(paths);
+		return checker.checkDelete(user, null, parent, parentStatus, otherStatuses[i]);
+	}
+
+	/**
+	 * Sessions of many clients checking at the same time, they share the
+	 * decision cache
+	 */
+	@Benchmark
+	@Threads(8)
+	public boolean groupContended(Cursor cursor) {
+		int i = cursor.next(paths);
+		return checker.check(user, null, files[i], groupStatuses[i], FsAction.READ);
+	}
+}
@@ -0,0 +1,114 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.hadoop.contrib.ftp.HdfsFileSystemManager;
+import org.apache.hadoop.contrib.ftp.HdfsOverFtpSystem;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream copy through the download and upload streams of HdfsFileObject,
+ * with the 4 KB buffer the data connection of the FTP server copies with.
+ * Divide the file size by the time per operation for the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StreamCopyBenchmark {
+
+	private final static int COPY_BUFFER_SIZE = 4096;
+
+	@Param({BenchmarkFileSystem.LOCAL, BenchmarkFileSystem.MINIDFS})
+	public String backend;
+
+	@Param({"1048576", "268435456"})
+	public long fileSize;
+
+	// plain streams or parallel read-ahead
+	@Param({"plain", "readahead"})
+	public String transfer;
+
+	private BenchmarkFileSystem fileSystem;
+
+	private FileSystemView view;
+
+	private final byte[] data = new byte[COPY_BUFFER_SIZE];
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, FtpException {
+		fileSystem = new BenchmarkFileSystem(backend);
+		new Random(0).nextBytes(data);
+		FSDataOutputStream out = fileSystem.getFileSystem().create(new Path(fileSystem.getRoot(), "download"), true);
+		try {
+			for (long written = 0; written < fileSize; written += data.length) {
+				out.write(data, 0, (int) Math.min(data.length, fileSize - written));
+			}
+		} finally {
+			out.close();
+		}
+
+		HdfsOverFtpSystem.setReadAhead("readahead".equals(transfer), 0, 4, 16 * 1024 * 1024, 32, 512L * 1024 * 1024);
+		view = new HdfsFileSystemManager(false).createFileSystemView(fileSystem.createUser());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		view.dispose();
+		fileSystem.close();
+	}
+
+	@Benchmark
+	public long download() throws IOException, FtpException {
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		long read = 0;
+		InputStream in = view.getFileObject("download").createInputStream(0);
+		try {
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				read += n;
+			}
+		} finally {
+			in.close();
+		}
+		return read;
+	}
+
+	@Benchmark
+	public long upload() throws IOException, FtpException {
+		OutputStream out = view.getFileObject("upload").createOutputStream(0);
+		long written = 0;
+		try {
+			while (written < fileSize) {
+				int n = (int) Math.min(data.length, fileSize - written);
+				out.write(data, 0, n);
+				written += n;
+			}
+		} finally {
+			out.close();
+		}
+		return written;
+	}
+}
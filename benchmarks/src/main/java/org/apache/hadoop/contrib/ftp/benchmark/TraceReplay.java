@@ -0,0 +1,726 @@
+package org.apache.hadoop.contrib.ftp.benchmark;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPClientConfig;
+import org.apache.hadoop.contrib.ftp.HdfsOverFtpSystem;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a session trace recorded by the gateway (trace-file in
+ * hdfs-over-ftp.properties) against a gateway started in-process on a
+ * MiniDFSCluster. The files and directories the trace expects to exist
+ * are created first, at their hashed paths, and a user is created for
+ * every hashed user name. Every session then runs on its own client at
+ * the offsets of the trace divided by --speed, and the latency of every
+ * command, the commands whose outcome differs from the trace and the
+ * NameNode operations are reported as JSON.
+ * <pre>
+ * java -cp benchmarks.jar org.apache.hadoop.contrib.ftp.benchmark.TraceReplay \
+ *     --trace sessions.trace --speed 4 --output replay.json
+ * </pre>
+ */
+public class TraceReplay {
+
+	private final static Logger log = LoggerFactory.getLogger(TraceReplay.class);
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final static String PASSWORD = "replay";
+
+	// data connections are opened by the client of every transfer itself
+	private final static Set<String> SKIPPED_COMMANDS = new HashSet<String>(
+			Arrays.asList("PASV", "EPSV", "PORT", "EPRT"));
+
+	/**
+	 * Recorded event, a command or the connect and disconnect of a session
+	 */
+	static class Event {
+		final long offset;
+		final String command;
+		final int code;
+		final long bytes;
+		final String argument;
+
+		Event(long offset, String command, int code, long bytes, String argument) {
+			this.offset = offset;
+			this.command = command;
+			this.code = code;
+			this.bytes = bytes;
+			this.argument = argument;
+		}
+
+		boolean succeeded() {
+			return code > 0 && code < 400;
+		}
+	}
+
+	/**
+	 * Events of one session in the order they were recorded
+	 */
+	static class TraceSession {
+		final long id;
+		final List<Event> events = new ArrayList<Event>();
+
+		TraceSession(long id) {
+			this.id = id;
+		}
+
+		long getStart() {
+			return events.get(0).offset;
+		}
+	}
+
+	/**
+	 * State of a session while the namespace the trace expects is derived
+	 */
+	private static class SessionState {
+		String user;
+		String cwd = "/";
+		long restart = 0;
+		String renameFrom;
+	}
+
+	private final Map<String, String> options = new LinkedHashMap<String, String>();
+
+	private final List<TraceSession> sessions = new ArrayList<TraceSession>();
+
+	// home directory by hashed user name
+	private final Map<String, String> homes = new HashMap<String, String>();
+
+	// namespace before the trace started, and the user of its first access
+	private final Map<String, Long> initialFiles = new TreeMap<String, Long>();
+
+	private final Set<String> initialDirectories = new TreeSet<String>();
+
+	private final Map<String, String> owners = new HashMap<String, String>();
+
+	// namespace while the trace is walked
+	private final Map<String, Long> files = new HashMap<String, Long>();
+
+	private final Set<String> directories = new HashSet<String>();
+
+	private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private final ConcurrentMap<String, AtomicLong> mismatches = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final LatencyHistogram scheduleLag = new LatencyHistogram();
+
+	private final AtomicLong skipped = new AtomicLong();
+
+	private final AtomicInteger abortedSessions = new AtomicInteger();
+
+	private final AtomicLong bytesRead = new AtomicLong();
+
+	private final AtomicLong bytesWritten = new AtomicLong();
+
+	private int events = 0;
+
+	private double speed;
+
+	private int port;
+
+	private long maxFileSize;
+
+	public static void main(String[] args) throws Exception {
+		TraceReplay replay = new TraceReplay();
+		try {
+			replay.parseOptions(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: TraceReplay --trace sessions.trace [--speed 1] [--threads 512]"
+					+ " [--max-file-size 268435456] [--port 21210] [--data-ports 21211-21999]"
+					+ " [--output result.json]");
+			System.exit(2);
+		}
+		String report = replay.run();
+		System.out.println(report);
+		String output = replay.options.get("output");
+		if (output != null) {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(output), UTF8);
+			try {
+				writer.write(report);
+			} finally {
+				writer.close();
+			}
+		}
+		// the FTP server has no shutdown hook
+		System.exit(0);
+	}
+
+	private void parseOptions(String[] args) {
+		options.put("trace", null);
+		options.put("speed", "1");
+		options.put("threads", "512");
+		options.put("max-file-size", "268435456");
+		options.put("port", "21210");
+		options.put("data-ports", "21211-21999");
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--") || i + 1 == args.length) {
+				throw new IllegalArgumentException("Invalid argument " + args[i]);
+			}
+			String name = args[i].substring(2);
+			if (!options.containsKey(name) && !"output".equals(name)) {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+			options.put(name, args[++i]);
+		}
+		if (options.get("trace") == null) {
+			throw new IllegalArgumentException("--trace is required");
+		}
+
+		speed = Double.parseDouble(options.get("speed"));
+		if (speed <= 0) {
+			throw new IllegalArgumentException("Invalid speed " + speed);
+		}
+		port = Integer.parseInt(options.get("port"));
+		maxFileSize = Long.parseLong(options.get("max-file-size"));
+	}
+
+	private String run() throws Exception {
+		readTrace(new File(options.get("trace")));
+		deriveNamespace();
+		log.info("Replaying " + sessions.size() + " sessions, " + events + " events, "
+				+ initialDirectories.size() + " directories and " + initialFiles.size() + " files");
+
+		BenchmarkFileSystem fileSystem = new BenchmarkFileSystem(BenchmarkFileSystem.MINIDFS);
+		File confDir = Files.createTempDirectory("hdfs-over-ftp-replay").toFile();
+		try {
+			createNamespace(fileSystem.getFileSystem());
+			Map<String, String> passwords = new HashMap<String, String>();
+			for (String user : homes.keySet()) {
+				passwords.put(user, PASSWORD);
+			}
+			Gateway.start(fileSystem, confDir, port, options.get("data-ports"), passwords, homes);
+
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+					Integer.parseInt(options.get("threads")), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "replay-client-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+			long startRpcs = Gateway.nameNodeOperations();
+			Map<String, Long> startCommandRpcs = HdfsOverFtpSystem.getMetrics().getCommandRpcs();
+			Map<String, Long> startCommandCounts = HdfsOverFtpSystem.getMetrics().getCommandCounts();
+			long traceStart = sessions.isEmpty() ? 0 : sessions.get(0).getStart();
+			long start = System.nanoTime();
+			for (TraceSession session : sessions) {
+				executor.schedule(new SessionReplay(session, start, traceStart),
+						start + toNanos(session.getStart() - traceStart) - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+			long elapsed = System.nanoTime() - start;
+			long rpcs = Gateway.nameNodeOperations() - startRpcs;
+			Map<String, Long> commandRpcs = Gateway.delta(HdfsOverFtpSystem.getMetrics().getCommandRpcs(), startCommandRpcs);
+			Map<String, Long> commandCounts = Gateway.delta(HdfsOverFtpSystem.getMetrics().getCommandCounts(), startCommandCounts);
+			return report(elapsed, rpcs, commandCounts, commandRpcs);
+		} finally {
+			fileSystem.close();
+			FileUtil.fullyDelete(confDir);
+		}
+	}
+
+	/**
+	 * Read the trace and group its events by session, ordered by the
+	 * start of the sessions
+	 */
+	private void readTrace(File file) throws IOException {
+		Map<Long, TraceSession> bySession = new LinkedHashMap<Long, TraceSession>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split(" ", 6);
+				if (fields.length < 5) {
+					throw new IOException("Invalid trace line " + lineNumber + ": " + line);
+				}
+				long id = Long.parseLong(fields[0]);
+				TraceSession session = bySession.get(id);
+				if (session == null) {
+					session = new TraceSession(id);
+					bySession.put(id, session);
+				}
+				session.events.add(new Event(Long.parseLong(fields[1]), fields[2],
+						Integer.parseInt(fields[3]), Long.parseLong(fields[4]),
+						fields.length == 6 ? fields[5] : null));
+				events++;
+			}
+		} finally {
+			reader.close();
+		}
+		sessions.addAll(bySession.values());
+		Collections.sort(sessions, new Comparator<TraceSession>() {
+			public int compare(TraceSession a, TraceSession b) {
+				return a.getStart() < b.getStart() ? -1 : (a.getStart() == b.getStart() ? 0 : 1);
+			}
+		});
+	}
+
+	/**
+	 * Walk the successful events of all sessions in time order and record
+	 * every file and directory used before a session created it
+	 */
+	private void deriveNamespace() {
+		List<Object[]> ordered = new ArrayList<Object[]>(events);
+		Map<TraceSession, SessionState> states = new HashMap<TraceSession, SessionState>();
+		for (TraceSession session : sessions) {
+			states.put(session, new SessionState());
+			for (Event event : session.events) {
+				ordered.add(new Object[]{session, event});
+			}
+		}
+		// stable, so the events of a session keep their order
+		Collections.sort(ordered, new Comparator<Object[]>() {
+			public int compare(Object[] a, Object[] b) {
+				long offsetA = ((Event) a[1]).offset;
+				long offsetB = ((Event) b[1]).offset;
+				return offsetA < offsetB ? -1 : (offsetA == offsetB ? 0 : 1);
+			}
+		});
+		for (Object[] entry : ordered) {
+			SessionState state = states.get(entry[0]);
+			Event event = (Event) entry[1];
+			if ("USER".equals(event.command)) {
+				state.user = event.argument;
+			}
+			if (event.succeeded()) {
+				derive(state, event);
+			}
+		}
+	}
+
+	private void derive(SessionState state, Event event) {
+		String command = event.command;
+		if ("PASS".equals(command)) {
+			String home = event.argument == null ? "/" : normalize(event.argument);
+			if (state.user != null) {
+				homes.put(state.user, home);
+			}
+			requireDirectory(home, state.user);
+			state.cwd = home;
+		} else if ("CWD".equals(command) || "XCWD".equals(command)) {
+			String path = resolve(state, event.argument);
+			requireDirectory(path, state.user);
+			state.cwd = path;
+		} else if ("CDUP".equals(command) || "XCUP".equals(command)) {
+			state.cwd = parent(state.cwd);
+		} else if ("LIST".equals(command) || "NLST".equals(command) || "MLSD".equals(command)
+				|| ("STAT".equals(command) && event.argument != null)) {
+			String path = resolve(state, stripOptions(event.argument));
+			if (!files.containsKey(path)) {
+				requireDirectory(path, state.user);
+			}
+		} else if ("MLST".equals(command) || "SIZE".equals(command) || "MDTM".equals(command)
+				|| "HASH".equals(command) || command.startsWith("XCRC") || command.startsWith("XMD5")
+				|| command.startsWith("XSHA")) {
+			String path = resolve(state, event.argument);
+			if (!directories.contains(path)) {
+				requireFile(path, 0, state.user);
+			}
+		} else if ("REST".equals(command)) {
+			try {
+				state.restart = Long.parseLong(event.argument.trim());
+			} catch (RuntimeException e) {
+				state.restart = 0;
+			}
+		} else if ("RETR".equals(command)) {
+			requireFile(resolve(state, event.argument), state.restart + event.bytes, state.user);
+			state.restart = 0;
+		} else if ("STOR".equals(command) || "APPE".equals(command) || "STOU".equals(command)) {
+			String path = resolve(state, event.argument);
+			requireDirectory(parent(path), state.user);
+			Long size = files.get(path);
+			files.put(path, ("APPE".equals(command) && size != null ? size : 0) + event.bytes);
+			state.restart = 0;
+		} else if ("DELE".equals(command)) {
+			String path = resolve(state, event.argument);
+			requireFile(path, 0, state.user);
+			files.remove(path);
+		} else if ("MKD".equals(command) || "XMKD".equals(command)) {
+			String path = resolve(state, event.argument);
+			requireDirectory(parent(path), state.user);
+			directories.add(path);
+		} else if ("RMD".equals(command) || "XRMD".equals(command)) {
+			String path = resolve(state, event.argument);
+			requireDirectory(path, state.user);
+			directories.remove(path);
+		} else if ("RNFR".equals(command)) {
+			String path = resolve(state, event.argument);
+			if (!directories.contains(path)) {
+				requireFile(path, 0, state.user);
+			}
+			state.renameFrom = path;
+		} else if ("RNTO".equals(command) && state.renameFrom != null) {
+			String path = resolve(state, event.argument);
+			if (directories.remove(state.renameFrom)) {
+				directories.add(path);
+			} else {
+				Long size = files.remove(state.renameFrom);
+				files.put(path, size == null ? 0 : size);
+			}
+			state.renameFrom = null;
+		}
+	}
+
+	private void requireDirectory(String path, String user) {
+		if (directories.contains(path)) {
+			return;
+		}
+		if (!"/".equals(path)) {
+			requireDirectory(parent(path), user);
+		}
+		directories.add(path);
+		initialDirectories.add(path);
+		if (user != null) {
+			owners.put(path, user);
+		}
+	}
+
+	/**
+	 * Require a file of at least the given size
+	 */
+	private void requireFile(String path, long size, String user) {
+		Long current = files.get(path);
+		if (current != null) {
+			if (current < size && initialFiles.containsKey(path)) {
+				// the trace read more of it than seen so far
+				files.put(path, size);
+				initialFiles.put(path, size);
+			}
+			return;
+		}
+		requireDirectory(parent(path), user);
+		files.put(path, size);
+		initialFiles.put(path, size);
+		if (user != null) {
+			owners.put(path, user);
+		}
+	}
+
+	private void createNamespace(FileSystem fs) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		new Random(0).nextBytes(buffer);
+		for (String directory : initialDirectories) {
+			fs.mkdirs(new Path(directory));
+		}
+		for (Map.Entry<String, Long> file : initialFiles.entrySet()) {
+			Gateway.writeFile(fs, new Path(file.getKey()), Math.min(file.getValue(), maxFileSize), buffer);
+		}
+		for (Map.Entry<String, String> owner : owners.entrySet()) {
+			fs.setOwner(new Path(owner.getKey()), owner.getValue(), null);
+		}
+		for (Map.Entry<String, String> home : homes.entrySet()) {
+			fs.setOwner(new Path(home.getValue()), home.getKey(), null);
+		}
+	}
+
+	private static String resolve(SessionState state, String argument) {
+		if (argument == null || argument.trim().isEmpty()) {
+			return state.cwd;
+		}
+		String path = argument.trim();
+		return normalize(path.startsWith("/") ? path : state.cwd + "/" + path);
+	}
+
+	private static String normalize(String path) {
+		List<String> components = new ArrayList<String>();
+		for (String component : path.split("/")) {
+			if (component.isEmpty() || ".".equals(component)) {
+				continue;
+			}
+			if ("..".equals(component)) {
+				if (!components.isEmpty()) {
+					components.remove(components.size() - 1);
+				}
+			} else {
+				components.add(component);
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String component : components) {
+			sb.append('/').append(component);
+		}
+		return sb.length() == 0 ? "/" : sb.toString();
+	}
+
+	private static String parent(String path) {
+		int pos = path.lastIndexOf('/');
+		return pos <= 0 ? "/" : path.substring(0, pos);
+	}
+
+	/**
+	 * Strip the leading options of a LIST argument
+	 */
+	private static String stripOptions(String argument) {
+		if (argument == null) {
+			return null;
+		}
+		String rest = argument.trim();
+		while (rest.startsWith("-")) {
+			int pos = rest.indexOf(' ');
+			rest = pos == -1 ? "" : rest.substring(pos + 1).trim();
+		}
+		return rest;
+	}
+
+	private long toNanos(long traceMillis) {
+		return (long) (traceMillis * 1000000L / speed);
+	}
+
+	/**
+	 * Replays the events of one session on one client
+	 */
+	private class SessionReplay implements Runnable {
+
+		private final TraceSession session;
+
+		private final long replayStart;
+
+		private final long traceStart;
+
+		private FTPClient ftp;
+
+		SessionReplay(TraceSession session, long replayStart, long traceStart) {
+			this.session = session;
+			this.replayStart = replayStart;
+			this.traceStart = traceStart;
+		}
+
+		public void run() {
+			scheduleLag.record(Math.max(0, System.nanoTime() - scheduled(session.getStart())));
+			ftp = new FTPClient();
+			ftp.configure(new FTPClientConfig(FTPClientConfig.SYST_UNIX));
+			try {
+				for (Event event : session.events) {
+					waitUntil(scheduled(event.offset));
+					replay(event);
+				}
+			} catch (IOException e) {
+				abortedSessions.incrementAndGet();
+				log.debug("Session " + session.id + " aborted", e);
+			} finally {
+				disconnect();
+			}
+		}
+
+		private long scheduled(long offset) {
+			return replayStart + toNanos(offset - traceStart);
+		}
+
+		private void replay(Event event) throws IOException {
+			String command = event.command;
+			if ("-".equals(command)) {
+				disconnect();
+				return;
+			}
+			if (SKIPPED_COMMANDS.contains(command)) {
+				skipped.incrementAndGet();
+				return;
+			}
+			if ("REST".equals(command)) {
+				// sent by the client with the next transfer
+				try {
+					ftp.setRestartOffset(Long.parseLong(event.argument.trim()));
+				} catch (RuntimeException e) {
+					skipped.incrementAndGet();
+				}
+				return;
+			}
+
+			long start = System.nanoTime();
+			boolean ok;
+			if ("+".equals(command)) {
+				ftp.connect("127.0.0.1", port);
+				ftp.enterLocalPassiveMode();
+				ok = ftp.isConnected();
+				record("CONNECT", start, ok, true);
+				return;
+			}
+			execute(event);
+			int code = ftp.getReplyCode();
+			ok = code > 0 && code < 400;
+			record(command, start, ok, event.succeeded());
+		}
+
+		private void execute(Event event) throws IOException {
+			String command = event.command;
+			String argument = event.argument;
+			if ("USER".equals(command)) {
+				ftp.user(argument);
+			} else if ("PASS".equals(command)) {
+				// a failed login of the trace fails again
+				ftp.pass(event.succeeded() ? PASSWORD : "not-" + PASSWORD);
+			} else if ("TYPE".equals(command)) {
+				// the client has to know the type to convert ASCII transfers
+				ftp.setFileType(argument != null && argument.trim().toUpperCase(Locale.ENGLISH).startsWith("A")
+						? FTP.ASCII_FILE_TYPE : FTP.BINARY_FILE_TYPE);
+			} else if ("RETR".equals(command)) {
+				LoadClient.CountingOutputStream out = new LoadClient.CountingOutputStream();
+				ftp.retrieveFile(argument, out);
+				bytesRead.addAndGet(out.count);
+			} else if ("STOR".equals(command)) {
+				store(ftp.storeFile(argument, new LoadClient.GeneratedInputStream(event.bytes)), event.bytes);
+			} else if ("APPE".equals(command)) {
+				store(ftp.appendFile(argument, new LoadClient.GeneratedInputStream(event.bytes)), event.bytes);
+			} else if ("STOU".equals(command)) {
+				LoadClient.GeneratedInputStream in = new LoadClient.GeneratedInputStream(event.bytes);
+				store(argument == null ? ftp.storeUniqueFile(in) : ftp.storeUniqueFile(argument, in), event.bytes);
+			} else if ("LIST".equals(command)) {
+				if (argument == null) {
+					ftp.listFiles();
+				} else {
+					ftp.listFiles(argument);
+				}
+			} else if ("NLST".equals(command)) {
+				ftp.listNames(argument);
+			} else if ("MLSD".equals(command)) {
+				ftp.mlistDir(argument);
+			} else if ("MLST".equals(command)) {
+				ftp.mlistFile(argument);
+			} else if ("CDUP".equals(command) || "XCUP".equals(command)) {
+				ftp.changeToParentDirectory();
+			} else if ("QUIT".equals(command)) {
+				ftp.logout();
+			} else {
+				ftp.sendCommand(command, argument);
+			}
+		}
+
+		private void store(boolean ok, long bytes) {
+			if (ok) {
+				bytesWritten.addAndGet(bytes);
+			}
+		}
+
+		private void record(String command, long start, boolean ok, boolean expected) {
+			LatencyHistogram histogram = latencies.get(command);
+			if (histogram == null) {
+				// the counter first, commands seen in latencies have one
+				mismatches.putIfAbsent(command, new AtomicLong());
+				latencies.putIfAbsent(command, new LatencyHistogram());
+				histogram = latencies.get(command);
+			}
+			histogram.record(System.nanoTime() - start);
+			if (ok != expected) {
+				mismatches.get(command).incrementAndGet();
+			}
+		}
+
+		private void waitUntil(long deadline) {
+			long wait = deadline - System.nanoTime();
+			if (wait <= 0) {
+				return;
+			}
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void disconnect() {
+			if (ftp.isConnected()) {
+				try {
+					ftp.disconnect();
+				} catch (IOException e) {
+					log.debug("Session " + session.id + " failed disconnecting", e);
+				}
+			}
+		}
+	}
+
+	private String report(long elapsedNanos, long rpcs, Map<String, Long> commandCounts,
+						  Map<String, Long> commandRpcs) {
+		double seconds = elapsedNanos / 1e9;
+		long replayed = 0;
+		long mismatched = 0;
+		Map<String, LatencyHistogram> sorted = new TreeMap<String, LatencyHistogram>(latencies);
+		for (Map.Entry<String, LatencyHistogram> command : sorted.entrySet()) {
+			replayed += command.getValue().getCount();
+			mismatched += mismatches.get(command.getKey()).get();
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		Gateway.appendOptions(sb, options);
+		sb.append("  \"sessions\": ").append(sessions.size()).append(",\n");
+		sb.append("  \"abortedSessions\": ").append(abortedSessions.get()).append(",\n");
+		sb.append("  \"events\": ").append(events).append(",\n");
+		sb.append("  \"replayedCommands\": ").append(replayed).append(",\n");
+		sb.append("  \"skippedCommands\": ").append(skipped.get()).append(",\n");
+		sb.append("  \"mismatchedCommands\": ").append(mismatched).append(",\n");
+		sb.append("  \"durationSeconds\": ").append(Gateway.format(seconds)).append(",\n");
+		sb.append("  \"commandsPerSecond\": ").append(Gateway.format(replayed / seconds)).append(",\n");
+		sb.append("  \"bytesReadPerSecond\": ").append(Gateway.format(bytesRead.get() / seconds)).append(",\n");
+		sb.append("  \"bytesWrittenPerSecond\": ").append(Gateway.format(bytesWritten.get() / seconds)).append(",\n");
+		sb.append("  \"nameNodeOperations\": ").append(rpcs).append(",\n");
+		sb.append("  \"nameNodeOperationsPerSecond\": ").append(Gateway.format(rpcs / seconds)).append(",\n");
+		sb.append("  \"scheduleLag\": {");
+		Gateway.appendLatency(sb, scheduleLag);
+		sb.append("},\n");
+		sb.append("  \"latency\": {");
+		String separator = "\n";
+		for (Map.Entry<String, LatencyHistogram> command : sorted.entrySet()) {
+			LatencyHistogram histogram = command.getValue();
+			sb.append(separator).append("    ").append(Gateway.quote(command.getKey())).append(": {")
+					.append("\"count\": ").append(histogram.getCount())
+					.append(", \"mismatches\": ").append(mismatches.get(command.getKey()).get())
+					.append(", ");
+			Gateway.appendLatency(sb, histogram);
+			sb.append('}');
+			separator = ",\n";
+		}
+		sb.append("\n  },\n");
+		Gateway.appendCommands(sb, commandCounts, commandRpcs);
+		sb.append("}\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,216 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Computes the checksums of whole files for HASH, XCRC, XMD5 and XSHA*.
+ * The HDFS algorithm is answered by the NameNode and DataNodes through
+ * FileSystem.getFileChecksum, the others read the file on the calling
+ * thread and are refused for files above a maximum size. Results are cached
+ * by path, length and modification time, taken from a fresh status, so a
+ * file changed through HDFS produces a new key and repeated verifications
+ * of the same file are free.
+ */
+public class HdfsChecksums implements HdfsMetrics.CacheStatistics {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsChecksums.class);
+
+	/**
+	 * Composite block checksum of HDFS, as printed by "hadoop fs -checksum"
+	 */
+	public final static String HDFS = "HDFS";
+
+	public final static String CRC32 = "CRC32";
+
+	public final static List<String> ALGORITHMS = Collections.unmodifiableList(Arrays.asList(
+			"SHA-256", "SHA-512", "SHA-1", "MD5", CRC32, HDFS));
+
+	private final static int BUFFER_SIZE = 1024 * 1024;
+
+	private final int maxSize;
+
+	private final long maxReadSize;
+
+	private final LinkedHashMap<String, String> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructs the cache
+	 *
+	 * @param maxSize     maximum number of cached checksums, 0 disables the cache
+	 * @param maxReadSize maximum bytes read for a checksum other than HDFS, 0 for no limit
+	 */
+	public HdfsChecksums(final int maxSize, long maxReadSize) {
+		this.maxSize = maxSize;
+		this.maxReadSize = maxReadSize;
+		this.entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				if (size() > maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Get the supported algorithm of a name
+	 *
+	 * @param name algorithm name in any case
+	 * @return algorithm or null if it is not supported
+	 */
+	public static String getAlgorithm(String name) {
+		for (String algorithm : ALGORITHMS) {
+			if (algorithm.equalsIgnoreCase(name.trim())) {
+				return algorithm;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Check if the checksum of a file of the given length is computed
+	 *
+	 * @param algorithm one of {@link #ALGORITHMS}
+	 * @param length    length of the file
+	 * @return false if the file would have to be read and is too large
+	 */
+	public boolean isComputable(String algorithm, long length) {
+		return HDFS.equals(algorithm) || maxReadSize <= 0 || length <= maxReadSize;
+	}
+
+	/**
+	 * Get the checksum of a file
+	 *
+	 * @param fs        file system of the accessing user
+	 * @param path      path of the file
+	 * @param algorithm one of {@link #ALGORITHMS}
+	 * @return checksum as lower case hex digits
+	 * @throws IOException if the file can not be read or is too large for the algorithm
+	 */
+	public String get(FileSystem fs, Path path, String algorithm) throws IOException {
+		// a cached status may miss a change made through HDFS
+		FileStatus status = fs.getFileStatus(path);
+		String key = algorithm + ' ' + status.getLen() + ' ' + status.getModificationTime() + ' '
+				+ path.toUri().getPath();
+		if (maxSize > 0) {
+			String checksum;
+			synchronized (this) {
+				checksum = entries.get(key);
+			}
+			if (checksum != null) {
+				hits.incrementAndGet();
+				return checksum;
+			}
+			misses.incrementAndGet();
+		}
+
+		if (!isComputable(algorithm, status.getLen())) {
+			throw new IOException(path + " has " + status.getLen() + " bytes, " + algorithm
+					+ " is limited to " + maxReadSize + " bytes");
+		}
+		long start = System.currentTimeMillis();
+		String checksum = HDFS.equals(algorithm) ? fileChecksum(fs, path) : read(fs, path, status.getLen(), algorithm);
+		if (log.isDebugEnabled()) {
+			log.debug(algorithm + " of " + path + " computed in " + (System.currentTimeMillis() - start) + "ms");
+		}
+		if (maxSize > 0) {
+			synchronized (this) {
+				entries.put(key, checksum);
+			}
+		}
+		return checksum;
+	}
+
+	private String fileChecksum(FileSystem fs, Path path) throws IOException {
+		FileChecksum checksum = fs.getFileChecksum(path);
+		if (checksum == null) {
+			throw new IOException("The file system has no checksum of " + path);
+		}
+		return StringUtils.byteToHexString(checksum.getBytes());
+	}
+
+	/**
+	 * Read the first length bytes of the file, the length the key was built
+	 * with, so a concurrent append does not change the result
+	 */
+	private String read(FileSystem fs, Path path, long length, String algorithm) throws IOException {
+		MessageDigest digest = null;
+		CRC32 crc = null;
+		if (CRC32.equals(algorithm)) {
+			crc = new CRC32();
+		} else {
+			try {
+				digest = MessageDigest.getInstance(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException(algorithm + " is not available", e);
+			}
+		}
+
+		byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+		FSDataInputStream in = fs.open(path, buffer.length);
+		try {
+			long remaining = length;
+			while (remaining > 0) {
+				int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (n == -1) {
+					throw new EOFException("File " + path + " ended before " + length + " bytes");
+				}
+				if (crc != null) {
+					crc.update(buffer, 0, n);
+				} else {
+					digest.update(buffer, 0, n);
+				}
+				remaining -= n;
+			}
+		} finally {
+			in.close();
+		}
+		if (crc != null) {
+			return String.format(Locale.ENGLISH, "%08x", crc.getValue());
+		}
+		return StringUtils.byteToHexString(digest.digest());
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+}
@@ -0,0 +1,399 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copies files and directory trees inside the cluster for SITE COPY, so
+ * the data never passes through the FTP client. Files are copied on a
+ * worker pool shared by all sessions. Large HDFS files are split into
+ * ranges of whole blocks which are copied in parallel into part files and
+ * concatenated into the target. The calling thread only plans, submits and
+ * reports progress, so no task ever waits for another task of the pool.
+ * A copy holds its own reference on the FileSystem handle until its last
+ * task finished, so a session closed meanwhile does not close the handle
+ * under the running tasks.
+ */
+public class HdfsCopier {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsCopier.class);
+
+	private final static int BUFFER_SIZE = 1024 * 1024;
+
+	private final HdfsFileSystemCache fsCache;
+
+	private final ExecutorService executor;
+
+	private final int threads;
+
+	private final long parallelMinSize;
+
+	private final long chunkSize;
+
+	private final long maxSize;
+
+	/**
+	 * Receives the progress of a copy
+	 */
+	public interface Progress {
+		void update(long copiedBytes, long totalBytes, int copiedFiles, int totalFiles);
+	}
+
+	/**
+	 * State of one copy
+	 */
+	private static class Job {
+		private final HdfsFileSystemCache fsCache;
+		private final FileSystem fs;
+		// the caller and every submitted task, the last one returns the handle
+		private final AtomicInteger references = new AtomicInteger(1);
+		private final AtomicLong copiedBytes = new AtomicLong();
+		private final AtomicInteger copiedFiles = new AtomicInteger();
+		private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+		private long totalBytes = 0;
+		private int totalFiles = 0;
+
+		private Job(HdfsFileSystemCache fsCache, FileSystem fs) {
+			this.fsCache = fsCache;
+			this.fs = fs;
+		}
+
+		private void release() {
+			if (references.decrementAndGet() == 0) {
+				fsCache.release(fs);
+			}
+		}
+	}
+
+	/**
+	 * A file being copied as one or more parts
+	 */
+	private static class FileCopy {
+		private final FileStatus source;
+		private final Path target;
+		private final Path[] parts;
+		private final AtomicInteger remaining;
+
+		private FileCopy(FileStatus source, Path target, Path[] parts) {
+			this.source = source;
+			this.target = target;
+			this.parts = parts;
+			this.remaining = new AtomicInteger(parts.length);
+		}
+	}
+
+	/**
+	 * Constructs the copier
+	 *
+	 * @param fsCache         cache the FileSystem handles of the copies are held from
+	 * @param executor        pool copying the files
+	 * @param threads         size of the pool
+	 * @param parallelMinSize minimum size of an HDFS file to copy its ranges in parallel
+	 * @param chunkSize       size of a range, rounded down to whole blocks
+	 * @param maxSize         maximum bytes of a copy, 0 for no limit
+	 */
+	public HdfsCopier(HdfsFileSystemCache fsCache, ExecutorService executor, int threads, long parallelMinSize,
+			long chunkSize, long maxSize) {
+		this.fsCache = fsCache;
+		this.executor = executor;
+		this.threads = threads;
+		this.parallelMinSize = parallelMinSize;
+		this.chunkSize = chunkSize;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Copy a file or directory tree to a target which does not exist yet.
+	 * A failed copy removes the target again. Sources larger than the
+	 * maximum size are refused before anything is created.
+	 *
+	 * @param fs               file system of the accessing user, held from the FileSystem cache
+	 * @param source           status of the source
+	 * @param target           path of the copy
+	 * @param progress         receives the progress, may be null
+	 * @param progressInterval milliseconds between progress updates, 0 for none
+	 * @return bytes copied
+	 * @throws IOException if the copy failed
+	 */
+	public long copy(FileSystem fs, FileStatus source, Path target, Progress progress, long progressInterval)
+			throws IOException {
+		if (progressInterval <= 0) {
+			progress = null;
+			progressInterval = 1000;
+		}
+		Job job = new Job(fsCache, fsCache.acquire(fs));
+		try {
+			return copy(job, source, target, progress, progressInterval);
+		} finally {
+			job.release();
+		}
+	}
+
+	private long copy(Job job, FileStatus source, Path target, Progress progress, long progressInterval)
+			throws IOException {
+		if (job.fs.exists(target)) {
+			throw new IOException("Target " + target + " already exists");
+		}
+		if (maxSize > 0) {
+			long size = source.getLen();
+			if (source.isDirectory()) {
+				ContentSummary summary = job.fs.getContentSummary(source.getPath());
+				size = summary.getLength();
+			}
+			if (size > maxSize) {
+				throw new IOException(source.getPath() + " has " + size + " bytes, copies are limited to "
+						+ maxSize + " bytes");
+			}
+		}
+		List<FileCopy> files;
+		try {
+			files = plan(job, source, target);
+		} catch (IOException e) {
+			cleanUp(job, new ArrayList<FileCopy>(), target);
+			throw e;
+		}
+
+		// at most two tasks per worker wait in the queue
+		int permits = threads * 2;
+		Semaphore outstanding = new Semaphore(permits);
+		long nextProgress = System.currentTimeMillis() + progressInterval;
+		boolean submitted = false;
+		try {
+			for (FileCopy file : files) {
+				long offset = 0;
+				for (int i = 0; i < file.parts.length; i++) {
+					long length = file.parts.length == 1 ? file.source.getLen()
+							: Math.min(partSize(file.source), file.source.getLen() - offset);
+					while (!outstanding.tryAcquire(progressInterval, TimeUnit.MILLISECONDS)) {
+						nextProgress = report(job, progress, progressInterval, nextProgress);
+					}
+					if (job.failure.get() != null) {
+						outstanding.release();
+						break;
+					}
+					job.references.incrementAndGet();
+					try {
+						executor.execute(HdfsOverFtpSystem.getMetrics().attribute(
+								new PartCopy(job, file, i, offset, length, outstanding)));
+					} catch (RuntimeException e) {
+						job.references.decrementAndGet();
+						outstanding.release();
+						throw e;
+					}
+					offset += length;
+					nextProgress = report(job, progress, progressInterval, nextProgress);
+				}
+				if (job.failure.get() != null) {
+					break;
+				}
+			}
+			submitted = true;
+			// all permits are back once every task finished
+			while (!outstanding.tryAcquire(permits, progressInterval, TimeUnit.MILLISECONDS)) {
+				nextProgress = report(job, progress, progressInterval, nextProgress);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			job.failure.compareAndSet(null, new InterruptedIOException("Copy of " + source.getPath() + " interrupted"));
+		}
+
+		IOException failure = job.failure.get();
+		if (failure != null) {
+			if (submitted) {
+				cleanUp(job, files, target);
+			} else {
+				log.warn("Copy to " + target + " interrupted with tasks still running, not removed");
+			}
+			throw failure;
+		}
+		return job.copiedBytes.get();
+	}
+
+	/**
+	 * Create the target directories and split the files into parts
+	 */
+	private List<FileCopy> plan(Job job, FileStatus source, Path target) throws IOException {
+		List<FileCopy> files = new ArrayList<FileCopy>();
+		if (!source.isDirectory()) {
+			files.add(fileCopy(job, source, target));
+			return files;
+		}
+		LinkedList<FileStatus> sourceDirs = new LinkedList<FileStatus>();
+		LinkedList<Path> targetDirs = new LinkedList<Path>();
+		sourceDirs.add(source);
+		targetDirs.add(target);
+		while (!sourceDirs.isEmpty()) {
+			FileStatus dir = sourceDirs.removeFirst();
+			Path targetDir = targetDirs.removeFirst();
+			if (!job.fs.mkdirs(targetDir)) {
+				throw new IOException("Can not create " + targetDir);
+			}
+			for (FileStatus child : job.fs.listStatus(dir.getPath())) {
+				Path childTarget = new Path(targetDir, child.getPath().getName());
+				if (child.isDirectory()) {
+					sourceDirs.add(child);
+					targetDirs.add(childTarget);
+				} else if (child.isFile()) {
+					files.add(fileCopy(job, child, childTarget));
+				}
+			}
+		}
+		return files;
+	}
+
+	private FileCopy fileCopy(Job job, FileStatus source, Path target) {
+		job.totalBytes += source.getLen();
+		job.totalFiles++;
+		int parts = 1;
+		// concat is only offered by HDFS
+		if (source.getLen() >= parallelMinSize && "hdfs".equals(job.fs.getUri().getScheme())) {
+			parts = (int) ((source.getLen() + partSize(source) - 1) / partSize(source));
+		}
+		if (parts == 1) {
+			return new FileCopy(source, target, new Path[]{target});
+		}
+		// parts live next to the target, as concat requires
+		Path[] partPaths = new Path[parts];
+		String prefix = "." + target.getName() + ".copy-" + Long.toHexString(System.nanoTime()) + "-";
+		for (int i = 0; i < parts; i++) {
+			partPaths[i] = new Path(target.getParent(), prefix + i);
+		}
+		return new FileCopy(source, target, partPaths);
+	}
+
+	/**
+	 * Size of a part, whole blocks so that all parts but the last end on a
+	 * block boundary
+	 */
+	private long partSize(FileStatus source) {
+		long blockSize = source.getBlockSize();
+		return Math.max(1, chunkSize / blockSize) * blockSize;
+	}
+
+	private long report(Job job, Progress progress, long progressInterval, long nextProgress) {
+		long now = System.currentTimeMillis();
+		if (progress == null || now < nextProgress) {
+			return nextProgress;
+		}
+		progress.update(job.copiedBytes.get(), job.totalBytes, job.copiedFiles.get(), job.totalFiles);
+		return now + progressInterval;
+	}
+
+	private void cleanUp(Job job, List<FileCopy> files, Path target) {
+		try {
+			job.fs.delete(target, true);
+			for (FileCopy file : files) {
+				if (file.parts.length > 1) {
+					for (Path part : file.parts) {
+						job.fs.delete(part, false);
+					}
+				}
+			}
+		} catch (IOException e) {
+			log.error("Failed removing the failed copy " + target, e);
+		}
+	}
+
+	/**
+	 * Copies one range of a file into its part, the last part to finish
+	 * concatenates the parts into the target
+	 */
+	private static class PartCopy implements Runnable {
+		private final Job job;
+		private final FileCopy file;
+		private final int index;
+		private final long offset;
+		private final long length;
+		private final Semaphore outstanding;
+
+		private PartCopy(Job job, FileCopy file, int index, long offset, long length, Semaphore outstanding) {
+			this.job = job;
+			this.file = file;
+			this.index = index;
+			this.offset = offset;
+			this.length = length;
+			this.outstanding = outstanding;
+		}
+
+		public void run() {
+			try {
+				if (job.failure.get() == null) {
+					copyRange();
+					if (file.remaining.decrementAndGet() == 0) {
+						finish();
+					}
+				}
+			} catch (IOException e) {
+				job.failure.compareAndSet(null, e);
+			} catch (RuntimeException e) {
+				job.failure.compareAndSet(null, new IOException(e));
+			} finally {
+				outstanding.release();
+				job.release();
+			}
+		}
+
+		private void copyRange() throws IOException {
+			FileStatus source = file.source;
+			byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+			FSDataInputStream in = job.fs.open(source.getPath(), buffer.length);
+			try {
+				if (offset > 0) {
+					in.seek(offset);
+				}
+				FSDataOutputStream out = job.fs.create(file.parts[index], false, buffer.length,
+						source.getReplication(), source.getBlockSize());
+				try {
+					long remaining = length;
+					while (remaining > 0) {
+						if (job.failure.get() != null) {
+							throw new InterruptedIOException("Copy of " + source.getPath() + " aborted");
+						}
+						int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+						if (n == -1) {
+							throw new EOFException("File " + source.getPath() + " ended before " + (offset + length) + " bytes");
+						}
+						out.write(buffer, 0, n);
+						remaining -= n;
+						job.copiedBytes.addAndGet(n);
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		private void finish() throws IOException {
+			if (file.parts.length > 1) {
+				Path[] rest = new Path[file.parts.length - 1];
+				System.arraycopy(file.parts, 1, rest, 0, rest.length);
+				job.fs.concat(file.parts[0], rest);
+				if (!job.fs.rename(file.parts[0], file.target)) {
+					throw new IOException("Can not rename " + file.parts[0] + " to " + file.target);
+				}
+			}
+			job.copiedFiles.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates a directory in the batches the NameNode returns a partial listing
+ * in, so only one batch is held in memory at a time. Block locations are not
+ * requested. File systems other than HDFS are iterated with
+ * listLocatedStatus. Batches fetched through the DFSClient are counted in
+ * the statistics of the file system the way DistributedFileSystem counts
+ * its own listings, so they show up in the NameNode operations of the
+ * command.
+ */
+public class HdfsDirectoryIterator implements RemoteIterator<FileStatus> {
+
+	private final FileSystem fs;
+
+	private final Path path;
+
+	private DFSClient client;
+
+	private FileSystem.Statistics statistics;
+
+	private String src;
+
+	private DirectoryListing listing;
+
+	private int index = 0;
+
+	private RemoteIterator<LocatedFileStatus> fallback;
+
+	/**
+	 * Constructs the iterator and fetches the first batch
+	 *
+	 * @param fs   file system of the directory
+	 * @param path directory to list
+	 * @throws IOException if the directory does not exist or can not be listed
+	 */
+	public HdfsDirectoryIterator(FileSystem fs, Path path) throws IOException {
+		this.fs = fs;
+		this.path = path;
+		if (fs instanceof DistributedFileSystem) {
+			client = ((DistributedFileSystem) fs).getClient();
+			src = path.toUri().getPath();
+			statistics = FileSystem.getStatistics(fs.getUri().getScheme(), fs.getClass());
+			listing = client.listPaths(src, HdfsFileStatus.EMPTY_NAME, false);
+			statistics.incrementReadOps(1);
+			if (listing == null) {
+				throw new FileNotFoundException("File " + path + " does not exist.");
+			}
+		} else {
+			fallback = fs.listLocatedStatus(path);
+		}
+	}
+
+	public boolean hasNext() throws IOException {
+		if (fallback != null) {
+			return fallback.hasNext();
+		}
+		while (index >= listing.getPartialListing().length) {
+			if (!listing.hasMore()) {
+				return false;
+			}
+			// drop the finished batch before fetching the next one
+			byte[] lastName = listing.getLastName();
+			listing = null;
+			listing = client.listPaths(src, lastName, false);
+			statistics.incrementLargeReadOps(1);
+			index = 0;
+			if (listing == null) {
+				// the directory was removed while being listed
+				throw new FileNotFoundException("File " + path + " does not exist.");
+			}
+		}
+		return true;
+	}
+
+	public FileStatus next() throws IOException {
+		if (!hasNext()) {
+			throw new NoSuchElementException("No more entries in " + path);
+		}
+		if (fallback != null) {
+			return fallback.next();
+		}
+		HdfsFileStatus status = listing.getPartialListing()[index++];
+		return status.makeQualified(fs.getUri(), path);
+	}
+}
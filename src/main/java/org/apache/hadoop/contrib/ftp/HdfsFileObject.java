@@ -1,18 +1,23 @@
 package org.apache.hadoop.contrib.ftp;
 
 import org.apache.ftpserver.ftplet.FileObject;
-import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.ftplet.User;
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -28,21 +33,80 @@ public class HdfsFileObject implements FileObject {
   private HdfsUser user;
   private FileSystem fs;
 
+  // status snapshot of the path, fetched at most once until invalidated
+  private FileStatus fileStatus;
+  private boolean notFound = false;
+
   /**
    * Constructs HdfsFileObject from path
    *
    * @param path path to represent object
    * @param user accessor of the object
+   * @param fs   file system of the session
    */
-  public HdfsFileObject(String path, User user) throws FtpException {
+  public HdfsFileObject(String path, User user, FileSystem fs) {
     this.path = new Path(path);
     this.user = (HdfsUser) user;
-    try {
-      fs = this.path.getFileSystem(new Configuration());
-    } catch (IOException e) {
-      log.error("Error when get FileSystem.");
-      throw new FtpException(e.getMessage());
+    this.fs = fs;
+  }
+
+  /**
+   * Constructs HdfsFileObject of a directory entry from the status returned
+   * by the listing, so no further getFileStatus is needed for it
+   *
+   * @param path   path to represent object
+   * @param status status of the path returned by the listing
+   * @param user   accessor of the object
+   * @param fs     file system of the listed directory
+   */
+  HdfsFileObject(Path path, FileStatus status, HdfsUser user, FileSystem fs) {
+    this.path = path;
+    this.user = user;
+    this.fs = fs;
+    this.fileStatus = status;
+  }
+
+  /**
+   * Get the status snapshot of the object. The first call looks the path up
+   * in the server wide metadata cache among the statuses fetched for the
+   * same user and does a single getFileStatus RPC
+   * on a miss, the following calls answer from the snapshot.
+   *
+   * @return status of the object
+   * @throws IOException if the object does not exist or can not be accessed
+   */
+  private FileStatus getFileStatus() throws IOException {
+    if (fileStatus == null) {
+      if (notFound) {
+        throw new FileNotFoundException("File does not exist: " + path);
+      }
+      HdfsMetadataCache cache = HdfsOverFtpSystem.getMetadataCache();
+      try {
+        fileStatus = cache.get(user.getName(), path);
+        if (fileStatus == null) {
+          fileStatus = fs.getFileStatus(path);
+          cache.put(user.getName(), path, fileStatus);
+        }
+      } catch (FileNotFoundException e) {
+        notFound = true;
+        cache.putNotFound(user.getName(), path);
+        throw e;
+      }
     }
+    return fileStatus;
+  }
+
+  /**
+   * Drop the status snapshot and the cached metadata after the object is
+   * modified, once per operation
+   *
+   * @param subtree true if the object was removed or renamed, which drops
+   *                the cached metadata below it as well
+   */
+  private void invalidate(boolean subtree) {
+    fileStatus = null;
+    notFound = false;
+    HdfsOverFtpSystem.getMetadataCache().invalidate(path, subtree);
   }
 
   /**
@@ -85,8 +149,7 @@ public class HdfsFileObject implements FileObject {
   public boolean isDirectory() {
     try {
       log.debug("is directory? : " + path);
-      FileStatus fs = this.fs.getFileStatus(path);
-      return fs.isDirectory();
+      return getFileStatus().isDirectory();
     } catch (IOException e) {
       log.debug(path + " is not dir", e);
       return false;
@@ -94,23 +157,15 @@ public class HdfsFileObject implements FileObject {
   }
 
   /**
-   * Get HDFS permissions
+   * Checks if the object is a file
    *
-   * @return HDFS permissions as a FsPermission instance
-   * @throws IOException if path doesn't exist so we get permissions of parent object in that case
+   * @return true if the object is a file
    */
-  private FsPermission getPermissions() throws IOException {
-      return this.fs.getFileStatus(path).getPermission();
-    }
-
-    /**
-     * Checks if the object is a file
-     *
-     * @return true if the object is a file
-     */
   public boolean isFile() {
     try {
-      return this.fs.isFile(path);
+      return getFileStatus().isFile();
+    } catch (FileNotFoundException e) {
+      return false;
     } catch (IOException e) {
       log.error(path + " is not file", e);
       return false;
@@ -124,7 +179,7 @@ public class HdfsFileObject implements FileObject {
    */
   public boolean doesExist() {
     try {
-      this.fs.getFileStatus(path);
+      getFileStatus();
       return true;
     } catch (IOException e) {
       //   log.debug(path + " does not exist", e);
@@ -139,83 +194,121 @@ public class HdfsFileObject implements FileObject {
    */
   public boolean hasReadPermission() {
     try {
-      FsPermission permissions = getPermissions();
-      if (user.getName().equals(getOwnerName())) {
-        if (permissions.toString().substring(0, 1).equals("r")) {
-          log.debug("PERMISSIONS: " + path + " - " + " read allowed for user");
-          return true;
-        }
-      } else if (user.isGroupMember(getGroupName())) {
-        if (permissions.toString().substring(3, 4).equals("r")) {
-          log.debug("PERMISSIONS: " + path + " - " + " read allowed for group");
-          return true;
-        }
-      } else {
-        if (permissions.toString().substring(6, 7).equals("r")) {
-          log.debug("PERMISSIONS: " + path + " - " + " read allowed for others");
-          return true;
-        }
-      }
-      log.debug("PERMISSIONS: " + path + " - " + " read denied");
-      return false;
+      return hasAccess(FsAction.READ);
     } catch (IOException e) {
-      e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+      log.debug("PERMISSIONS: " + path + " - read denied", e);
       return false;
     }
   }
 
-  private HdfsFileObject getParent() throws FtpException {
+  private HdfsFileObject getParent() {
     String pathS = path.toString();
     String parentS = "/";
     int pos = pathS.lastIndexOf("/");
     if (pos > 0) {
       parentS = pathS.substring(0, pos);
     }
-    return new HdfsFileObject(parentS, user);
+    return new HdfsFileObject(parentS, user, fs);
   }
 
   /**
-   * Checks if the user has a write permission on the object
+   * Checks if the user has a write permission on the object. A missing
+   * object can be written if its parent directory can be.
    *
    * @return true if the user has write permission on the object
    */
   public boolean hasWritePermission() {
     try {
-      FsPermission permissions = getPermissions();
-      if (user.getName().equals(getOwnerName())) {
-        if (permissions.toString().substring(1, 2).equals("w")) {
-          log.debug("PERMISSIONS: " + path + " - " + " write allowed for user");
-          return true;
+      return hasAccess(FsAction.WRITE);
+    } catch (FileNotFoundException e) {
+      try {
+        return !isRoot() && getParent().hasAccess(FsAction.WRITE_EXECUTE);
+      } catch (IOException pe) {
+        log.debug("PERMISSIONS: " + path + " - write denied", pe);
+        return false;
+      }
+    } catch (IOException e) {
+      log.debug("PERMISSIONS: " + path + " - write denied", e);
+      return false;
+    }
+  }
+
+  /**
+   * Checks if the user has a delete permission on the object, which is
+   * decided by its parent directory
+   *
+   * @return true if the user has delete permission on the object
+   */
+  public boolean hasDeletePermission() {
+    if (isRoot()) {
+      return false;
+    }
+    try {
+      HdfsFileObject parent = getParent();
+      return HdfsOverFtpSystem.getPermissionChecker().checkDelete(user, fs,
+          parent.path, parent.getFileStatus(), getFileStatus());
+    } catch (IOException e) {
+      log.debug("PERMISSIONS: " + path + " - delete denied", e);
+      return false;
+    }
+  }
+
+  /**
+   * Get the perm fact of MLSD and MLST (RFC 3659) from the status snapshot
+   * of the object and its parent
+   *
+   * @param parent directory holding the object, null to look it up
+   * @return actions the user may perform on the object
+   */
+  String getPermFact(HdfsFileObject parent) {
+    StringBuilder sb = new StringBuilder(8);
+    try {
+      if (getFileStatus().isDirectory()) {
+        if (hasAccess(FsAction.EXECUTE)) {
+          sb.append('e');
+        }
+        if (hasAccess(FsAction.READ)) {
+          sb.append('l');
         }
-      } else if (user.isGroupMember(getGroupName())) {
-        if (permissions.toString().substring(4, 5).equals("w")) {
-          log.debug("PERMISSIONS: " + path + " - " + " write allowed for group");
-          return true;
+        if (hasAccess(FsAction.WRITE_EXECUTE)) {
+          sb.append("cmp");
         }
       } else {
-        if (permissions.toString().substring(7, 8).equals("w")) {
-          log.debug("PERMISSIONS: " + path + " - " + " write allowed for others");
-          return true;
+        if (hasAccess(FsAction.READ)) {
+          sb.append('r');
+        }
+        if (hasAccess(FsAction.WRITE)) {
+          sb.append("aw");
         }
       }
-      log.debug("PERMISSIONS: " + path + " - " + " write denied");
-      return false;
-    } catch (IOException e) {
-      try {
-        return getParent().hasWritePermission();
-      } catch (FtpException fe) {
-        return false;
+      if (!isRoot()) {
+        if (parent == null) {
+          parent = getParent();
+        }
+        if (HdfsOverFtpSystem.getPermissionChecker().checkDelete(user, fs,
+            parent.path, parent.getFileStatus(), getFileStatus())) {
+          sb.append("df");
+        }
       }
+    } catch (IOException e) {
+      log.debug("PERMISSIONS: " + path + " - perm fact incomplete", e);
     }
+    return sb.toString();
   }
 
   /**
-   * Checks if the user has a delete permission on the object
+   * Checks if the user may perform an action on the object
    *
-   * @return true if the user has delete permission on the object
+   * @param action action to check
+   * @return true if the action is allowed
+   * @throws IOException if the object does not exist
    */
-  public boolean hasDeletePermission() {
-    return hasWritePermission();
+  private boolean hasAccess(FsAction action) throws IOException {
+    return HdfsOverFtpSystem.getPermissionChecker().check(user, fs, path, getFileStatus(), action);
+  }
+
+  private boolean isRoot() {
+    return path.getParent() == null;
   }
 
   /**
@@ -225,8 +318,7 @@ public class HdfsFileObject implements FileObject {
    */
   public String getOwnerName() {
     try {
-      FileStatus fs = this.fs.getFileStatus(path);
-      return fs.getOwner();
+      return getFileStatus().getOwner();
     } catch (IOException e) {
       e.printStackTrace();
       return null;
@@ -240,8 +332,7 @@ public class HdfsFileObject implements FileObject {
    */
   public String getGroupName() {
     try {
-      FileStatus fs = this.fs.getFileStatus(path);
-      return fs.getGroup();
+      return getFileStatus().getGroup();
     } catch (IOException e) {
       e.printStackTrace();
       return null;
@@ -264,8 +355,7 @@ public class HdfsFileObject implements FileObject {
    */
   public long getLastModified() {
     try {
-      FileStatus fs = this.fs.getFileStatus(path);
-      return fs.getModificationTime();
+      return getFileStatus().getModificationTime();
     } catch (IOException e) {
       e.printStackTrace();
       return 0;
@@ -279,7 +369,7 @@ public class HdfsFileObject implements FileObject {
    */
   public long getSize() {
     try {
-      FileStatus fs = this.fs.getFileStatus(path);
+      FileStatus fs = getFileStatus();
       log.info("getSize(): " + path + " : " + fs.getLen());
       return fs.getLen();
     } catch (IOException e) {
@@ -288,6 +378,50 @@ public class HdfsFileObject implements FileObject {
     }
   }
 
+  /**
+   * Get the checksum of the whole file, cached by path, length and
+   * modification time
+   *
+   * @param algorithm one of {@link HdfsChecksums#ALGORITHMS}
+   * @return checksum as lower case hex digits
+   * @throws IOException if the file does not exist or can not be read
+   */
+  String getChecksum(String algorithm) throws IOException {
+    return HdfsOverFtpSystem.getChecksums().get(fs, path, algorithm);
+  }
+
+  /**
+   * Copy the object inside the cluster, a directory with everything below it
+   *
+   * @param target           object to create as the copy, must not exist
+   * @param progress         receives the progress, may be null
+   * @param progressInterval milliseconds between progress updates
+   * @return bytes copied
+   * @throws IOException if the copy failed, the target is removed again
+   */
+  long copyTo(HdfsFileObject target, HdfsCopier.Progress progress, long progressInterval) throws IOException {
+    try {
+      return HdfsOverFtpSystem.getCopier().copy(fs, getFileStatus(), target.path, progress, progressInterval);
+    } finally {
+      target.invalidate(true);
+    }
+  }
+
+  /**
+   * Check if the object is the other object or one of its parent directories
+   *
+   * @param other object to check
+   * @return true if other is this object or lies below it
+   */
+  boolean isSelfOrAncestorOf(HdfsFileObject other) {
+    for (Path p = other.path; p != null; p = p.getParent()) {
+      if (p.equals(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Create a new dir from the object
    *
@@ -302,7 +436,7 @@ public class HdfsFileObject implements FileObject {
 
     try {
       fs.mkdirs(path);
-      fs.setOwner(path, user.getName(), user.getMainGroup());
+      invalidate(false);
       return true;
     } catch (IOException e) {
       e.printStackTrace();
@@ -318,6 +452,7 @@ public class HdfsFileObject implements FileObject {
   public boolean delete() {
     try {
       fs.delete(path, true);
+      invalidate(true);
       return true;
     } catch (IOException e) {
       e.printStackTrace();
@@ -333,7 +468,14 @@ public class HdfsFileObject implements FileObject {
    */
   public boolean move(FileObject fileObject) {
     try {
-      fs.rename(path, new Path(fileObject.getFullName()));
+      Path destination = new Path(fileObject.getFullName());
+      fs.rename(path, destination);
+      invalidate(true);
+      if (fileObject instanceof HdfsFileObject) {
+        ((HdfsFileObject) fileObject).invalidate(true);
+      } else {
+        HdfsOverFtpSystem.getMetadataCache().invalidate(destination, true);
+      }
       return true;
     } catch (IOException e) {
       e.printStackTrace();
@@ -356,23 +498,62 @@ public class HdfsFileObject implements FileObject {
     try {
       FileStatus fileStats[] = this.fs.listStatus(path);
 
+      HdfsMetadataCache cache = HdfsOverFtpSystem.getMetadataCache();
+      // polling clients usually follow a LIST with SIZE/MDTM of the entries
+      boolean cached = cache.isListingCached(fileStats.length);
       FileObject fileObjects[] = new FileObject[fileStats.length];
       for (int i = 0; i < fileStats.length; i++) {
-        fileObjects[i] = new HdfsFileObject(fileStats[i].getPath().toString(), user);
+        Path childPath = new Path(path, fileStats[i].getPath().getName());
+        fileObjects[i] = new HdfsFileObject(childPath, fileStats[i], user, fs);
+        if (cached) {
+          cache.put(user.getName(), childPath, fileStats[i]);
+        }
       }
       return fileObjects;
-    } catch (IOException | FtpException e) {
+    } catch (IOException e) {
       log.error(e.getMessage());
       return null;
     }
   }
 
   /**
-   * Creates output stream to write to the object
+   * List files of the directory batch by batch as the NameNode returns
+   * them, without materializing the whole directory. Permission checks are
+   * left to the caller. Children are put into the metadata cache only until
+   * the listing outgrows its share of the cache.
    *
-   * @param l is not used here
+   * @return iterator over the files in the directory
+   * @throws IOException if the directory can not be listed
+   */
+  RemoteIterator<HdfsFileObject> listFilesIncrementally() throws IOException {
+    final HdfsDirectoryIterator statuses = new HdfsDirectoryIterator(fs, path);
+    final HdfsMetadataCache cache = HdfsOverFtpSystem.getMetadataCache();
+    return new RemoteIterator<HdfsFileObject>() {
+      private long entries = 0;
+
+      public boolean hasNext() throws IOException {
+        return statuses.hasNext();
+      }
+
+      public HdfsFileObject next() throws IOException {
+        FileStatus status = statuses.next();
+        Path childPath = new Path(path, status.getPath().getName());
+        if (cache.isListingCached(++entries)) {
+          cache.put(user.getName(), childPath, status);
+        }
+        return new HdfsFileObject(childPath, status, user, fs);
+      }
+    };
+  }
+
+  /**
+   * Creates output stream to write to the object. A non zero offset, set by
+   * REST or APPE, resumes the upload by appending to the existing file and
+   * must match its current length.
+   *
+   * @param l offset to start writing at
    * @return OutputStream
-   * @throws IOException
+   * @throws IOException if the offset does not match the length of the file
    */
   public OutputStream createOutputStream(long l) throws IOException {
 
@@ -381,34 +562,172 @@ public class HdfsFileObject implements FileObject {
       throw new IOException("No write permission : " + path);
     }
 
+    if (l > 0) {
+      return appendOutputStream(l);
+    }
+
     try {
-      FSDataOutputStream out = fs.create(path);
-      fs.setOwner(path, user.getName(), user.getMainGroup());
-      return out;
+      HdfsWriteProfile profile = HdfsOverFtpSystem.getWriteProfiles().resolve(user, path, fs);
+      if (log.isDebugEnabled()) {
+        log.debug("create " + path + " with " + profile);
+      }
+      FsPermission permission = FsPermission.getFileDefault()
+          .applyUMask(FsPermission.getUMask(fs.getConf()));
+      FSDataOutputStream out = fs.create(path, permission, true, profile.getBufferSize(),
+          profile.getReplication(), profile.getBlockSize(), null);
+      // the cached metadata is dropped once the upload is closed
+      fileStatus = null;
+      notFound = false;
+      return new UploadOutputStream(out);
     } catch (IOException e) {
       e.printStackTrace();
       return null;
     }
   }
 
+  /**
+   * Opens the file for append to continue an interrupted upload
+   *
+   * @param offset offset the client continues at
+   * @return OutputStream positioned at the end of the file
+   * @throws IOException if the file is missing or its length differs from the offset
+   */
+  private OutputStream appendOutputStream(long offset) throws IOException {
+    // the length must be current, not a cached one
+    FileStatus status = fs.getFileStatus(path);
+    if (!status.isFile()) {
+      throw new IOException("Can not append to " + path + ", it is not a file");
+    }
+    if (status.getLen() != offset) {
+      throw new IOException("Offset " + offset + " does not match the length "
+          + status.getLen() + " of " + path);
+    }
+    HdfsWriteProfile profile = HdfsOverFtpSystem.getWriteProfiles().resolve(user, path, fs);
+    FSDataOutputStream out = fs.append(path, profile.getBufferSize());
+    fileStatus = null;
+    return new UploadOutputStream(out);
+  }
+
   /**
    * Creates input stream to read from the object
    *
-   * @param l is not used here
-   * @return OutputStream
-   * @throws IOException
+   * @param l offset to start reading at, set by REST
+   * @return InputStream
+   * @throws IOException if the offset is beyond the end of the file
    */
   public InputStream createInputStream(long l) throws IOException {
     // permission check
     if (!hasReadPermission()) {
       throw new IOException("No read permission : " + path);
     }
+    FSDataInputStream in;
     try {
-      FSDataInputStream in = fs.open(path);
-      return in;
+      in = fs.open(path);
     } catch (IOException e) {
       e.printStackTrace();
       return null;
     }
+    if (l > 0) {
+      // resume a download, only the remaining bytes are read
+      try {
+        in.seek(l);
+      } catch (EOFException e) {
+        in.close();
+        throw new IOException("Offset " + l + " is beyond the end of " + path);
+      }
+    }
+    long length = (in instanceof HdfsDataInputStream)
+        ? ((HdfsDataInputStream) in).getVisibleLength() : getSize();
+    if (HdfsOverFtpSystem.isReadAhead(length - l)) {
+      return new DownloadInputStream(new HdfsReadAheadInputStream(in, path, l, length,
+          HdfsOverFtpSystem.getReadAheadDepth(), HdfsOverFtpSystem.getReadAheadBuffers(),
+          HdfsOverFtpSystem.getReadAheadExecutor()));
+    }
+    return new DownloadInputStream(in);
+  }
+
+  /**
+   * Input stream of a download, records the transfer in the metrics once
+   * the download is finished. The data connection of the FTP server copies
+   * from it into its own heap buffer, so reading HDFS into direct buffers
+   * here would only add a copy.
+   */
+  private class DownloadInputStream extends FilterInputStream {
+
+    private final long start = System.nanoTime();
+
+    private long bytes = 0;
+
+    private boolean closed = false;
+
+    DownloadInputStream(InputStream in) {
+      super(in);
+    }
+
+    public int read() throws IOException {
+      int b = in.read();
+      if (b != -1) {
+        bytes++;
+      }
+      return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n > 0) {
+        bytes += n;
+      }
+      return n;
+    }
+
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!closed) {
+          closed = true;
+          HdfsOverFtpSystem.getMetrics().transfer(user.getName(), false, bytes, System.nanoTime() - start);
+        }
+      }
+    }
+  }
+
+  /**
+   * Output stream of an upload, drops the cached metadata of the file once
+   * the upload is finished so its final size is seen right away
+   */
+  private class UploadOutputStream extends FilterOutputStream {
+
+    private final long start = System.nanoTime();
+
+    private long bytes = 0;
+
+    private boolean closed = false;
+
+    UploadOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    public void write(int b) throws IOException {
+      out.write(b);
+      bytes++;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      bytes += len;
+    }
+
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!closed) {
+          closed = true;
+          invalidate(false);
+          HdfsOverFtpSystem.getMetrics().transfer(user.getName(), true, bytes, System.nanoTime() - start);
+        }
+      }
+    }
   }
-}
\ No newline at end of file
+}
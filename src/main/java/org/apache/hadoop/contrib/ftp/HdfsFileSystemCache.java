@@ -0,0 +1,347 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of FileSystem handles keyed by FTP user.
+ * Handles are created with FileSystem.newInstance so they stay out of
+ * Hadoop's global cache and can be closed once they are evicted.
+ * A handle is only evicted when no session holds it. The UGI a handle runs
+ * as lives exactly as long as its entry, so the UGIs and delegation tokens
+ * of users who no longer log in are released with their handle.
+ */
+public class HdfsFileSystemCache implements HdfsMetrics.CacheStatistics {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsFileSystemCache.class);
+
+	private final Configuration conf;
+
+	private final URI uri;
+
+	private final int maxSize;
+
+	private final long idleTimeoutMs;
+
+	// access ordered, so iteration starts from the least recently used handle
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	// the entries by handle, for holders which only know the handle
+	private final IdentityHashMap<FileSystem, Entry> handles = new IdentityHashMap<FileSystem, Entry>();
+
+	// entries being created, so concurrent logins of a user wait for one UGI
+	private final HashMap<String, FutureTask<Entry>> creating = new HashMap<String, FutureTask<Entry>>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final ScheduledExecutorService cleaner;
+
+	/**
+	 * Creates the UGI the handle of a user runs as and releases it again
+	 */
+	public interface UserFactory {
+		/**
+		 * Create the UGI of a user, including its credentials
+		 *
+		 * @param userName name of the FTP user
+		 * @return UGI of the user
+		 * @throws IOException if the UGI can not be created
+		 */
+		UserGroupInformation create(String userName) throws IOException;
+
+		/**
+		 * Release the UGI of a handle which was closed
+		 *
+		 * @param ugi UGI created by {@link #create(String)}
+		 */
+		void closed(UserGroupInformation ugi);
+	}
+
+	private static class Entry {
+		private final FileSystem fs;
+		private final UserGroupInformation ugi;
+		private final UserFactory factory;
+		private int refCount = 0;
+		private long lastAccess = System.currentTimeMillis();
+
+		private Entry(FileSystem fs, UserGroupInformation ugi, UserFactory factory) {
+			this.fs = fs;
+			this.ugi = ugi;
+			this.factory = factory;
+		}
+	}
+
+	/**
+	 * Constructs the cache
+	 *
+	 * @param conf          configuration shared by all handles
+	 * @param uri           uri of the file system
+	 * @param maxSize       maximum number of idle handles kept open
+	 * @param idleTimeoutMs time after which an unused handle is closed
+	 */
+	public HdfsFileSystemCache(Configuration conf, URI uri, int maxSize, long idleTimeoutMs) {
+		this.conf = conf;
+		this.uri = uri;
+		this.maxSize = maxSize;
+		this.idleTimeoutMs = idleTimeoutMs;
+
+		cleaner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "hdfs-fs-cache-cleaner");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000, idleTimeoutMs / 2);
+		cleaner.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				closeIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Get the handle of the user, creating the UGI and the handle if
+	 * necessary. Every acquire must be paired with a
+	 * {@link #release(FileSystem)}.
+	 *
+	 * @param userName name of the FTP user
+	 * @param factory  creates the UGI of a new handle
+	 * @return file system handle of the user
+	 * @throws IOException if the handle can not be created
+	 */
+	public FileSystem acquire(final String userName, final UserFactory factory) throws IOException {
+		while (true) {
+			FutureTask<Entry> task;
+			boolean owner = false;
+			synchronized (this) {
+				Entry entry = entries.get(userName);
+				if (entry != null) {
+					entry.refCount++;
+					entry.lastAccess = System.currentTimeMillis();
+					hits.incrementAndGet();
+					return entry.fs;
+				}
+				task = creating.get(userName);
+				if (task == null) {
+					task = new FutureTask<Entry>(new Callable<Entry>() {
+						public Entry call() throws IOException {
+							return newEntry(userName, factory);
+						}
+					});
+					creating.put(userName, task);
+					owner = true;
+				}
+			}
+			if (!owner) {
+				// wait for the other login of the user, then take its entry
+				waitFor(task);
+				continue;
+			}
+
+			misses.incrementAndGet();
+			// create the handle outside the lock, it may take a while
+			task.run();
+			Entry entry;
+			List<Entry> evicted;
+			synchronized (this) {
+				creating.remove(userName);
+				entry = waitFor(task);
+				entries.put(userName, entry);
+				handles.put(entry.fs, entry);
+				entry.refCount++;
+				evicted = evictOverflow();
+			}
+			closeAll(evicted);
+			return entry.fs;
+		}
+	}
+
+	/**
+	 * Take another reference on a handle the caller holds, so it stays open
+	 * after the caller released its own reference. Every acquire must be
+	 * paired with a {@link #release(FileSystem)}.
+	 *
+	 * @param fs handle acquired from this cache and not released yet
+	 * @return the handle
+	 * @throws IOException if the handle is not held from this cache
+	 */
+	public synchronized FileSystem acquire(FileSystem fs) throws IOException {
+		Entry entry = handles.get(fs);
+		if (entry == null || entry.refCount == 0) {
+			throw new IOException("FileSystem " + fs.getUri() + " is not held from the cache");
+		}
+		entry.refCount++;
+		entry.lastAccess = System.currentTimeMillis();
+		return fs;
+	}
+
+	/**
+	 * Return a reference taken with {@link #acquire(String, UserFactory)}
+	 * or {@link #acquire(FileSystem)}
+	 *
+	 * @param fs handle
+	 */
+	public void release(FileSystem fs) {
+		List<Entry> evicted;
+		synchronized (this) {
+			release(handles.get(fs));
+			evicted = evictOverflow();
+		}
+		closeAll(evicted);
+	}
+
+	private void release(Entry entry) {
+		if (entry != null && entry.refCount > 0) {
+			entry.refCount--;
+			entry.lastAccess = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Close all handles and stop the cleaner
+	 */
+	public void close() {
+		cleaner.shutdownNow();
+		List<Entry> all;
+		synchronized (this) {
+			all = new ArrayList<Entry>(entries.values());
+			entries.clear();
+			handles.clear();
+		}
+		for (Entry entry : all) {
+			close(entry);
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	private Entry newEntry(String userName, UserFactory factory) throws IOException {
+		final UserGroupInformation ugi = factory.create(userName);
+		try {
+			FileSystem fs = ugi.doAs(new PrivilegedExceptionAction<FileSystem>() {
+				public FileSystem run() throws Exception {
+					return FileSystem.newInstance(uri, conf);
+				}
+			});
+			return new Entry(fs, ugi, factory);
+		} catch (InterruptedException e) {
+			factory.closed(ugi);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while creating FileSystem for " + ugi.getUserName());
+		} catch (IOException e) {
+			factory.closed(ugi);
+			throw e;
+		}
+	}
+
+	private Entry waitFor(FutureTask<Entry> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a FileSystem");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Can not create a FileSystem", e.getCause());
+		}
+	}
+
+	/**
+	 * Remove least recently used unreferenced handles above the size limit.
+	 * Handles in use are never evicted, so the cache may grow above the
+	 * limit while all of them are busy.
+	 */
+	private List<Entry> evictOverflow() {
+		List<Entry> evicted = new ArrayList<Entry>();
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (entries.size() > maxSize && it.hasNext()) {
+			Entry entry = it.next().getValue();
+			if (entry.refCount == 0) {
+				it.remove();
+				handles.remove(entry.fs);
+				evicted.add(entry);
+			}
+		}
+		return evicted;
+	}
+
+	private void closeIdle() {
+		List<Entry> evicted = new ArrayList<Entry>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+			while (it.hasNext()) {
+				Entry entry = it.next().getValue();
+				if (entry.refCount == 0 && now - entry.lastAccess > idleTimeoutMs) {
+					it.remove();
+					handles.remove(entry.fs);
+					evicted.add(entry);
+				}
+			}
+		}
+		closeAll(evicted);
+		log.debug("FileSystem cache: size=" + getSize() + " hits=" + hits.get()
+				+ " misses=" + misses.get() + " evictions=" + evictions.get());
+	}
+
+	private void closeAll(List<Entry> evicted) {
+		for (Entry entry : evicted) {
+			evictions.incrementAndGet();
+			close(entry);
+		}
+	}
+
+	private void close(Entry entry) {
+		try {
+			entry.fs.close();
+		} catch (IOException e) {
+			log.warn("Error when closing FileSystem", e);
+		} finally {
+			entry.factory.closed(entry.ugi);
+		}
+	}
+}
@@ -4,54 +4,67 @@ import org.apache.ftpserver.ftplet.FileSystemManager;
 import org.apache.ftpserver.ftplet.FileSystemView;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.ftplet.User;
-import org.apache.hadoop.fs.permission.FsPermission;
-import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.security.UserGroupInformation;
 
 import java.io.IOException;
-import java.security.PrivilegedExceptionAction;
 
 /**
  * Impelented FileSystemManager to use HdfsFileSystemView
  */
-public class HdfsFileSystemManager implements FileSystemManager {
+public class HdfsFileSystemManager implements FileSystemManager, HdfsFileSystemCache.UserFactory {
 	private boolean isKerberos;
-	private String keytab;
-	private String principal;
 
-
-	public HdfsFileSystemManager(boolean isKerberos, String keytab, String principal) {
+	/**
+	 * Constructs the manager. With kerberos enabled the gateway principal
+	 * must already be logged in, see {@link HdfsKerberosLogin}.
+	 */
+	public HdfsFileSystemManager(boolean isKerberos) {
 		this.isKerberos = isKerberos;
-		this.keytab = keytab;
-		this.principal = principal;
 	}
 
 
+	/**
+	 * Create the view of a session. All sessions of a user share the
+	 * FileSystem handle and the UGI of the user held by
+	 * {@link HdfsFileSystemCache}, which creates them through this manager.
+	 */
 	public FileSystemView createFileSystemView(final User user) throws FtpException {
-		if(isKerberos) {
-			if(null == keytab || keytab.isEmpty() || null == principal || principal.isEmpty()) {
-				throw new FtpException("Kerberos authentication enabled, keytab-path and principal in " +
-						"hdfs-over-ftp.properties can not be empty.");
-			} else {
-				try {
-					UserGroupInformation.loginUserFromKeytab(principal, keytab);
-					UserGroupInformation ugi = UserGroupInformation.getCurrentUser();
-					ugi.checkTGTAndReloginFromKeytab();
-					return UserGroupInformation.createProxyUser(user.getName(),ugi).doAs(
-						new PrivilegedExceptionAction<FileSystemView>() {
-							@Override
-								public FileSystemView run() throws Exception {
-								  return new HdfsFileSystemView(user);
-								}
-							}
-					);
-				}catch (Exception e) {
-					throw new FtpException(e.getMessage());
-				}
-
-			}
+		return new HdfsFileSystemView(user, this);
+	}
+
+	/**
+	 * Create the UGI all file operations of the user run as. With kerberos
+	 * it is a proxy of the gateway principal, otherwise a remote user of
+	 * that name. Delegation tokens are added before the UGI is used.
+	 *
+	 * @param userName name of the FTP user
+	 * @return UGI of the user
+	 * @throws IOException if the login user can not be got
+	 */
+	public UserGroupInformation create(String userName) throws IOException {
+		UserGroupInformation ugi;
+		if (isKerberos) {
+			ugi = UserGroupInformation.createProxyUser(userName, UserGroupInformation.getLoginUser());
 		} else {
-			return new HdfsFileSystemView(user);
+			ugi = UserGroupInformation.createRemoteUser(userName);
+		}
+		HdfsKerberosLogin kerberosLogin = HdfsOverFtpSystem.getKerberosLogin();
+		if (kerberosLogin != null) {
+			kerberosLogin.addTokens(ugi);
+		}
+		return ugi;
+	}
+
+	/**
+	 * Stop renewing and cancel the delegation tokens of a UGI whose handle
+	 * was closed
+	 *
+	 * @param ugi UGI created by {@link #create(String)}
+	 */
+	public void closed(UserGroupInformation ugi) {
+		HdfsKerberosLogin kerberosLogin = HdfsOverFtpSystem.getKerberosLogin();
+		if (kerberosLogin != null) {
+			kerberosLogin.removeTokens(ugi);
 		}
 	}
 }
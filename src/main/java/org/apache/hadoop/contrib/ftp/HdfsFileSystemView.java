@@ -4,9 +4,12 @@ import org.apache.ftpserver.ftplet.FileObject;
 import org.apache.ftpserver.ftplet.FileSystemView;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.ftplet.User;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.ftp.FTPException;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+
 /**
  * Implemented FileSystemView to use HdfsFileObject
  */
@@ -22,21 +25,26 @@ public class HdfsFileSystemView implements FileSystemView {
 
 	private User user;
 
+	// handle of the user, held until dispose()
+	private FileSystem fs;
+
 	// private boolean writePermission;
 
 	private boolean caseInsensitive = false;
 
 	/**
-	 * Constructor - set the user object.
+	 * Constructor - set the user object and the factory of the user all
+	 * file operations run as.
 	 */
-	protected HdfsFileSystemView(User user) throws FtpException {
-		this(user, true);
+	protected HdfsFileSystemView(User user, HdfsFileSystemCache.UserFactory userFactory) throws FtpException {
+		this(user, userFactory, true);
 	}
 
 	/**
-	 * Constructor - set the user object.
+	 * Constructor - set the user object and the factory of the user all
+	 * file operations run as.
 	 */
-	protected HdfsFileSystemView(User user, boolean caseInsensitive)
+	protected HdfsFileSystemView(User user, HdfsFileSystemCache.UserFactory userFactory, boolean caseInsensitive)
 			throws FtpException {
 		if (user == null) {
 			throw new IllegalArgumentException("user can not be null");
@@ -59,6 +67,13 @@ public class HdfsFileSystemView implements FileSystemView {
 		this.user = user;
 
         this.currDir = user.getHomeDirectory();
+
+		try {
+			this.fs = HdfsOverFtpSystem.getFileSystemCache().acquire(user.getName(), userFactory);
+		} catch (IOException e) {
+			log.error("Error when get FileSystem.", e);
+			throw new FtpException(e.getMessage());
+		}
 	}
 
 	/**
@@ -66,14 +81,14 @@ public class HdfsFileSystemView implements FileSystemView {
 	 * user.
 	 */
 	public FileObject getHomeDirectory() throws FtpException{
-		return new HdfsFileObject(user.getHomeDirectory(), user);
+		return new HdfsFileObject(user.getHomeDirectory(), user, fs);
 	}
 
 	/**
 	 * Get the current directory.
 	 */
 	public FileObject getCurrentDirectory() throws FtpException {
-		return new HdfsFileObject(currDir, user);
+		return new HdfsFileObject(currDir, user, fs);
 	}
 
 	/**
@@ -88,7 +103,7 @@ public class HdfsFileSystemView implements FileSystemView {
 		} else {
 			path = "/" + file;
 		}
-		return new HdfsFileObject(path, user);
+		return new HdfsFileObject(path, user, fs);
 	}
 
 	/**
@@ -103,7 +118,7 @@ public class HdfsFileSystemView implements FileSystemView {
 		} else {
 			path = "/" + dir;
 		}
-		HdfsFileObject file = new HdfsFileObject(path, user);
+		HdfsFileObject file = new HdfsFileObject(path, user, fs);
 		if (file.isDirectory() && file.hasReadPermission()) {
 			currDir = path;
 			return true;
@@ -120,8 +135,12 @@ public class HdfsFileSystemView implements FileSystemView {
 	}
 
 	/**
-	 * Dispose file system view - does nothing.
+	 * Dispose file system view - releases the file system handle.
 	 */
-	public void dispose() {
+	public synchronized void dispose() {
+		if (fs != null) {
+			HdfsOverFtpSystem.getFileSystemCache().release(fs);
+			fs = null;
+		}
 	}
 }
@@ -0,0 +1,39 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.ftpserver.DefaultFtpHandler;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.interfaces.FtpIoSession;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+
+/**
+ * FTP handler which records the code of the last reply written to a
+ * session. Ftplets of FtpServer 1.0.0-M3 are not given the reply in
+ * afterCommand, {@link HdfsFtplet} reads the code from the session
+ * attribute {@link #REPLY_CODE_ATTRIBUTE} instead.
+ */
+public class HdfsFtpHandler extends DefaultFtpHandler {
+
+	public static final String REPLY_CODE_ATTRIBUTE = "org.apache.hadoop.contrib.ftp.reply-code";
+
+	private static final String FILTER_NAME = "hdfsReplyCode";
+
+	private final IoFilterAdapter replyFilter = new IoFilterAdapter() {
+		public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest)
+				throws Exception {
+			// writes pass the filter on the thread executing the command
+			Object message = writeRequest.getMessage();
+			if (message instanceof FtpReply) {
+				session.setAttribute(REPLY_CODE_ATTRIBUTE, ((FtpReply) message).getCode());
+			}
+			nextFilter.filterWrite(session, writeRequest);
+		}
+	};
+
+	public void sessionCreated(FtpIoSession session) throws Exception {
+		// last in the chain, so the reply is seen before it is encoded
+		session.getFilterChain().addLast(FILTER_NAME, replyFilter);
+		super.sessionCreated(session);
+	}
+}
@@ -0,0 +1,620 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.ftpserver.ftplet.DataConnection;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FileObject;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.util.DateUtils;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Ftplet serving the commands that need direct access to HDFS instead of
+ * going through the generic FileObject interface of the FTP server
+ */
+public class HdfsFtplet extends DefaultFtplet {
+
+	private final Logger log = LoggerFactory.getLogger(HdfsFtplet.class);
+
+	private static final String NEWLINE = "\r\n";
+
+	// listing lines written to the data connection at once
+	private static final int LIST_WRITE_BATCH = 1000;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String TIMER_ATTRIBUTE = "org.apache.hadoop.contrib.ftp.timer";
+
+	private static final String HASH_ATTRIBUTE = "org.apache.hadoop.contrib.ftp.hash";
+
+	// algorithm of the single algorithm checksum commands
+	private static final Map<String, String> CHECKSUM_COMMANDS = new HashMap<String, String>();
+
+	static {
+		CHECKSUM_COMMANDS.put("XCRC", HdfsChecksums.CRC32);
+		CHECKSUM_COMMANDS.put("XMD5", "MD5");
+		CHECKSUM_COMMANDS.put("XSHA1", "SHA-1");
+		CHECKSUM_COMMANDS.put("XSHA256", "SHA-256");
+		CHECKSUM_COMMANDS.put("XSHA512", "SHA-512");
+	}
+
+	private boolean listStreaming = true;
+
+	private HdfsTraceRecorder traceRecorder = null;
+
+	private long copyProgressInterval = 10000;
+
+	/**
+	 * Receives the lines of a directory listing one batch at a time
+	 */
+	interface ListingWriter {
+		void write(String lines) throws IOException;
+	}
+
+	/**
+	 * Enable streaming of LIST and NLST replies batch by batch
+	 *
+	 * @param listStreaming true to stream directory listings
+	 */
+	public void setListStreaming(boolean listStreaming) {
+		this.listStreaming = listStreaming;
+	}
+
+	/**
+	 * Set the recorder of the session trace
+	 *
+	 * @param traceRecorder recorder or null to not record a trace
+	 */
+	public void setTraceRecorder(HdfsTraceRecorder traceRecorder) {
+		this.traceRecorder = traceRecorder;
+	}
+
+	/**
+	 * Set the time between the progress replies of SITE COPY
+	 *
+	 * @param copyProgressInterval interval in milliseconds
+	 */
+	public void setCopyProgressInterval(long copyProgressInterval) {
+		this.copyProgressInterval = copyProgressInterval;
+	}
+
+	public FtpletResult onConnect(FtpSession session) throws FtpException, IOException {
+		HdfsOverFtpSystem.getMetrics().sessionOpened();
+		if (traceRecorder != null) {
+			traceRecorder.connect(session);
+		}
+		return super.onConnect(session);
+	}
+
+	public FtpletResult onDisconnect(FtpSession session) throws FtpException, IOException {
+		HdfsOverFtpSystem.getMetrics().sessionClosed();
+		if (traceRecorder != null) {
+			traceRecorder.disconnect(session);
+		}
+		return super.onDisconnect(session);
+	}
+
+	public FtpletResult beforeCommand(FtpSession session, FtpRequest request)
+			throws FtpException, IOException {
+		String command = request.getCommand().toUpperCase();
+		HdfsMetrics.Timer timer = HdfsOverFtpSystem.getMetrics().start();
+
+		int code = 0;
+		boolean failed = true;
+		try {
+			code = serve(session, request, command);
+			failed = false;
+		} finally {
+			// commands served here do not reach afterCommand
+			if (code != 0 || failed) {
+				HdfsOverFtpSystem.getMetrics().finish(command, timer, failed || code >= 400);
+				if (traceRecorder != null) {
+					traceRecorder.command(session, command, request.getArgument(), code, 0);
+				}
+			}
+		}
+		if (code != 0) {
+			return FtpletResult.SKIP;
+		}
+		session.setAttribute(TIMER_ATTRIBUTE, timer);
+		session.removeAttribute(HdfsFtpHandler.REPLY_CODE_ATTRIBUTE);
+		return super.beforeCommand(session, request);
+	}
+
+	public FtpletResult afterCommand(FtpSession session, FtpRequest request)
+			throws FtpException, IOException {
+		Object timer = session.getAttribute(TIMER_ATTRIBUTE);
+		if (timer instanceof HdfsMetrics.Timer) {
+			session.removeAttribute(TIMER_ATTRIBUTE);
+			String command = request.getCommand().toUpperCase();
+			// recorded by HdfsFtpHandler, 0 if the server runs another handler
+			Object reply = session.getAttribute(HdfsFtpHandler.REPLY_CODE_ATTRIBUTE);
+			int code = reply instanceof Integer ? (Integer) reply : 0;
+			HdfsMetrics metrics = HdfsOverFtpSystem.getMetrics();
+			metrics.finish(command, (HdfsMetrics.Timer) timer, code >= 400);
+			if (traceRecorder != null) {
+				traceRecorder.command(session, command, request.getArgument(), code,
+						metrics.getTransferredBytes((HdfsMetrics.Timer) timer));
+			}
+		}
+		return super.afterCommand(session, request);
+	}
+
+	/**
+	 * Serve the command if it is one of the commands of this ftplet
+	 *
+	 * @return code of the final reply or 0 to leave the command to the FTP server
+	 */
+	private int serve(FtpSession session, FtpRequest request, String command)
+			throws FtpException, IOException {
+		if (!session.isLoggedIn()) {
+			return 0;
+		}
+		if ((listStreaming && ("LIST".equals(command) || "NLST".equals(command))) || "MLSD".equals(command)) {
+			return streamList(session, request, command);
+		}
+		if ("MLST".equals(command)) {
+			return mlst(session, request);
+		}
+		if ("HASH".equals(command) || CHECKSUM_COMMANDS.containsKey(command)) {
+			return checksum(session, request, command);
+		}
+		if ("SITE".equals(command) && request.getArgument() != null
+				&& request.getArgument().trim().toUpperCase().startsWith("COPY ")) {
+			return siteCopy(session, request.getArgument().trim().substring(5));
+		}
+		if ("OPTS".equals(command) && request.getArgument() != null
+				&& request.getArgument().trim().toUpperCase().startsWith("HASH")) {
+			return optsHash(session, request.getArgument().trim().substring(4));
+		}
+		return 0;
+	}
+
+	/**
+	 * Write a LIST, NLST or MLSD directory listing to the data connection one
+	 * NameNode batch at a time. Anything but a plain readable directory is
+	 * left to the FTP server.
+	 */
+	private int streamList(final FtpSession session, FtpRequest request, String command)
+			throws FtpException, IOException {
+		HdfsFileObject directory = getListedDirectory(session.getFileSystemView(), command, request.getArgument());
+		if (directory == null) {
+			return 0;
+		}
+
+		session.write(new DefaultFtpReply(FtpReply.REPLY_150_FILE_STATUS_OKAY,
+				"File status okay; about to open data connection."));
+
+		final DataConnection dataConnection;
+		try {
+			dataConnection = session.getDataConnection().openConnection();
+		} catch (Exception e) {
+			log.debug("Exception getting the output data stream", e);
+			session.write(new DefaultFtpReply(FtpReply.REPLY_425_CANT_OPEN_DATA_CONNECTION,
+					"Can't open data connection."));
+			return FtpReply.REPLY_425_CANT_OPEN_DATA_CONNECTION;
+		}
+
+		int code = FtpReply.REPLY_226_CLOSING_DATA_CONNECTION;
+		try {
+			writeListing(directory, command, new ListingWriter() {
+				public void write(String lines) throws IOException {
+					dataConnection.transferToClient(lines);
+				}
+			});
+		} catch (SocketException e) {
+			log.debug("Socket exception during list transfer", e);
+			code = FtpReply.REPLY_426_CONNECTION_CLOSED_TRANSFER_ABORTED;
+			session.write(new DefaultFtpReply(FtpReply.REPLY_426_CONNECTION_CLOSED_TRANSFER_ABORTED,
+					"Data connection error."));
+		} catch (IOException e) {
+			log.debug("IOException during list transfer", e);
+			code = FtpReply.REPLY_551_REQUESTED_ACTION_ABORTED_PAGE_TYPE_UNKNOWN;
+			session.write(new DefaultFtpReply(FtpReply.REPLY_551_REQUESTED_ACTION_ABORTED_PAGE_TYPE_UNKNOWN,
+					"Error on output file."));
+		} finally {
+			session.getDataConnection().closeDataConnection();
+		}
+
+		if (code == FtpReply.REPLY_226_CLOSING_DATA_CONNECTION) {
+			session.write(new DefaultFtpReply(code, "Closing data connection."));
+		}
+		return code;
+	}
+
+	/**
+	 * Get the directory a LIST, NLST or MLSD lists
+	 *
+	 * @param view     file system view of the session
+	 * @param command  LIST, NLST or MLSD
+	 * @param argument argument of the command, may be null
+	 * @return the directory or null if the listing is left to the FTP server
+	 */
+	HdfsFileObject getListedDirectory(FileSystemView view, String command, String argument)
+			throws FtpException {
+		boolean machineFormat = "MLSD".equals(command);
+		String dir = machineFormat ? mlstPath(argument) : listPath(argument);
+		if (dir != null && !machineFormat && isPattern(dir)) {
+			return null;
+		}
+		FileObject fileObject = dir == null ? view.getCurrentDirectory() : view.getFileObject(dir);
+		if (!(fileObject instanceof HdfsFileObject)) {
+			return null;
+		}
+		HdfsFileObject directory = (HdfsFileObject) fileObject;
+		if (!directory.isDirectory() || !directory.hasReadPermission()) {
+			return null;
+		}
+		return directory;
+	}
+
+	/**
+	 * Format the entries of a directory as LIST, NLST or MLSD lines, handed
+	 * to the writer in batches of {@link #LIST_WRITE_BATCH} lines
+	 *
+	 * @param directory directory to list
+	 * @param command   LIST, NLST or MLSD
+	 * @param writer    receives the lines
+	 * @throws IOException if the directory can not be listed or written
+	 */
+	void writeListing(HdfsFileObject directory, String command, ListingWriter writer) throws IOException {
+		boolean machineFormat = "MLSD".equals(command);
+		RemoteIterator<HdfsFileObject> entries = directory.listFilesIncrementally();
+		MlstFormatter mlstFormatter = machineFormat ? new MlstFormatter() : null;
+		StringBuilder batch = new StringBuilder();
+		int count = 0;
+		while (entries.hasNext()) {
+			HdfsFileObject entry = entries.next();
+			if (machineFormat) {
+				mlstFormatter.format(entry, directory, batch);
+				batch.append(' ').append(entry.getShortName()).append(NEWLINE);
+			} else if ("LIST".equals(command)) {
+				formatLong(entry, batch);
+			} else {
+				batch.append(entry.getShortName()).append(NEWLINE);
+			}
+			if (++count == LIST_WRITE_BATCH) {
+				writer.write(batch.toString());
+				batch.setLength(0);
+				count = 0;
+			}
+		}
+		if (batch.length() > 0) {
+			writer.write(batch.toString());
+		}
+	}
+
+	/**
+	 * Answer MLST with the facts of a single object on the control
+	 * connection. Missing or unreadable objects are left to the FTP server.
+	 */
+	private int mlst(FtpSession session, FtpRequest request) throws FtpException {
+		String path = mlstPath(request.getArgument());
+		FileObject fileObject;
+		if (path == null) {
+			fileObject = session.getFileSystemView().getCurrentDirectory();
+		} else {
+			fileObject = session.getFileSystemView().getFileObject(path);
+		}
+		if (!(fileObject instanceof HdfsFileObject)) {
+			return 0;
+		}
+		HdfsFileObject file = (HdfsFileObject) fileObject;
+		if (!file.doesExist() || !file.hasReadPermission()) {
+			return 0;
+		}
+
+		StringBuilder facts = new StringBuilder(" ");
+		new MlstFormatter().format(file, null, facts);
+		facts.append(' ').append(file.getFullName());
+		session.write(new DefaultFtpReply(FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY,
+				new String[]{"Listing " + file.getFullName(), facts.toString(), "End"}));
+		return FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY;
+	}
+
+	/**
+	 * Answer HASH with the algorithm selected by OPTS HASH, or XCRC, XMD5
+	 * and XSHA* with the algorithm of the command, for the whole file.
+	 * Objects the FTP server does not serve from HDFS are left to it.
+	 */
+	private int checksum(FtpSession session, FtpRequest request, String command) throws FtpException {
+		String path = mlstPath(request.getArgument());
+		if (path == null) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS,
+					"Syntax error in parameters or arguments."));
+			return FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS;
+		}
+		FileObject fileObject = session.getFileSystemView().getFileObject(path);
+		if (!(fileObject instanceof HdfsFileObject)) {
+			return 0;
+		}
+		HdfsFileObject file = (HdfsFileObject) fileObject;
+		if (!file.isFile() || !file.hasReadPermission()) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+					"Not a readable file: " + path));
+			return FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN;
+		}
+
+		boolean hash = "HASH".equals(command);
+		String algorithm = hash ? hashAlgorithm(session) : CHECKSUM_COMMANDS.get(command);
+		if (!HdfsOverFtpSystem.getChecksums().isComputable(algorithm, file.getSize())) {
+			// reading the file would block the session for too long
+			session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+					"File too large for " + algorithm + ", OPTS HASH HDFS selects the HDFS checksum: " + path));
+			return FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN;
+		}
+		String checksum;
+		try {
+			checksum = file.getChecksum(algorithm);
+		} catch (IOException e) {
+			log.debug("Failed computing the " + algorithm + " of " + path, e);
+			session.write(new DefaultFtpReply(FtpReply.REPLY_451_REQUESTED_ACTION_ABORTED,
+					"Requested action aborted: local error in processing."));
+			return FtpReply.REPLY_451_REQUESTED_ACTION_ABORTED;
+		}
+		if (hash) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_213_FILE_STATUS, algorithm + " 0-" + file.getSize()
+					+ " " + checksum + " " + path));
+			return FtpReply.REPLY_213_FILE_STATUS;
+		}
+		session.write(new DefaultFtpReply(FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY,
+				HdfsChecksums.CRC32.equals(algorithm) ? checksum.toUpperCase() : checksum));
+		return FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY;
+	}
+
+	/**
+	 * Show or select the algorithm of HASH for the session
+	 *
+	 * @param argument argument of OPTS HASH, empty to show the selection
+	 */
+	private int optsHash(FtpSession session, String argument) throws FtpException {
+		if (argument.trim().isEmpty()) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_200_COMMAND_OKAY, hashAlgorithm(session)));
+			return FtpReply.REPLY_200_COMMAND_OKAY;
+		}
+		String algorithm = HdfsChecksums.getAlgorithm(argument);
+		if (algorithm == null) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_504_COMMAND_NOT_IMPLEMENTED_FOR_THAT_PARAMETER,
+					"Unknown algorithm, supported are " + HdfsChecksums.ALGORITHMS));
+			return FtpReply.REPLY_504_COMMAND_NOT_IMPLEMENTED_FOR_THAT_PARAMETER;
+		}
+		session.setAttribute(HASH_ATTRIBUTE, algorithm);
+		session.write(new DefaultFtpReply(FtpReply.REPLY_200_COMMAND_OKAY, algorithm));
+		return FtpReply.REPLY_200_COMMAND_OKAY;
+	}
+
+	/**
+	 * Copy a file or directory tree inside HDFS. A running copy reports its
+	 * progress in 150 replies before the final reply. The copy blocks the
+	 * session until it is finished, commands like ABOR are only read after
+	 * it, so copies above copy-max-size are refused.
+	 *
+	 * @param argument source and target, quoted if they contain spaces
+	 */
+	private int siteCopy(final FtpSession session, String argument) throws FtpException {
+		List<String> paths = splitArguments(argument);
+		if (paths.size() != 2) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS,
+					"Syntax: SITE COPY <source> <target>"));
+			return FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS;
+		}
+		FileObject sourceObject = session.getFileSystemView().getFileObject(paths.get(0));
+		FileObject targetObject = session.getFileSystemView().getFileObject(paths.get(1));
+		if (!(sourceObject instanceof HdfsFileObject) || !(targetObject instanceof HdfsFileObject)) {
+			return 0;
+		}
+		HdfsFileObject source = (HdfsFileObject) sourceObject;
+		HdfsFileObject target = (HdfsFileObject) targetObject;
+		String error = null;
+		if (!source.doesExist() || !source.hasReadPermission()) {
+			error = "Not a readable file or directory: " + paths.get(0);
+		} else if (target.doesExist()) {
+			error = "Target already exists: " + paths.get(1);
+		} else if (!target.hasWritePermission()) {
+			error = "Permission denied: " + paths.get(1);
+		} else if (source.isSelfOrAncestorOf(target)) {
+			error = "Can not copy a directory into itself: " + paths.get(1);
+		}
+		if (error != null) {
+			session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN, error));
+			return FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN;
+		}
+
+		long start = System.currentTimeMillis();
+		long bytes;
+		try {
+			bytes = source.copyTo(target, new HdfsCopier.Progress() {
+				public void update(long copiedBytes, long totalBytes, int copiedFiles, int totalFiles) {
+					try {
+						session.write(new DefaultFtpReply(FtpReply.REPLY_150_FILE_STATUS_OKAY, "Copied "
+								+ copiedBytes + " of " + totalBytes + " bytes, "
+								+ copiedFiles + " of " + totalFiles + " files"));
+					} catch (FtpException e) {
+						log.debug("Failed writing the copy progress", e);
+					}
+				}
+			}, copyProgressInterval);
+		} catch (IOException e) {
+			log.warn("Copy of " + source.getFullName() + " to " + target.getFullName() + " failed", e);
+			session.write(new DefaultFtpReply(FtpReply.REPLY_451_REQUESTED_ACTION_ABORTED,
+					"Copy failed: " + e.getMessage()));
+			return FtpReply.REPLY_451_REQUESTED_ACTION_ABORTED;
+		}
+		session.write(new DefaultFtpReply(FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY, "Copied " + bytes
+				+ " bytes to " + target.getFullName() + " in " + (System.currentTimeMillis() - start) + "ms"));
+		return FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY;
+	}
+
+	/**
+	 * Split arguments at spaces, double quoted arguments may contain spaces
+	 */
+	private List<String> splitArguments(String argument) {
+		List<String> arguments = new ArrayList<String>();
+		StringBuilder current = null;
+		boolean quoted = false;
+		for (int i = 0; i < argument.length(); i++) {
+			char c = argument.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+				if (current == null) {
+					current = new StringBuilder();
+				}
+			} else if (c == ' ' && !quoted) {
+				if (current != null) {
+					arguments.add(current.toString());
+					current = null;
+				}
+			} else {
+				if (current == null) {
+					current = new StringBuilder();
+				}
+				current.append(c);
+			}
+		}
+		if (current != null) {
+			arguments.add(current.toString());
+		}
+		return arguments;
+	}
+
+	private String hashAlgorithm(FtpSession session) {
+		Object algorithm = session.getAttribute(HASH_ATTRIBUTE);
+		return algorithm instanceof String ? (String) algorithm : HdfsChecksums.ALGORITHMS.get(0);
+	}
+
+	/**
+	 * Get the path argument of MLSD/MLST, which takes no options
+	 *
+	 * @return the path or null if no path is given
+	 */
+	private String mlstPath(String argument) {
+		if (argument == null || argument.trim().isEmpty()) {
+			return null;
+		}
+		return argument.trim();
+	}
+
+	/**
+	 * Get the path argument of LIST/NLST without the leading options
+	 *
+	 * @return the path or null if no path is given
+	 */
+	private String listPath(String argument) {
+		if (argument == null) {
+			return null;
+		}
+		String rest = argument.trim();
+		while (rest.startsWith("-")) {
+			int pos = rest.indexOf(' ');
+			if (pos == -1) {
+				return null;
+			}
+			rest = rest.substring(pos + 1).trim();
+		}
+		return rest.isEmpty() ? null : rest;
+	}
+
+	private boolean isPattern(String path) {
+		return path.indexOf('*') != -1 || path.indexOf('?') != -1 || path.indexOf('[') != -1;
+	}
+
+	/**
+	 * Format an entry the way the FTP server formats LIST lines
+	 */
+	private void formatLong(FileObject file, StringBuilder sb) {
+		sb.append(file.isDirectory() ? 'd' : '-');
+		sb.append(file.hasReadPermission() ? 'r' : '-');
+		sb.append(file.hasWritePermission() ? 'w' : '-');
+		sb.append(file.isDirectory() ? 'x' : '-');
+		sb.append("------");
+		sb.append("   ");
+		sb.append(file.getLinkCount()).append(' ');
+		sb.append(file.getOwnerName()).append(' ');
+		sb.append(file.getGroupName()).append(' ');
+
+		String size = String.valueOf(file.isFile() ? file.getSize() : 0);
+		for (int i = size.length(); i < 12; i++) {
+			sb.append(' ');
+		}
+		sb.append(size).append(' ');
+		sb.append(DateUtils.getUnixDate(file.getLastModified())).append(' ');
+		sb.append(file.getShortName());
+		sb.append(NEWLINE);
+	}
+
+	/**
+	 * Formats the MLSD and MLST facts (RFC 3659) of entries from the status
+	 * snapshot they were listed with, so no entry costs another NameNode
+	 * lookup. Not thread safe, one formatter serves one listing.
+	 */
+	private static class MlstFormatter {
+
+		private final SimpleDateFormat modifyFormat = new SimpleDateFormat("yyyyMMddHHmmss.SSS", Locale.ENGLISH);
+
+		private final MessageDigest digest;
+
+		MlstFormatter() {
+			modifyFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+			try {
+				digest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("MD5 is not available", e);
+			}
+		}
+
+		/**
+		 * Append the facts of an entry, each terminated by a semicolon
+		 *
+		 * @param file   entry to format
+		 * @param parent listed directory, null to look it up
+		 * @param sb     builder to append to
+		 */
+		void format(HdfsFileObject file, HdfsFileObject parent, StringBuilder sb) {
+			boolean directory = file.isDirectory();
+			if (!directory) {
+				sb.append("size=").append(file.getSize()).append(';');
+			}
+			sb.append("modify=").append(modifyFormat.format(new Date(file.getLastModified()))).append(';');
+			sb.append("type=").append(directory ? "dir" : "file").append(';');
+			sb.append("perm=").append(file.getPermFact(parent)).append(';');
+			sb.append("unique=").append(unique(file.getFullName())).append(';');
+			sb.append("UNIX.owner=").append(file.getOwnerName()).append(';');
+			sb.append("UNIX.group=").append(file.getGroupName()).append(';');
+		}
+
+		/**
+		 * The FileStatus of a listing carries no inode id, the path
+		 * identifies the object instead
+		 */
+		private String unique(String path) {
+			byte[] hash = digest.digest(path.getBytes(UTF8));
+			StringBuilder sb = new StringBuilder(16);
+			for (int i = 0; i < 8; i++) {
+				sb.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(hash[i] & 0xf, 16));
+			}
+			return sb.toString();
+		}
+	}
+}
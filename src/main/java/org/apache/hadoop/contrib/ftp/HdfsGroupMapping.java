@@ -0,0 +1,57 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.Groups;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resolves the groups of users with the group mapping service of Hadoop,
+ * which uses the provider set by hadoop.security.group.mapping, so the
+ * gateway sees the same groups as the NameNode. The service is shared with
+ * the rest of the process and caches groups as configured by
+ * hadoop.security.groups.cache.secs, users without groups as configured by
+ * hadoop.security.groups.negative-cache.secs.
+ */
+public class HdfsGroupMapping {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsGroupMapping.class);
+
+	private final Groups groups;
+
+	/**
+	 * Constructs the mapping with the group mapping service of the process
+	 *
+	 * @param conf configuration naming the provider, used if the service does not exist yet
+	 */
+	public HdfsGroupMapping(Configuration conf) {
+		this.groups = Groups.getUserToGroupsMappingService(conf);
+	}
+
+	/**
+	 * Get the groups of a user
+	 *
+	 * @param user user name
+	 * @return groups of the user, the primary group first
+	 */
+	public List<String> getGroups(String user) {
+		try {
+			return Collections.unmodifiableList(groups.getGroups(user));
+		} catch (IOException e) {
+			// also thrown for users without groups
+			log.debug("Can not resolve the groups of " + user, e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Drop all cached groups
+	 */
+	public void refresh() {
+		groups.refresh();
+	}
+}
@@ -0,0 +1,239 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs the gateway principal in from its keytab once at start-up and keeps
+ * the TGT fresh on a background thread. Optionally obtains HDFS delegation
+ * tokens and renews them, so RPCs of the token holders never need the KDC.
+ */
+public class HdfsKerberosLogin {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsKerberosLogin.class);
+
+	private final Configuration conf;
+
+	private final URI uri;
+
+	private final String principal;
+
+	private final String keytab;
+
+	private final boolean useDelegationTokens;
+
+	// users holding delegation tokens, renewed by the scheduler until the
+	// FileSystem handle of the user is closed
+	private final Set<UserGroupInformation> tokenHolders =
+			Collections.newSetFromMap(new ConcurrentHashMap<UserGroupInformation, Boolean>());
+
+	private final ScheduledExecutorService scheduler;
+
+	// second keytab login without tokens, delegation tokens can only be
+	// obtained and renewed over a kerberos authenticated connection
+	private UserGroupInformation renewerUser;
+
+	/**
+	 * Constructs the login
+	 *
+	 * @param conf                configuration of the server
+	 * @param uri                 uri of the file system to get tokens for
+	 * @param principal           principal of the gateway
+	 * @param keytab              keytab of the principal
+	 * @param useDelegationTokens true to obtain and renew delegation tokens
+	 */
+	public HdfsKerberosLogin(Configuration conf, URI uri, String principal, String keytab,
+							 boolean useDelegationTokens) {
+		this.conf = conf;
+		this.uri = uri;
+		this.principal = principal;
+		this.keytab = keytab;
+		this.useDelegationTokens = useDelegationTokens;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "kerberos-login-renewer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Log in from the keytab and start the renewal thread
+	 *
+	 * @param reloginInterval    seconds between TGT checks
+	 * @param tokenRenewInterval seconds between delegation token renewals
+	 * @throws IOException if the login fails
+	 */
+	public void login(long reloginInterval, long tokenRenewInterval) throws IOException {
+		UserGroupInformation.setConfiguration(conf);
+		UserGroupInformation.loginUserFromKeytab(principal, keytab);
+		log.info("Logged in from keytab " + keytab + " as " + principal);
+
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				relogin();
+			}
+		}, reloginInterval, reloginInterval, TimeUnit.SECONDS);
+
+		if (useDelegationTokens) {
+			renewerUser = UserGroupInformation.loginUserFromKeytabAndReturnUGI(principal, keytab);
+			addTokens(UserGroupInformation.getLoginUser());
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					renewTokens();
+				}
+			}, tokenRenewInterval, tokenRenewInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Check if delegation tokens are used
+	 *
+	 * @return true if delegation tokens are used
+	 */
+	public boolean isUseDelegationTokens() {
+		return useDelegationTokens;
+	}
+
+	/**
+	 * Obtain delegation tokens for the user and keep them renewed.
+	 * Does nothing if delegation tokens are not enabled.
+	 *
+	 * @param ugi user to get the tokens for
+	 * @throws IOException if the tokens can not be obtained
+	 */
+	public void addTokens(UserGroupInformation ugi) throws IOException {
+		if (!useDelegationTokens) {
+			return;
+		}
+		fetchTokens(ugi);
+		tokenHolders.add(ugi);
+	}
+
+	/**
+	 * Stop renewing the delegation tokens of a user and cancel them.
+	 * Does nothing if the user holds no tokens of this login.
+	 *
+	 * @param ugi user given to {@link #addTokens(UserGroupInformation)}
+	 */
+	public void removeTokens(final UserGroupInformation ugi) {
+		if (!tokenHolders.remove(ugi)) {
+			return;
+		}
+		final List<Token<? extends TokenIdentifier>> tokens =
+				new ArrayList<Token<? extends TokenIdentifier>>(ugi.getCredentials().getAllTokens());
+		try {
+			renewerUser.doAs(new PrivilegedExceptionAction<Void>() {
+				public Void run() throws Exception {
+					for (Token<? extends TokenIdentifier> token : tokens) {
+						token.cancel(conf);
+					}
+					return null;
+				}
+			});
+			log.debug("Cancelled the delegation tokens of " + ugi.getUserName());
+		} catch (Exception e) {
+			// expire on their own at the end of their lifetime
+			log.warn("Error when cancelling the delegation tokens of " + ugi.getUserName(), e);
+		}
+	}
+
+	/**
+	 * Stop the renewal thread
+	 */
+	public void stop() {
+		scheduler.shutdownNow();
+	}
+
+	private void relogin() {
+		try {
+			// re-logins only when the TGT is close to its expiry
+			UserGroupInformation.getLoginUser().checkTGTAndReloginFromKeytab();
+			if (renewerUser != null) {
+				renewerUser.checkTGTAndReloginFromKeytab();
+			}
+		} catch (IOException e) {
+			log.error("Kerberos relogin from keytab failed", e);
+		}
+	}
+
+	private void fetchTokens(UserGroupInformation ugi) throws IOException {
+		final String renewer = renewerUser.getShortUserName();
+		try {
+			Credentials credentials = tokenFreeUser(ugi).doAs(new PrivilegedExceptionAction<Credentials>() {
+				public Credentials run() throws Exception {
+					Credentials credentials = new Credentials();
+					FileSystem fs = FileSystem.newInstance(uri, conf);
+					try {
+						fs.addDelegationTokens(renewer, credentials);
+					} finally {
+						fs.close();
+					}
+					return credentials;
+				}
+			});
+			ugi.addCredentials(credentials);
+			log.debug("Obtained delegation tokens for " + ugi.getUserName());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while obtaining delegation tokens for " + ugi.getUserName());
+		}
+	}
+
+	/**
+	 * Get a user with the same identity but without tokens, so expired
+	 * tokens of the user are not offered when new ones are requested
+	 */
+	private UserGroupInformation tokenFreeUser(UserGroupInformation ugi) {
+		if (ugi.getRealUser() != null) {
+			return UserGroupInformation.createProxyUser(ugi.getShortUserName(), renewerUser);
+		}
+		return renewerUser;
+	}
+
+	private void renewTokens() {
+		for (UserGroupInformation ugi : tokenHolders) {
+			final List<Token<? extends TokenIdentifier>> tokens =
+					new ArrayList<Token<? extends TokenIdentifier>>(ugi.getCredentials().getAllTokens());
+			try {
+				// the gateway is the renewer of all tokens
+				renewerUser.doAs(new PrivilegedExceptionAction<Void>() {
+					public Void run() throws Exception {
+						for (Token<? extends TokenIdentifier> token : tokens) {
+							token.renew(conf);
+						}
+						return null;
+					}
+				});
+			} catch (Exception e) {
+				// past the maximum lifetime, replace them with fresh ones
+				log.info("Delegation tokens of " + ugi.getUserName() + " can not be renewed, obtaining new ones");
+				try {
+					fetchTokens(ugi);
+				} catch (IOException fe) {
+					log.error("Error when obtaining delegation tokens for " + ugi.getUserName(), fe);
+				}
+			}
+		}
+	}
+}
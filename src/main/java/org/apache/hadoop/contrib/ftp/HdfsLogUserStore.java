@@ -0,0 +1,306 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.ftpserver.util.IoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * User store keeping the users in memory and appending every change to a
+ * log file, so a change writes one line whatever the number of users. The
+ * log is rewritten as a snapshot of the current users once it holds twice
+ * as many records as users. Lines look like
+ * <pre>
+ * put &lt;name&gt; &lt;attribute&gt;=&lt;value&gt; ...
+ * del &lt;name&gt;
+ * </pre>
+ * with URL encoded names and values. If the log does not exist yet the
+ * users of a users.properties file are imported.
+ */
+public class HdfsLogUserStore implements HdfsUserStore {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsLogUserStore.class);
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final static String HEADER = "# hdfs-over-ftp users log, do not edit while the server is running";
+
+	private final static int MIN_COMPACT_RECORDS = 1000;
+
+	private final File file;
+
+	private final File importFile;
+
+	private final boolean sync;
+
+	private final Map<String, Map<String, String>> users = new HashMap<String, Map<String, String>>();
+
+	private FileOutputStream out = null;
+
+	// records in the log, compared to the number of users to decide on compaction
+	private int records = 0;
+
+	private long writtenModified = 0;
+
+	private long writtenLength = 0;
+
+	/**
+	 * Constructs the store
+	 *
+	 * @param file       log file
+	 * @param importFile users.properties imported when the log does not exist, may be null
+	 * @param sync       true to force every change to disk before it is acknowledged
+	 */
+	public HdfsLogUserStore(File file, File importFile, boolean sync) {
+		this.file = file;
+		this.importFile = importFile;
+		this.sync = sync;
+	}
+
+	public synchronized Map<String, Map<String, String>> load() throws IOException {
+		closeLog();
+		users.clear();
+		records = 0;
+		if (file.exists()) {
+			if (!readLog()) {
+				// do not append behind a broken record
+				compact();
+			}
+		} else if (importFile != null && importFile.exists()) {
+			users.putAll(new HdfsPropertiesUserStore(importFile).load());
+			log.info("Importing " + users.size() + " users from " + importFile.getAbsolutePath());
+			compact();
+		} else {
+			compact();
+		}
+		if (records > MIN_COMPACT_RECORDS && records > 2 * users.size()) {
+			compact();
+		}
+		openLog();
+
+		Map<String, Map<String, String>> copy = new HashMap<String, Map<String, String>>();
+		for (Map.Entry<String, Map<String, String>> user : users.entrySet()) {
+			copy.put(user.getKey(), new HashMap<String, String>(user.getValue()));
+		}
+		return copy;
+	}
+
+	public synchronized void save(String name, Map<String, String> attributes) throws IOException {
+		append(putRecord(name, attributes));
+		users.put(name, new HashMap<String, String>(attributes));
+		compactIfNeeded();
+	}
+
+	public synchronized void saveAll(Map<String, Map<String, String>> changed) throws IOException {
+		if (changed.isEmpty()) {
+			return;
+		}
+		StringBuilder records = new StringBuilder();
+		for (Map.Entry<String, Map<String, String>> user : changed.entrySet()) {
+			records.append(putRecord(user.getKey(), user.getValue()));
+		}
+		append(records.toString(), changed.size());
+		for (Map.Entry<String, Map<String, String>> user : changed.entrySet()) {
+			users.put(user.getKey(), new HashMap<String, String>(user.getValue()));
+		}
+		compactIfNeeded();
+	}
+
+	public synchronized void delete(String name) throws IOException {
+		if (!users.containsKey(name)) {
+			return;
+		}
+		append("del " + encode(name) + "\n");
+		users.remove(name);
+		compactIfNeeded();
+	}
+
+	public synchronized boolean isModified() {
+		if (!file.exists()) {
+			return false;
+		}
+		return file.lastModified() != writtenModified || file.length() != writtenLength;
+	}
+
+	public boolean isWritable() {
+		return HdfsPropertiesUserStore.isWritable(file);
+	}
+
+	public String getLocation() {
+		return file.getAbsolutePath();
+	}
+
+	public synchronized void close() {
+		try {
+			closeLog();
+		} catch (IOException e) {
+			log.error("Failed closing " + file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Replay the log into the users
+	 *
+	 * @return false if invalid records were skipped
+	 */
+	private boolean readLog() throws IOException {
+		BufferedReader reader = null;
+		int lineNumber = 0;
+		boolean valid = true;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				try {
+					applyRecord(line);
+					records++;
+				} catch (IllegalArgumentException e) {
+					// most likely the last line of an interrupted write
+					log.warn("Skipping invalid record at " + file.getAbsolutePath() + ":" + lineNumber);
+					valid = false;
+				}
+			}
+		} finally {
+			IoUtils.close(reader);
+		}
+		writtenModified = file.lastModified();
+		writtenLength = file.length();
+		return valid;
+	}
+
+	private void applyRecord(String line) {
+		String[] fields = line.split(" ");
+		if (fields.length < 2) {
+			throw new IllegalArgumentException(line);
+		}
+		String name = decode(fields[1]);
+		if ("put".equals(fields[0])) {
+			Map<String, String> attributes = new HashMap<String, String>();
+			for (int i = 2; i < fields.length; i++) {
+				int pos = fields[i].indexOf('=');
+				if (pos <= 0) {
+					throw new IllegalArgumentException(line);
+				}
+				attributes.put(decode(fields[i].substring(0, pos)), decode(fields[i].substring(pos + 1)));
+			}
+			users.put(name, attributes);
+		} else if ("del".equals(fields[0])) {
+			users.remove(name);
+		} else {
+			throw new IllegalArgumentException(line);
+		}
+	}
+
+	private void append(String record) throws IOException {
+		append(record, 1);
+	}
+
+	private void append(String record, int count) throws IOException {
+		if (out == null) {
+			openLog();
+		}
+		out.write(record.getBytes(UTF8));
+		out.flush();
+		if (sync) {
+			out.getChannel().force(false);
+		}
+		records += count;
+		writtenModified = file.lastModified();
+		writtenLength = file.length();
+	}
+
+	private void compactIfNeeded() throws IOException {
+		if (records > MIN_COMPACT_RECORDS && records > 2 * users.size()) {
+			closeLog();
+			compact();
+			openLog();
+		}
+	}
+
+	/**
+	 * Replace the log by a snapshot of the current users
+	 */
+	private void compact() throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Cannot create directory for user data file : "
+					+ dir.getAbsolutePath());
+		}
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		FileOutputStream snapshot = new FileOutputStream(tmp);
+		try {
+			snapshot.write((HEADER + "\n").getBytes(UTF8));
+			for (Map.Entry<String, Map<String, String>> user : new TreeMap<String, Map<String, String>>(users).entrySet()) {
+				snapshot.write(putRecord(user.getKey(), user.getValue()).getBytes(UTF8));
+			}
+			snapshot.flush();
+			snapshot.getChannel().force(true);
+		} finally {
+			IoUtils.close(snapshot);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		records = users.size();
+		writtenModified = file.lastModified();
+		writtenLength = file.length();
+		log.debug("Compacted " + file.getAbsolutePath() + " to " + records + " users");
+	}
+
+	private void openLog() throws IOException {
+		out = new FileOutputStream(file, true);
+	}
+
+	private void closeLog() throws IOException {
+		if (out != null) {
+			try {
+				out.close();
+			} finally {
+				out = null;
+			}
+		}
+	}
+
+	private static String putRecord(String name, Map<String, String> attributes) {
+		StringBuilder sb = new StringBuilder("put ").append(encode(name));
+		for (Map.Entry<String, String> attribute : new TreeMap<String, String>(attributes).entrySet()) {
+			sb.append(' ').append(encode(attribute.getKey()))
+					.append('=').append(encode(attribute.getValue()));
+		}
+		return sb.append('\n').toString();
+	}
+
+	private static String encode(String s) {
+		try {
+			return URLEncoder.encode(s == null ? "" : s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String decode(String s) {
+		try {
+			return URLDecoder.decode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server wide cache of FileStatus shared by all sessions. Entries live for a
+ * fixed time, missing paths are cached as negative entries. Changes made
+ * through the gateway invalidate the affected entries immediately, changes
+ * made by other HDFS clients are seen once the entries expire. A status is
+ * only served to the user it was fetched for, since HDFS decides through
+ * the proxy user whether the path may be looked up at all, and a negative
+ * entry would tell other users that the path does not exist. Besides the
+ * access ordered map the entries are kept sorted by path, so dropping the
+ * subtree of a removed or renamed directory only visits its descendants.
+ * Listings add their children only if the directory is small compared to
+ * the cache, so a large listing does not evict the entries of all other
+ * sessions.
+ */
+public class HdfsMetadataCache implements HdfsMetrics.CacheStatistics {
+
+	// a listing may fill this fraction of the cache
+	private final static int LISTING_SHARE = 8;
+
+	private final int maxSize;
+
+	private final long ttlMs;
+
+	private final LinkedHashMap<String, Map<String, Entry>> entries;
+
+	// the same entries sorted by path, updated together with entries
+	private final TreeMap<String, Map<String, Entry>> sorted = new TreeMap<String, Map<String, Entry>>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private static class Entry {
+		// null for a path that does not exist
+		private final FileStatus status;
+		private final long expires;
+
+		private Entry(FileStatus status, long expires) {
+			this.status = status;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Constructs the cache
+	 *
+	 * @param maxSize maximum number of cached paths, 0 disables the cache
+	 * @param ttlMs   time an entry is valid in milliseconds
+	 */
+	public HdfsMetadataCache(final int maxSize, long ttlMs) {
+		this.maxSize = maxSize;
+		this.ttlMs = ttlMs;
+		this.entries = new LinkedHashMap<String, Map<String, Entry>>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Map<String, Entry>> eldest) {
+				if (size() > maxSize) {
+					sorted.remove(eldest.getKey());
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Check if the cache is enabled
+	 *
+	 * @return true if entries are cached
+	 */
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * Check if the children of a listing are cached
+	 *
+	 * @param entries number of entries of the listing
+	 * @return true if the listing fits into its share of the cache
+	 */
+	public boolean isListingCached(long entries) {
+		return entries <= maxSize / LISTING_SHARE;
+	}
+
+	/**
+	 * Get the cached status of the path
+	 *
+	 * @param user user looking the path up
+	 * @param path path to look up
+	 * @return cached status or null if the path is not cached for the user
+	 * @throws FileNotFoundException if the path is cached as missing
+	 */
+	public FileStatus get(String user, Path path) throws FileNotFoundException {
+		if (!isEnabled()) {
+			return null;
+		}
+		String key = key(path);
+		Entry entry = null;
+		synchronized (this) {
+			Map<String, Entry> users = entries.get(key);
+			if (users != null) {
+				entry = users.get(user);
+				if (entry != null && entry.expires < System.currentTimeMillis()) {
+					users.remove(user);
+					if (users.isEmpty()) {
+						remove(key);
+					}
+					evictions.incrementAndGet();
+					entry = null;
+				}
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		if (entry.status == null) {
+			throw new FileNotFoundException("File does not exist: " + path);
+		}
+		return entry.status;
+	}
+
+	/**
+	 * Cache the status of the path
+	 *
+	 * @param user   user the status was fetched for
+	 * @param path   path of the status
+	 * @param status status to cache
+	 */
+	public void put(String user, Path path, FileStatus status) {
+		if (!isEnabled()) {
+			return;
+		}
+		Entry entry = new Entry(status, System.currentTimeMillis() + ttlMs);
+		String key = key(path);
+		synchronized (this) {
+			Map<String, Entry> users = entries.get(key);
+			if (users == null) {
+				users = new HashMap<String, Entry>(4);
+				entries.put(key, users);
+				sorted.put(key, users);
+			}
+			users.put(user, entry);
+		}
+	}
+
+	/**
+	 * Cache the path as missing
+	 *
+	 * @param user user the path was looked up for
+	 * @param path path that does not exist
+	 */
+	public void putNotFound(String user, Path path) {
+		put(user, path, null);
+	}
+
+	/**
+	 * Drop the path and its parent directory, whose modification time
+	 * changes with it, for all users
+	 *
+	 * @param path changed path
+	 */
+	public void invalidate(Path path) {
+		invalidate(path, false);
+	}
+
+	/**
+	 * Drop the path and its parent directory, whose modification time
+	 * changes with it, for all users
+	 *
+	 * @param path    changed path
+	 * @param subtree true if the path was removed or renamed, which drops
+	 *                everything below it as well
+	 */
+	public void invalidate(Path path, boolean subtree) {
+		if (!isEnabled()) {
+			return;
+		}
+		String key = key(path);
+		Path parent = path.getParent();
+		synchronized (this) {
+			remove(key);
+			if (parent != null) {
+				remove(key(parent));
+			}
+			if (subtree) {
+				String prefix = key.endsWith("/") ? key : key + "/";
+				// '0' follows '/', so the range holds exactly the paths below the prefix
+				String end = prefix.substring(0, prefix.length() - 1) + '0';
+				for (String descendant : new ArrayList<String>(sorted.subMap(prefix, end).keySet())) {
+					remove(descendant);
+				}
+			}
+		}
+	}
+
+	private void remove(String key) {
+		if (entries.remove(key) != null) {
+			sorted.remove(key);
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	private static String key(Path path) {
+		return path.toUri().getPath();
+	}
+}
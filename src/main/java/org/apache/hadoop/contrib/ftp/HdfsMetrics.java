@@ -0,0 +1,482 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.fs.FileSystem;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of the gateway: latency histograms and NameNode operations per FTP
+ * command, transfers per user, active sessions, the caches of the gateway
+ * and the HDFS client statistics. Exported over JMX by {@link HdfsMetricsMXBean} and as
+ * Prometheus text by {@link HdfsMetricsServer}.
+ * <p/>
+ * NameNode operations of a command are the read and write operations the
+ * HDFS client counted on the thread running the command, plus those of the
+ * read-ahead and copy tasks the command submitted through
+ * {@link #attribute(Callable)} or {@link #attribute(Runnable)}. Commands
+ * other than the ones the FTP server and HdfsFtplet implement are counted as
+ * OTHER. Transfers per user are only exported for a limited number of users
+ * set with {@link #setUserLimit}; the transfers of further users are counted
+ * under the user "*".
+ */
+public class HdfsMetrics implements HdfsMetricsMXBean {
+
+	// upper bounds of the latency buckets in milliseconds
+	private final static long[] BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+	// commands of the FTP server and of HdfsFtplet, anything else is OTHER
+	private final static Set<String> COMMAND_NAMES = new HashSet<String>(Arrays.asList(
+			"ABOR", "ACCT", "APPE", "AUTH", "CDUP", "CWD", "DELE", "EPRT", "EPSV", "FEAT", "HASH",
+			"HELP", "LANG", "LIST", "MD5", "MDTM", "MFMT", "MKD", "MLSD", "MLST", "MMD5", "MODE",
+			"NLST", "NOOP", "OPTS", "PASS", "PASV", "PBSZ", "PORT", "PROT", "PWD", "QUIT", "REIN",
+			"REST", "RETR", "RMD", "RNFR", "RNTO", "SITE", "SIZE", "STAT", "STOR", "STOU", "STRU",
+			"SYST", "TYPE", "USER", "XCRC", "XCUP", "XCWD", "XMD5", "XMKD", "XPWD", "XRMD",
+			"XSHA1", "XSHA256", "XSHA512"));
+
+	// user the transfers beyond the user limit are counted for
+	private final static String OTHER_USERS = "*";
+
+	private final ConcurrentMap<String, CommandStats> commands = new ConcurrentHashMap<String, CommandStats>();
+
+	private final ConcurrentMap<String, TransferStats> users = new ConcurrentHashMap<String, TransferStats>();
+
+	private final AtomicInteger activeSessions = new AtomicInteger();
+
+	private final AtomicLong totalSessions = new AtomicLong();
+
+	private volatile int userLimit = 0;
+
+	private final ConcurrentMap<String, CacheStatistics> caches = new ConcurrentHashMap<String, CacheStatistics>();
+
+	// bytes transferred by the streams closed on the current thread
+	private final static ThreadLocal<long[]> threadBytes = new ThreadLocal<long[]>() {
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	// timer of the command running on the current thread
+	private final static ThreadLocal<Timer> threadTimer = new ThreadLocal<Timer>();
+
+	/**
+	 * Counters of a cache or pool, read whenever the metrics are exported
+	 */
+	public interface CacheStatistics {
+		long getHits();
+
+		long getMisses();
+
+		long getEvictions();
+
+		int getSize();
+	}
+
+	private static class CommandStats {
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicLong rpcs = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+	}
+
+	private static class TransferStats {
+		private final AtomicLong bytesRead = new AtomicLong();
+		private final AtomicLong bytesWritten = new AtomicLong();
+		private final AtomicLong readNanos = new AtomicLong();
+		private final AtomicLong writeNanos = new AtomicLong();
+	}
+
+	/**
+	 * Start of a command, taken on the thread running it
+	 */
+	public static class Timer {
+		private final long start = System.nanoTime();
+		private final long startRpcs = threadRpcs();
+		private final long startBytes = threadBytes.get()[0];
+		// operations of the tasks the command ran on pools
+		private final AtomicLong taskRpcs = new AtomicLong();
+	}
+
+	/**
+	 * Start timing a command on the current thread
+	 *
+	 * @return timer to pass to {@link #finish}
+	 */
+	public Timer start() {
+		Timer timer = new Timer();
+		threadTimer.set(timer);
+		return timer;
+	}
+
+	/**
+	 * Wrap a task submitted to a pool, so its NameNode operations count for
+	 * the command running on the current thread
+	 *
+	 * @param task task to run on another thread
+	 * @return task recording its operations, or the task if no command runs
+	 */
+	public <T> Callable<T> attribute(final Callable<T> task) {
+		final Timer timer = threadTimer.get();
+		if (timer == null) {
+			return task;
+		}
+		return new Callable<T>() {
+			public T call() throws Exception {
+				long start = threadRpcs();
+				try {
+					return task.call();
+				} finally {
+					timer.taskRpcs.addAndGet(threadRpcs() - start);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap a task submitted to a pool, so its NameNode operations count for
+	 * the command running on the current thread
+	 *
+	 * @param task task to run on another thread
+	 * @return task recording its operations, or the task if no command runs
+	 */
+	public Runnable attribute(final Runnable task) {
+		final Timer timer = threadTimer.get();
+		if (timer == null) {
+			return task;
+		}
+		return new Runnable() {
+			public void run() {
+				long start = threadRpcs();
+				try {
+					task.run();
+				} finally {
+					timer.taskRpcs.addAndGet(threadRpcs() - start);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Set the number of users whose transfers are exported, 0 exports none
+	 *
+	 * @param userLimit maximum number of users
+	 */
+	public void setUserLimit(int userLimit) {
+		this.userLimit = userLimit;
+	}
+
+	/**
+	 * Record a finished command
+	 *
+	 * @param command FTP command
+	 * @param timer   timer started on the same thread
+	 * @param failed  true if the command failed
+	 */
+	public void finish(String command, Timer timer, boolean failed) {
+		long nanos = System.nanoTime() - timer.start;
+		if (threadTimer.get() == timer) {
+			threadTimer.remove();
+		}
+		if (!COMMAND_NAMES.contains(command)) {
+			// keep unknown input of clients from creating series
+			command = "OTHER";
+		}
+		CommandStats stats = commands.get(command);
+		if (stats == null) {
+			CommandStats created = new CommandStats();
+			stats = commands.putIfAbsent(command, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		long millis = nanos / 1000000;
+		int bucket = 0;
+		while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+			bucket++;
+		}
+		stats.buckets.incrementAndGet(bucket);
+		stats.count.incrementAndGet();
+		stats.nanos.addAndGet(nanos);
+		stats.rpcs.addAndGet(threadRpcs() - timer.startRpcs + timer.taskRpcs.get());
+		if (failed) {
+			stats.failures.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Record a finished transfer. Users beyond the user limit are counted
+	 * together.
+	 *
+	 * @param user   user name
+	 * @param upload true for an upload
+	 * @param bytes  bytes transferred
+	 * @param nanos  duration of the transfer
+	 */
+	public void transfer(String user, boolean upload, long bytes, long nanos) {
+		threadBytes.get()[0] += bytes;
+		int limit = userLimit;
+		if (limit == 0) {
+			return;
+		}
+		TransferStats stats = users.get(user);
+		if (stats == null && users.size() >= limit) {
+			user = OTHER_USERS;
+			stats = users.get(user);
+		}
+		if (stats == null) {
+			TransferStats created = new TransferStats();
+			stats = users.putIfAbsent(user, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		if (upload) {
+			stats.bytesWritten.addAndGet(bytes);
+			stats.writeNanos.addAndGet(nanos);
+		} else {
+			stats.bytesRead.addAndGet(bytes);
+			stats.readNanos.addAndGet(nanos);
+		}
+	}
+
+	/**
+	 * Get the bytes transferred by the command of a timer so far
+	 *
+	 * @param timer timer started on the current thread
+	 * @return bytes uploaded or downloaded
+	 */
+	public long getTransferredBytes(Timer timer) {
+		return threadBytes.get()[0] - timer.startBytes;
+	}
+
+	/**
+	 * Export the counters of a cache
+	 *
+	 * @param name       name of the cache in the exported metrics
+	 * @param statistics counters of the cache
+	 */
+	public void registerCache(String name, CacheStatistics statistics) {
+		caches.put(name, statistics);
+	}
+
+	public void sessionOpened() {
+		activeSessions.incrementAndGet();
+		totalSessions.incrementAndGet();
+	}
+
+	public void sessionClosed() {
+		activeSessions.decrementAndGet();
+	}
+
+	public int getActiveSessions() {
+		return activeSessions.get();
+	}
+
+	public long getTotalSessions() {
+		return totalSessions.get();
+	}
+
+	public Map<String, Long> getCommandCounts() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().count.get());
+		}
+		return result;
+	}
+
+	public Map<String, Long> getCommandFailures() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().failures.get());
+		}
+		return result;
+	}
+
+	public Map<String, Double> getCommandMeanLatencyMillis() {
+		Map<String, Double> result = new TreeMap<String, Double>();
+		for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+			CommandStats stats = entry.getValue();
+			long count = stats.count.get();
+			result.put(entry.getKey(), count == 0 ? 0.0 : stats.nanos.get() / 1e6 / count);
+		}
+		return result;
+	}
+
+	public Map<String, Long> getCommandRpcs() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().rpcs.get());
+		}
+		return result;
+	}
+
+	public Map<String, Long> getUserBytesRead() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, TransferStats> entry : users.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().bytesRead.get());
+		}
+		return result;
+	}
+
+	public Map<String, Long> getUserBytesWritten() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, TransferStats> entry : users.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().bytesWritten.get());
+		}
+		return result;
+	}
+
+	public Map<String, Long> getCacheStatistics() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, CacheStatistics> entry : caches.entrySet()) {
+			String name = entry.getKey();
+			CacheStatistics statistics = entry.getValue();
+			result.put(name + ".hits", statistics.getHits());
+			result.put(name + ".misses", statistics.getMisses());
+			result.put(name + ".evictions", statistics.getEvictions());
+			result.put(name + ".size", (long) statistics.getSize());
+		}
+		return result;
+	}
+
+	public Map<String, Long> getFileSystemStatistics() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (FileSystem.Statistics statistics : FileSystem.getAllStatistics()) {
+			String scheme = statistics.getScheme();
+			result.put(scheme + ".bytesRead", statistics.getBytesRead());
+			result.put(scheme + ".bytesWritten", statistics.getBytesWritten());
+			result.put(scheme + ".readOps", (long) statistics.getReadOps());
+			result.put(scheme + ".largeReadOps", (long) statistics.getLargeReadOps());
+			result.put(scheme + ".writeOps", (long) statistics.getWriteOps());
+		}
+		return result;
+	}
+
+	/**
+	 * Write the metrics in the Prometheus text format
+	 *
+	 * @param sb buffer to write to
+	 */
+	public void writePrometheus(StringBuilder sb) {
+		sb.append("# TYPE hdfs_ftp_active_sessions gauge\n");
+		sb.append("hdfs_ftp_active_sessions ").append(activeSessions.get()).append('\n');
+		sb.append("# TYPE hdfs_ftp_sessions_total counter\n");
+		sb.append("hdfs_ftp_sessions_total ").append(totalSessions.get()).append('\n');
+
+		Map<String, CommandStats> sortedCommands = new TreeMap<String, CommandStats>(commands);
+		sb.append("# TYPE hdfs_ftp_command_duration_seconds histogram\n");
+		for (Map.Entry<String, CommandStats> entry : sortedCommands.entrySet()) {
+			String label = "command=\"" + escape(entry.getKey()) + "\"";
+			CommandStats stats = entry.getValue();
+			long cumulative = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += stats.buckets.get(i);
+				sb.append("hdfs_ftp_command_duration_seconds_bucket{").append(label)
+						.append(",le=\"").append(BUCKETS[i] / 1000.0).append("\"} ").append(cumulative).append('\n');
+			}
+			cumulative += stats.buckets.get(BUCKETS.length);
+			sb.append("hdfs_ftp_command_duration_seconds_bucket{").append(label)
+					.append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+			sb.append("hdfs_ftp_command_duration_seconds_sum{").append(label).append("} ")
+					.append(stats.nanos.get() / 1e9).append('\n');
+			sb.append("hdfs_ftp_command_duration_seconds_count{").append(label).append("} ")
+					.append(stats.count.get()).append('\n');
+		}
+		sb.append("# TYPE hdfs_ftp_command_failures_total counter\n");
+		for (Map.Entry<String, CommandStats> entry : sortedCommands.entrySet()) {
+			sb.append("hdfs_ftp_command_failures_total{command=\"").append(escape(entry.getKey())).append("\"} ")
+					.append(entry.getValue().failures.get()).append('\n');
+		}
+		sb.append("# TYPE hdfs_ftp_command_namenode_ops_total counter\n");
+		for (Map.Entry<String, CommandStats> entry : sortedCommands.entrySet()) {
+			sb.append("hdfs_ftp_command_namenode_ops_total{command=\"").append(escape(entry.getKey())).append("\"} ")
+					.append(entry.getValue().rpcs.get()).append('\n');
+		}
+
+		Map<String, TransferStats> sortedUsers = new TreeMap<String, TransferStats>(users);
+		sb.append("# TYPE hdfs_ftp_user_bytes_total counter\n");
+		for (Map.Entry<String, TransferStats> entry : sortedUsers.entrySet()) {
+			String user = escape(entry.getKey());
+			sb.append("hdfs_ftp_user_bytes_total{user=\"").append(user).append("\",direction=\"read\"} ")
+					.append(entry.getValue().bytesRead.get()).append('\n');
+			sb.append("hdfs_ftp_user_bytes_total{user=\"").append(user).append("\",direction=\"write\"} ")
+					.append(entry.getValue().bytesWritten.get()).append('\n');
+		}
+		sb.append("# TYPE hdfs_ftp_user_transfer_seconds_total counter\n");
+		for (Map.Entry<String, TransferStats> entry : sortedUsers.entrySet()) {
+			String user = escape(entry.getKey());
+			sb.append("hdfs_ftp_user_transfer_seconds_total{user=\"").append(user).append("\",direction=\"read\"} ")
+					.append(entry.getValue().readNanos.get() / 1e9).append('\n');
+			sb.append("hdfs_ftp_user_transfer_seconds_total{user=\"").append(user).append("\",direction=\"write\"} ")
+					.append(entry.getValue().writeNanos.get() / 1e9).append('\n');
+		}
+
+		Map<String, CacheStatistics> sortedCaches = new TreeMap<String, CacheStatistics>(caches);
+		sb.append("# TYPE hdfs_ftp_cache_hits_total counter\n");
+		for (Map.Entry<String, CacheStatistics> entry : sortedCaches.entrySet()) {
+			sb.append("hdfs_ftp_cache_hits_total{cache=\"").append(escape(entry.getKey())).append("\"} ")
+					.append(entry.getValue().getHits()).append('\n');
+		}
+		sb.append("# TYPE hdfs_ftp_cache_misses_total counter\n");
+		for (Map.Entry<String, CacheStatistics> entry : sortedCaches.entrySet()) {
+			sb.append("hdfs_ftp_cache_misses_total{cache=\"").append(escape(entry.getKey())).append("\"} ")
+					.append(entry.getValue().getMisses()).append('\n');
+		}
+		sb.append("# TYPE hdfs_ftp_cache_evictions_total counter\n");
+		for (Map.Entry<String, CacheStatistics> entry : sortedCaches.entrySet()) {
+			sb.append("hdfs_ftp_cache_evictions_total{cache=\"").append(escape(entry.getKey())).append("\"} ")
+					.append(entry.getValue().getEvictions()).append('\n');
+		}
+		sb.append("# TYPE hdfs_ftp_cache_size gauge\n");
+		for (Map.Entry<String, CacheStatistics> entry : sortedCaches.entrySet()) {
+			sb.append("hdfs_ftp_cache_size{cache=\"").append(escape(entry.getKey())).append("\"} ")
+					.append(entry.getValue().getSize()).append('\n');
+		}
+
+		sb.append("# TYPE hdfs_client_ops_total counter\n");
+		for (FileSystem.Statistics statistics : FileSystem.getAllStatistics()) {
+			String scheme = escape(statistics.getScheme());
+			sb.append("hdfs_client_ops_total{scheme=\"").append(scheme).append("\",type=\"read\"} ")
+					.append(statistics.getReadOps()).append('\n');
+			sb.append("hdfs_client_ops_total{scheme=\"").append(scheme).append("\",type=\"large_read\"} ")
+					.append(statistics.getLargeReadOps()).append('\n');
+			sb.append("hdfs_client_ops_total{scheme=\"").append(scheme).append("\",type=\"write\"} ")
+					.append(statistics.getWriteOps()).append('\n');
+		}
+		sb.append("# TYPE hdfs_client_bytes_total counter\n");
+		for (FileSystem.Statistics statistics : FileSystem.getAllStatistics()) {
+			String scheme = escape(statistics.getScheme());
+			sb.append("hdfs_client_bytes_total{scheme=\"").append(scheme).append("\",direction=\"read\"} ")
+					.append(statistics.getBytesRead()).append('\n');
+			sb.append("hdfs_client_bytes_total{scheme=\"").append(scheme).append("\",direction=\"write\"} ")
+					.append(statistics.getBytesWritten()).append('\n');
+		}
+	}
+
+	/**
+	 * Get the number of NameNode operations the HDFS client counted on the
+	 * current thread
+	 */
+	private static long threadRpcs() {
+		long rpcs = 0;
+		for (FileSystem.Statistics statistics : FileSystem.getAllStatistics()) {
+			FileSystem.Statistics.StatisticsData data = statistics.getThreadStatistics();
+			rpcs += data.getReadOps() + data.getLargeReadOps() + data.getWriteOps();
+		}
+		return rpcs;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
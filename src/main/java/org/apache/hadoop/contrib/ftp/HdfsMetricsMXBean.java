@@ -0,0 +1,45 @@
+package org.apache.hadoop.contrib.ftp;
+
+import java.util.Map;
+
+/**
+ * JMX view of the gateway metrics, registered as
+ * org.apache.hadoop.contrib.ftp:type=HdfsOverFtp
+ */
+public interface HdfsMetricsMXBean {
+
+	int getActiveSessions();
+
+	long getTotalSessions();
+
+	Map<String, Long> getCommandCounts();
+
+	Map<String, Long> getCommandFailures();
+
+	Map<String, Double> getCommandMeanLatencyMillis();
+
+	/**
+	 * Get the NameNode operations per FTP command
+	 *
+	 * @return operations by command
+	 */
+	Map<String, Long> getCommandRpcs();
+
+	Map<String, Long> getUserBytesRead();
+
+	Map<String, Long> getUserBytesWritten();
+
+	/**
+	 * Get the hits, misses, evictions and size of the caches and pools
+	 *
+	 * @return values by cache and name
+	 */
+	Map<String, Long> getCacheStatistics();
+
+	/**
+	 * Get the statistics of the HDFS client
+	 *
+	 * @return values by scheme and name
+	 */
+	Map<String, Long> getFileSystemStatistics();
+}
@@ -0,0 +1,68 @@
+package org.apache.hadoop.contrib.ftp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+
+/**
+ * HTTP endpoint serving the gateway metrics in the Prometheus text format
+ * on /metrics
+ */
+public class HdfsMetricsServer {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsMetricsServer.class);
+
+	private final HdfsMetrics metrics;
+
+	private HttpServer server;
+
+	public HdfsMetricsServer(HdfsMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Start serving the metrics
+	 *
+	 * @param address address to listen on
+	 * @throws IOException if the address can not be bound
+	 */
+	public void start(InetSocketAddress address) throws IOException {
+		server = HttpServer.create(address, 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					if (!"GET".equals(exchange.getRequestMethod())) {
+						exchange.sendResponseHeaders(405, -1);
+						return;
+					}
+					StringBuilder sb = new StringBuilder(4096);
+					metrics.writePrometheus(sb);
+					byte[] body = sb.toString().getBytes(Charset.forName("UTF-8"));
+					exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+					exchange.sendResponseHeaders(200, body.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(body);
+					out.close();
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		log.info("Metrics are served on http://" + address.getHostString() + ":" + address.getPort() + "/metrics");
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+}
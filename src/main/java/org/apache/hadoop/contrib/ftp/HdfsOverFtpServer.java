@@ -4,14 +4,21 @@ import org.apache.ftpserver.DefaultConnectionConfig;
 import org.apache.ftpserver.DefaultDataConnectionConfiguration;
 import org.apache.ftpserver.DefaultFtpServerContext;
 import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.ftplet.FtpException;
 import org.apache.ftpserver.interfaces.DataConnectionConfiguration;
 import org.apache.ftpserver.interfaces.FtpServerContext;
+import org.apache.ftpserver.listener.Listener;
+import org.apache.ftpserver.listener.nio.NioListener;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 
+import javax.management.ObjectName;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.Properties;
 
@@ -31,12 +38,79 @@ public class HdfsOverFtpServer {
     private static String keytab = null;
     private static String principal = null;
     private static int maxLogins = 0;
+	private static long kerberosReloginInterval = 60;
+	private static boolean delegationTokenEnable = false;
+	private static long delegationTokenRenewInterval = 3600;
+	private static int fsCacheSize = 64;
+	private static long fsCacheIdleTimeout = 600;
+	private static int metadataCacheSize = 10000;
+	private static long metadataCacheTtl = 2000;
+	private static boolean listStreaming = true;
+	private static boolean readAheadEnable = false;
+	private static long readAheadMinSize = 256L * 1024 * 1024;
+	private static int readAheadDepth = 4;
+	private static int readAheadChunkSize = 16 * 1024 * 1024;
+	private static int readAheadThreads = 32;
+	private static long readAheadMemoryLimit = 512L * 1024 * 1024;
+	private static int permissionCacheSize = 10000;
+	private static long permissionCacheTtl = 60000;
+	private static int checksumCacheSize = 10000;
+	private static long checksumMaxReadSize = 1024L * 1024 * 1024;
+	private static int copyThreads = 16;
+	private static long copyParallelMinSize = 1024L * 1024 * 1024;
+	private static long copyChunkSize = 256L * 1024 * 1024;
+	private static long copyMaxSize = 100L * 1024 * 1024 * 1024;
+	private static long copyProgressInterval = 10;
+	private static long usersReloadInterval = 10;
+	private static String usersStore = "properties";
+	private static String usersStoreFile = null;
+	private static boolean usersStoreSync = true;
+	private static int passwordHashIterations = 10000;
+	private static int passwordVerifyThreads = Runtime.getRuntime().availableProcessors();
+	private static long passwordVerifyTimeout = 10000;
+	private static long passwordCacheTtl = 60000;
+	// defaults to on for the log store only, see loadConfig
+	private static Boolean passwordUpgrade = null;
+	private static HdfsPasswordEncryptor passwordEncryptor = null;
+	private static boolean groupMappingEnable = false;
+	private static HdfsWriteProfiles writeProfiles = null;
+	private static int metricsPort = 0;
+	private static String metricsBindAddress = "127.0.0.1";
+	private static int metricsUsers = 0;
+	private static String traceFile = null;
+	private static String traceKey = null;
+	private static long traceMaxSize = 1024;
+	private static HdfsTraceRecorder traceRecorder = null;
 
 	public static void main(String[] args) throws Exception {
 		//PropertyConfigurator.configure("log4j.conf");
 
 		loadConfig();
 
+		HdfsOverFtpSystem.setHDFS_URI(hdfsUri);
+		HdfsOverFtpSystem.setFsCacheSize(fsCacheSize);
+		HdfsOverFtpSystem.setFsCacheIdleTimeout(fsCacheIdleTimeout * 1000);
+		HdfsOverFtpSystem.setMetadataCacheSize(metadataCacheSize);
+		HdfsOverFtpSystem.setMetadataCacheTtl(metadataCacheTtl);
+		HdfsOverFtpSystem.setReadAhead(readAheadEnable, readAheadMinSize, readAheadDepth,
+				readAheadChunkSize, readAheadThreads, readAheadMemoryLimit);
+		HdfsOverFtpSystem.setPermissionCache(permissionCacheSize, permissionCacheTtl);
+		HdfsOverFtpSystem.setChecksums(checksumCacheSize, checksumMaxReadSize);
+		HdfsOverFtpSystem.setCopy(copyThreads, copyParallelMinSize, copyChunkSize, copyMaxSize);
+		HdfsOverFtpSystem.setGroupMapping(groupMappingEnable);
+		HdfsOverFtpSystem.setWriteProfiles(writeProfiles);
+		HdfsOverFtpSystem.hdfsInit();
+
+		if (isKerberos) {
+			HdfsKerberosLogin kerberosLogin = new HdfsKerberosLogin(HdfsOverFtpSystem.getConfiguration(),
+					HdfsOverFtpSystem.getUri(), principal, keytab, delegationTokenEnable);
+			kerberosLogin.login(kerberosReloginInterval, delegationTokenRenewInterval);
+			HdfsOverFtpSystem.setKerberosLogin(kerberosLogin);
+		}
+
+		startMetrics();
+		startTrace();
+
 		if (port != 0) {
 			startServer();
 		}
@@ -110,7 +184,267 @@ public class HdfsOverFtpServer {
 			} catch (Exception e) {
 				maxLogins = 0;
 			}
+
+			try {
+				kerberosReloginInterval = Long.parseLong(props.getProperty("kerberos-relogin-interval"));
+			} catch (Exception e) {
+				kerberosReloginInterval = 60;
+			}
+
+			delegationTokenEnable = Boolean.parseBoolean(props.getProperty("delegation-token-enable"));
+
+			try {
+				delegationTokenRenewInterval = Long.parseLong(props.getProperty("delegation-token-renew-interval"));
+			} catch (Exception e) {
+				delegationTokenRenewInterval = 3600;
+			}
     }
+
+		try {
+			fsCacheSize = Integer.parseInt(props.getProperty("fs-cache-size"));
+		} catch (Exception e) {
+			log.info("fs-cache-size is not set. so default " + fsCacheSize + " will be used");
+		}
+
+		try {
+			fsCacheIdleTimeout = Long.parseLong(props.getProperty("fs-cache-idle-timeout"));
+		} catch (Exception e) {
+			log.info("fs-cache-idle-timeout is not set. so default " + fsCacheIdleTimeout + " will be used");
+		}
+
+		try {
+			metadataCacheSize = Integer.parseInt(props.getProperty("metadata-cache-size"));
+		} catch (Exception e) {
+			log.info("metadata-cache-size is not set. so default " + metadataCacheSize + " will be used");
+		}
+
+		try {
+			metadataCacheTtl = Long.parseLong(props.getProperty("metadata-cache-ttl"));
+		} catch (Exception e) {
+			log.info("metadata-cache-ttl is not set. so default " + metadataCacheTtl + " will be used");
+		}
+
+		String listStreamingParam = props.getProperty("list-streaming-enable");
+		if (listStreamingParam != null) {
+			listStreaming = Boolean.parseBoolean(listStreamingParam);
+		}
+
+		readAheadEnable = Boolean.parseBoolean(props.getProperty("read-ahead-enable"));
+		if (readAheadEnable) {
+			try {
+				readAheadMinSize = Long.parseLong(props.getProperty("read-ahead-min-size"));
+			} catch (Exception e) {
+				log.info("read-ahead-min-size is not set. so default " + readAheadMinSize + " will be used");
+			}
+
+			try {
+				readAheadDepth = Integer.parseInt(props.getProperty("read-ahead-depth"));
+			} catch (Exception e) {
+				log.info("read-ahead-depth is not set. so default " + readAheadDepth + " will be used");
+			}
+
+			try {
+				readAheadChunkSize = Integer.parseInt(props.getProperty("read-ahead-chunk-size"));
+			} catch (Exception e) {
+				log.info("read-ahead-chunk-size is not set. so default " + readAheadChunkSize + " will be used");
+			}
+
+			try {
+				readAheadThreads = Integer.parseInt(props.getProperty("read-ahead-threads"));
+			} catch (Exception e) {
+				log.info("read-ahead-threads is not set. so default " + readAheadThreads + " will be used");
+			}
+
+			try {
+				readAheadMemoryLimit = Long.parseLong(props.getProperty("read-ahead-memory-limit"));
+			} catch (Exception e) {
+				log.info("read-ahead-memory-limit is not set. so default " + readAheadMemoryLimit + " will be used");
+			}
+		}
+
+		try {
+			permissionCacheSize = Integer.parseInt(props.getProperty("permission-cache-size"));
+		} catch (Exception e) {
+			log.info("permission-cache-size is not set. so default " + permissionCacheSize + " will be used");
+		}
+
+		try {
+			permissionCacheTtl = Long.parseLong(props.getProperty("permission-cache-ttl"));
+		} catch (Exception e) {
+			log.info("permission-cache-ttl is not set. so default " + permissionCacheTtl + " will be used");
+		}
+
+		try {
+			checksumCacheSize = Integer.parseInt(props.getProperty("checksum-cache-size"));
+		} catch (Exception e) {
+			log.info("checksum-cache-size is not set. so default " + checksumCacheSize + " will be used");
+		}
+
+		try {
+			checksumMaxReadSize = Long.parseLong(props.getProperty("checksum-max-read-size"));
+		} catch (Exception e) {
+			log.info("checksum-max-read-size is not set. so default " + checksumMaxReadSize + " will be used");
+		}
+
+		try {
+			copyThreads = Integer.parseInt(props.getProperty("copy-threads"));
+		} catch (Exception e) {
+			log.info("copy-threads is not set. so default " + copyThreads + " will be used");
+		}
+
+		try {
+			copyParallelMinSize = Long.parseLong(props.getProperty("copy-parallel-min-size"));
+		} catch (Exception e) {
+			log.info("copy-parallel-min-size is not set. so default " + copyParallelMinSize + " will be used");
+		}
+
+		try {
+			copyChunkSize = Long.parseLong(props.getProperty("copy-chunk-size"));
+		} catch (Exception e) {
+			log.info("copy-chunk-size is not set. so default " + copyChunkSize + " will be used");
+		}
+
+		try {
+			copyMaxSize = Long.parseLong(props.getProperty("copy-max-size"));
+		} catch (Exception e) {
+			log.info("copy-max-size is not set. so default " + copyMaxSize + " will be used");
+		}
+
+		try {
+			copyProgressInterval = Long.parseLong(props.getProperty("copy-progress-interval"));
+		} catch (Exception e) {
+			log.info("copy-progress-interval is not set. so default " + copyProgressInterval + " will be used");
+		}
+
+		try {
+			usersReloadInterval = Long.parseLong(props.getProperty("users-reload-interval"));
+		} catch (Exception e) {
+			log.info("users-reload-interval is not set. so default " + usersReloadInterval + " will be used");
+		}
+
+		try {
+			passwordHashIterations = Integer.parseInt(props.getProperty("password-hash-iterations"));
+		} catch (Exception e) {
+			log.info("password-hash-iterations is not set. so default " + passwordHashIterations + " will be used");
+		}
+
+		try {
+			passwordVerifyThreads = Integer.parseInt(props.getProperty("password-verify-threads"));
+		} catch (Exception e) {
+			log.info("password-verify-threads is not set. so default " + passwordVerifyThreads + " will be used");
+		}
+
+		try {
+			passwordVerifyTimeout = Long.parseLong(props.getProperty("password-verify-timeout"));
+		} catch (Exception e) {
+			log.info("password-verify-timeout is not set. so default " + passwordVerifyTimeout + " will be used");
+		}
+
+		try {
+			passwordCacheTtl = Long.parseLong(props.getProperty("password-cache-ttl"));
+		} catch (Exception e) {
+			log.info("password-cache-ttl is not set. so default " + passwordCacheTtl + " will be used");
+		}
+
+		String passwordUpgradeParam = props.getProperty("password-upgrade-enable");
+		if (passwordUpgradeParam != null) {
+			passwordUpgrade = Boolean.parseBoolean(passwordUpgradeParam);
+		}
+
+		passwordEncryptor = new HdfsPasswordEncryptor(passwordHashIterations, passwordVerifyThreads,
+				passwordVerifyTimeout, passwordCacheTtl, 10000);
+
+		String usersStoreParam = props.getProperty("users-store");
+		if (usersStoreParam != null) {
+			usersStore = usersStoreParam.trim();
+			if (!"properties".equals(usersStore) && !"log".equals(usersStore)) {
+				log.error("users-store must be properties or log");
+				System.exit(1);
+			}
+		}
+		if (passwordUpgrade == null) {
+			// the properties store rewrites the whole file and drops its comments
+			passwordUpgrade = "log".equals(usersStore);
+			log.info("password-upgrade-enable is not set. so default " + passwordUpgrade + " will be used");
+		}
+		usersStoreFile = props.getProperty("users-store-file");
+		String usersStoreSyncParam = props.getProperty("users-store-sync");
+		if (usersStoreSyncParam != null) {
+			usersStoreSync = Boolean.parseBoolean(usersStoreSyncParam);
+		}
+
+		groupMappingEnable = Boolean.parseBoolean(props.getProperty("group-mapping-enable"));
+		if (props.getProperty("group-mapping-cache-secs") != null) {
+			log.warn("group-mapping-cache-secs is no longer used. groups are cached as set by "
+					+ "hadoop.security.groups.cache.secs of the Hadoop configuration");
+		}
+
+		writeProfiles = HdfsWriteProfiles.load(props);
+
+		try {
+			metricsPort = Integer.parseInt(props.getProperty("metrics-port"));
+		} catch (Exception e) {
+			log.info("metrics-port is not set. so metrics will only be exported over JMX");
+		}
+
+		String metricsBindAddressParam = props.getProperty("metrics-bind-address");
+		if (metricsBindAddressParam != null) {
+			metricsBindAddress = metricsBindAddressParam.trim();
+		}
+
+		try {
+			metricsUsers = Integer.parseInt(props.getProperty("metrics-users"));
+		} catch (Exception e) {
+			log.info("metrics-users is not set. so transfers per user will not be exported");
+		}
+
+		traceFile = props.getProperty("trace-file");
+		traceKey = props.getProperty("trace-key");
+		try {
+			traceMaxSize = Long.parseLong(props.getProperty("trace-max-size"));
+		} catch (Exception e) {
+			log.info("trace-max-size is not set. so default " + traceMaxSize + " MB will be used");
+		}
+	}
+
+	/**
+	 * Register the metrics MBean and start the Prometheus endpoint if a
+	 * metrics port is set
+	 */
+	private static void startMetrics() throws Exception {
+		HdfsMetrics metrics = HdfsOverFtpSystem.getMetrics();
+		metrics.setUserLimit(metricsUsers);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+				new ObjectName("org.apache.hadoop.contrib.ftp:type=HdfsOverFtp"));
+		if (metricsPort != 0) {
+			new HdfsMetricsServer(metrics).start(new InetSocketAddress(metricsBindAddress, metricsPort));
+		}
+	}
+
+	/**
+	 * Start recording the session trace if a trace file is set
+	 */
+	private static void startTrace() throws IOException {
+		if (traceFile == null || traceFile.trim().isEmpty()) {
+			return;
+		}
+		traceRecorder = new HdfsTraceRecorder(new File(traceFile.trim()), traceKey, traceMaxSize * 1024 * 1024);
+		traceRecorder.start();
+	}
+
+	/**
+	 * Create the user store set by users-store
+	 *
+	 * @param usersFile users.properties of the server, imported by a new log store
+	 * @return user store
+	 */
+	private static HdfsUserStore createUserStore(File usersFile) {
+		if ("log".equals(usersStore)) {
+			File logFile = usersStoreFile != null ? new File(usersStoreFile)
+					: new File(usersFile.getAbsoluteFile().getParentFile(), "users.log");
+			return new HdfsLogUserStore(logFile, usersFile, usersStoreSync);
+		}
+		return new HdfsPropertiesUserStore(usersFile);
 	}
 
 	/**
@@ -143,14 +477,39 @@ public class HdfsOverFtpServer {
 		final File file = new File(usersPath);
 
 		userManager.setFile(file);
+		userManager.setUserStore(createUserStore(file));
+		userManager.setReloadInterval(usersReloadInterval * 1000);
+		userManager.setPasswordEncryptor(passwordEncryptor);
+		userManager.setPasswordUpgrade(passwordUpgrade);
 
 		server.setUserManager(userManager);
 
-		server.setFileSystem(new HdfsFileSystemManager(isKerberos, keytab, principal));
+		server.setFileSystem(new HdfsFileSystemManager(isKerberos));
+
+		addFtplet(server);
 
 		server.start();
 	}
 
+	/**
+	 * Register the ftplet serving the HDFS specific commands and the handler
+	 * recording the reply codes it reports
+	 *
+	 * @param server server to register the ftplet in
+	 * @throws FtpException if the ftplet can not be registered
+	 */
+	private static void addFtplet(FtpServer server) throws FtpException {
+		Listener listener = server.getListener("default");
+		if (listener instanceof NioListener) {
+			((NioListener) listener).setHandler(new HdfsFtpHandler());
+		}
+		HdfsFtplet ftplet = new HdfsFtplet();
+		ftplet.setListStreaming(listStreaming);
+		ftplet.setTraceRecorder(traceRecorder);
+		ftplet.setCopyProgressInterval(copyProgressInterval * 1000);
+		server.getServerContext().getFtpletContainer().addFtplet("hdfs", ftplet);
+	}
+
 	private static File loadResource(String resourceName) {
 		/*final URL resource = HdfsOverFtpServer.class.getResource(resourceName);
 		if (resource == null) {
@@ -198,10 +557,16 @@ public class HdfsOverFtpServer {
 
 		HdfsUserManager userManager = new HdfsUserManager();
 		userManager.setFile(new File("users.conf"));
+		userManager.setUserStore(createUserStore(new File("users.conf")));
+		userManager.setReloadInterval(usersReloadInterval * 1000);
+		userManager.setPasswordEncryptor(passwordEncryptor);
+		userManager.setPasswordUpgrade(passwordUpgrade);
 
 		server.setUserManager(userManager);
 
-		server.setFileSystem(new HdfsFileSystemManager(isKerberos, keytab, principal));
+		server.setFileSystem(new HdfsFileSystemManager(isKerberos));
+
+		addFtplet(server);
 
 		server.start();
 	}
@@ -6,32 +6,145 @@ import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class to store DFS connection
  */
 public class HdfsOverFtpSystem {
 
-	private static FileSystem fs = null;
+	// loaded once at start-up and never modified afterwards
+	private static Configuration conf = null;
+
+	private static volatile HdfsFileSystemCache fsCache = null;
+
+	private static URI uri = null;
+
+	private static HdfsMetadataCache metadataCache = null;
+
+	private static HdfsKerberosLogin kerberosLogin = null;
 
 	public static String HDFS_URI = "";
 
+	private static int fsCacheSize = 64;
+
+	private static long fsCacheIdleTimeout = 10 * 60 * 1000L;
+
+	private static int metadataCacheSize = 10000;
+
+	private static long metadataCacheTtl = 2000L;
+
+	private static boolean readAheadEnable = false;
+
+	private static long readAheadMinSize = 256L * 1024 * 1024;
+
+	private static int readAheadDepth = 4;
+
+	private static int readAheadChunkSize = 16 * 1024 * 1024;
+
+	private static int readAheadThreads = 32;
+
+	private static long readAheadMemoryLimit = 512L * 1024 * 1024;
+
+	private static ExecutorService readAheadExecutor = null;
+
+	private static HdfsReadAheadBuffers readAheadBuffers = null;
+
+	private static HdfsPermissionChecker permissionChecker = null;
+
+	private static int permissionCacheSize = 10000;
+
+	private static long permissionCacheTtl = 60000L;
+
+	private static HdfsChecksums checksums = null;
+
+	private static int checksumCacheSize = 10000;
+
+	private static long checksumMaxReadSize = 1024L * 1024 * 1024;
+
+	private static HdfsCopier copier = null;
+
+	private static int copyThreads = 16;
+
+	private static long copyParallelMinSize = 1024L * 1024 * 1024;
+
+	private static long copyChunkSize = 256L * 1024 * 1024;
+
+	private static long copyMaxSize = 100L * 1024 * 1024 * 1024;
+
+	private static boolean groupMappingEnable = false;
+
+	private static HdfsGroupMapping groupMapping = null;
+
+	private final static HdfsMetrics metrics = new HdfsMetrics();
+
+	private static HdfsWriteProfiles writeProfiles =
+			new HdfsWriteProfiles(Collections.<HdfsWriteProfile>emptyList());
+
 	//private static String superuser = "error";
 	//private static String supergroup = "supergroup";
 
 	private final static Logger log = LoggerFactory.getLogger(HdfsOverFtpSystem.class);
 
 
-	private static void hdfsInit() {
-		Configuration conf = new Configuration();
-		Path path = new Path(HDFS_URI);
+	/**
+	 * Load the configuration and create the FileSystem cache. Called at
+	 * start-up once all settings are set, later calls do nothing.
+	 */
+	public static synchronized void hdfsInit() {
+		if (fsCache != null) {
+			return;
+		}
+		conf = new Configuration();
 		//conf.set("hadoop.job.ugi", superuser + "," + supergroup);
-		try {
-			fs = path.getFileSystem(conf);
-		} catch (IOException e) {
-			log.error("DFS Initialization error", e);
+		if (HDFS_URI == null || HDFS_URI.isEmpty()) {
+			uri = FileSystem.getDefaultUri(conf);
+		} else {
+			uri = new Path(HDFS_URI).toUri();
+		}
+		metadataCache = new HdfsMetadataCache(metadataCacheSize, metadataCacheTtl);
+		permissionChecker = new HdfsPermissionChecker(permissionCacheSize, permissionCacheTtl);
+		checksums = new HdfsChecksums(checksumCacheSize, checksumMaxReadSize);
+		if (readAheadEnable) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			readAheadExecutor = Executors.newFixedThreadPool(readAheadThreads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "hdfs-read-ahead-" + threadNumber.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			readAheadBuffers = new HdfsReadAheadBuffers(readAheadChunkSize, readAheadMemoryLimit);
+			metrics.registerCache("read-ahead", readAheadBuffers);
+		}
+		final AtomicInteger copyThreadNumber = new AtomicInteger();
+		ExecutorService copyExecutor = Executors.newFixedThreadPool(copyThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "hdfs-copy-" + copyThreadNumber.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		// published last, getters only check it
+		HdfsFileSystemCache cache = new HdfsFileSystemCache(conf, uri, fsCacheSize, fsCacheIdleTimeout);
+		copier = new HdfsCopier(cache, copyExecutor, copyThreads, copyParallelMinSize, copyChunkSize,
+				copyMaxSize);
+		if (groupMappingEnable) {
+			groupMapping = new HdfsGroupMapping(conf);
 		}
+		fsCache = cache;
+		metrics.registerCache("filesystem", fsCache);
+		metrics.registerCache("metadata", metadataCache);
+		metrics.registerCache("permission", permissionChecker);
+		metrics.registerCache("checksum", checksums);
+		log.info("DFS initialized. uri: " + uri + " fs-cache-size: " + fsCacheSize
+				+ " fs-cache-idle-timeout: " + fsCacheIdleTimeout + "ms"
+				+ " metadata-cache-size: " + metadataCacheSize + " metadata-cache-ttl: " + metadataCacheTtl + "ms");
 	}
 
 	public static void setHDFS_URI(String HDFS_URI) {
@@ -39,15 +152,283 @@ public class HdfsOverFtpSystem {
 	}
 
 	/**
-	 * Get dfs
+	 * Set the maximum number of unused FileSystem handles kept open.
+	 * Must be called before the first FileSystem is requested.
+	 *
+	 * @param fsCacheSize maximum number of cached handles
+	 */
+	public static void setFsCacheSize(int fsCacheSize) {
+		HdfsOverFtpSystem.fsCacheSize = fsCacheSize;
+	}
+
+	/**
+	 * Set the time after which an unused FileSystem handle is closed.
+	 * Must be called before the first FileSystem is requested.
+	 *
+	 * @param fsCacheIdleTimeout idle timeout in milliseconds
+	 */
+	public static void setFsCacheIdleTimeout(long fsCacheIdleTimeout) {
+		HdfsOverFtpSystem.fsCacheIdleTimeout = fsCacheIdleTimeout;
+	}
+
+	/**
+	 * Set the maximum number of cached FileStatus entries, 0 disables the
+	 * cache. Must be called before the first FileSystem is requested.
+	 *
+	 * @param metadataCacheSize maximum number of cached entries
+	 */
+	public static void setMetadataCacheSize(int metadataCacheSize) {
+		HdfsOverFtpSystem.metadataCacheSize = metadataCacheSize;
+	}
+
+	/**
+	 * Set the time a cached FileStatus entry is valid.
+	 * Must be called before the first FileSystem is requested.
+	 *
+	 * @param metadataCacheTtl time to live in milliseconds
+	 */
+	public static void setMetadataCacheTtl(long metadataCacheTtl) {
+		HdfsOverFtpSystem.metadataCacheTtl = metadataCacheTtl;
+	}
+
+	/**
+	 * Set the maximum number and lifetime of cached permission decisions.
+	 * Must be called before the first FileSystem is requested.
+	 *
+	 * @param size  maximum number of cached decisions, 0 disables the cache
+	 * @param ttlMs time a decision is valid in milliseconds
+	 */
+	public static void setPermissionCache(int size, long ttlMs) {
+		permissionCacheSize = size;
+		permissionCacheTtl = ttlMs;
+	}
+
+	/**
+	 * Set the number of file checksums cached by path, length and
+	 * modification time and the largest file whose checksum is computed by
+	 * reading it. Must be called before the first FileSystem is requested.
+	 *
+	 * @param size        maximum number of cached checksums, 0 disables the cache
+	 * @param maxReadSize maximum bytes read for a checksum other than HDFS, 0 for no limit
+	 */
+	public static void setChecksums(int size, long maxReadSize) {
+		checksumCacheSize = size;
+		checksumMaxReadSize = maxReadSize;
+	}
+
+	/**
+	 * Configure the server side copies of SITE COPY.
+	 * Must be called before the first FileSystem is requested.
+	 *
+	 * @param threads         size of the pool shared by all copies
+	 * @param parallelMinSize minimum size of a file to copy its ranges in parallel
+	 * @param chunkSize       size of a range in bytes, rounded down to whole blocks
+	 * @param maxSize         maximum bytes of a copy, 0 for no limit
+	 */
+	public static void setCopy(int threads, long parallelMinSize, long chunkSize, long maxSize) {
+		copyThreads = threads;
+		copyParallelMinSize = parallelMinSize;
+		copyChunkSize = chunkSize;
+		copyMaxSize = maxSize;
+	}
+
+	/**
+	 * Configure the resolution of user groups with the Hadoop group mapping.
+	 * Must be called before the first FileSystem is requested.
+	 *
+	 * @param enable true to add the groups of the group mapping to the users
+	 */
+	public static void setGroupMapping(boolean enable) {
+		groupMappingEnable = enable;
+	}
+
+	/**
+	 * Get the group mapping shared by all sessions
+	 *
+	 * @return group mapping or null if disabled
+	 */
+	public static HdfsGroupMapping getGroupMapping() {
+		if (fsCache == null) {
+			hdfsInit();
+		}
+		return groupMapping;
+	}
+
+	/**
+	 * Configure the parallel read-ahead of large downloads.
+	 * Must be called before the first FileSystem is requested.
+	 *
+	 * @param enable      true to read large files ahead
+	 * @param minSize     minimum number of bytes left to read for a download to use it
+	 * @param depth       number of chunks fetched ahead per download
+	 * @param chunkSize   size of a chunk in bytes
+	 * @param threads     size of the pool shared by all downloads
+	 * @param memoryLimit maximum bytes of the chunk buffers of all downloads
+	 */
+	public static void setReadAhead(boolean enable, long minSize, int depth, int chunkSize, int threads,
+									long memoryLimit) {
+		readAheadEnable = enable;
+		readAheadMinSize = minSize;
+		readAheadDepth = depth;
+		readAheadChunkSize = chunkSize;
+		readAheadThreads = threads;
+		readAheadMemoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Get the permission checker shared by all sessions
+	 *
+	 * @return permission checker
+	 */
+	public static HdfsPermissionChecker getPermissionChecker() {
+		if (fsCache == null) {
+			hdfsInit();
+		}
+		return permissionChecker;
+	}
+
+	/**
+	 * Get the checksum cache shared by all sessions
+	 *
+	 * @return checksums
+	 */
+	public static HdfsChecksums getChecksums() {
+		if (fsCache == null) {
+			hdfsInit();
+		}
+		return checksums;
+	}
+
+	/**
+	 * Get the copier of SITE COPY shared by all sessions
+	 *
+	 * @return copier
+	 */
+	public static HdfsCopier getCopier() {
+		if (fsCache == null) {
+			hdfsInit();
+		}
+		return copier;
+	}
+
+	/**
+	 * Get the metrics of the gateway
+	 *
+	 * @return metrics
+	 */
+	public static HdfsMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the profiles resolving block size, replication and buffer size of uploads
+	 *
+	 * @param writeProfiles profiles of the server
+	 */
+	public static void setWriteProfiles(HdfsWriteProfiles writeProfiles) {
+		HdfsOverFtpSystem.writeProfiles = writeProfiles;
+	}
+
+	public static HdfsWriteProfiles getWriteProfiles() {
+		return writeProfiles;
+	}
+
+	/**
+	 * Check if a download of the given number of bytes is read ahead
+	 *
+	 * @param remaining number of bytes to download
+	 * @return true if the download should use read-ahead
+	 */
+	public static boolean isReadAhead(long remaining) {
+		return readAheadEnable && remaining >= readAheadMinSize;
+	}
+
+	public static int getReadAheadDepth() {
+		return readAheadDepth;
+	}
+
+	/**
+	 * Get the chunk buffers shared by the read-ahead of all downloads
+	 *
+	 * @return buffers or null if read-ahead is disabled
+	 */
+	public static HdfsReadAheadBuffers getReadAheadBuffers() {
+		if (fsCache == null) {
+			hdfsInit();
+		}
+		return readAheadBuffers;
+	}
+
+	/**
+	 * Get the pool running the read-ahead of all downloads
+	 *
+	 * @return read-ahead pool or null if read-ahead is disabled
+	 */
+	public static ExecutorService getReadAheadExecutor() {
+		if (fsCache == null) {
+			hdfsInit();
+		}
+		return readAheadExecutor;
+	}
+
+	/**
+	 * Get the configuration shared by the whole server. It must not be modified.
+	 *
+	 * @return configuration
+	 */
+	public static Configuration getConfiguration() {
+		if (fsCache == null) {
+			hdfsInit();
+		}
+		return conf;
+	}
+
+	/**
+	 * Get the uri of the file system
+	 *
+	 * @return file system uri
+	 */
+	public static URI getUri() {
+		if (fsCache == null) {
+			hdfsInit();
+		}
+		return uri;
+	}
+
+	public static void setKerberosLogin(HdfsKerberosLogin kerberosLogin) {
+		HdfsOverFtpSystem.kerberosLogin = kerberosLogin;
+	}
+
+	/**
+	 * Get the kerberos login of the gateway
+	 *
+	 * @return kerberos login or null if kerberos is not enabled
+	 */
+	public static HdfsKerberosLogin getKerberosLogin() {
+		return kerberosLogin;
+	}
+
+	/**
+	 * Get the server wide FileStatus cache
+	 *
+	 * @return metadata cache
+	 */
+	public static HdfsMetadataCache getMetadataCache() {
+		if (fsCache == null) {
+			hdfsInit();
+		}
+		return metadataCache;
+	}
+
+	/**
+	 * Get the cache of per user FileSystem handles
 	 *
-	 * @return dfs
-	 * @throws IOException
+	 * @return FileSystem cache
 	 */
-	public static FileSystem getDfs() throws IOException {
-		if (fs == null) {
+	public static HdfsFileSystemCache getFileSystemCache() {
+		if (fsCache == null) {
 			hdfsInit();
 		}
-		return fs;
+		return fsCache;
 	}
 }
@@ -0,0 +1,294 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.ftpserver.usermanager.Md5PasswordEncryptor;
+import org.apache.ftpserver.usermanager.PasswordEncryptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Password encryptor storing salted PBKDF2 hashes as
+ * <pre>pbkdf2:&lt;iterations&gt;:&lt;salt&gt;:&lt;hash&gt;</pre>
+ * and still accepting the unsalted MD5 hashes of older users files, which
+ * can be upgraded on the next successful login.
+ * <p/>
+ * Hashes are verified on a bounded pool so concurrent logins can not take
+ * more than a fixed number of CPUs. Successful verifications are cached for
+ * a short time under an HMAC of the password and the stored hash with a key
+ * only held in memory, so the cache never holds passwords.
+ */
+public class HdfsPasswordEncryptor implements PasswordEncryptor {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsPasswordEncryptor.class);
+
+	public final static String PBKDF2 = "pbkdf2";
+
+	private final static String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
+
+	private final static int SALT_LENGTH = 16;
+
+	private final static int HASH_LENGTH = 32;
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int iterations;
+
+	private final int verifyThreads;
+
+	private final long verifyTimeoutMs;
+
+	private final long cacheTtlMs;
+
+	private final int cacheSize;
+
+	private final Md5PasswordEncryptor md5 = new Md5PasswordEncryptor();
+
+	private final SecureRandom random = new SecureRandom();
+
+	private final byte[] cacheKey = new byte[32];
+
+	// verified digests and the time they expire
+	private final Map<String, Long> verified = new ConcurrentHashMap<String, Long>();
+
+	private ThreadPoolExecutor verifyPool = null;
+
+	/**
+	 * Constructs the encryptor with the default settings
+	 */
+	public HdfsPasswordEncryptor() {
+		this(10000, Runtime.getRuntime().availableProcessors(), 10000, 60000, 10000);
+	}
+
+	/**
+	 * Constructs the encryptor
+	 *
+	 * @param iterations      PBKDF2 iterations of new hashes
+	 * @param verifyThreads   maximum number of concurrent verifications
+	 * @param verifyTimeoutMs time a login waits for its verification
+	 * @param cacheTtlMs      time a successful verification is cached, 0 disables the cache
+	 * @param cacheSize       maximum number of cached verifications
+	 */
+	public HdfsPasswordEncryptor(int iterations, int verifyThreads, long verifyTimeoutMs,
+								 long cacheTtlMs, int cacheSize) {
+		this.iterations = iterations;
+		this.verifyThreads = verifyThreads;
+		this.verifyTimeoutMs = verifyTimeoutMs;
+		this.cacheTtlMs = cacheTtlMs;
+		this.cacheSize = cacheSize;
+		random.nextBytes(cacheKey);
+	}
+
+	/**
+	 * Hash a password with a new random salt
+	 */
+	public String encrypt(String password) {
+		byte[] salt = new byte[SALT_LENGTH];
+		random.nextBytes(salt);
+		byte[] hash = pbkdf2(password, salt, iterations);
+		return PBKDF2 + ':' + iterations + ':' + toHex(salt) + ':' + toHex(hash);
+	}
+
+	/**
+	 * Check a password against a stored hash on the verification pool
+	 */
+	public boolean matches(final String passwordToCheck, final String storedPassword) {
+		if (passwordToCheck == null || storedPassword == null) {
+			return false;
+		}
+		String digest = null;
+		if (cacheTtlMs > 0) {
+			digest = cacheDigest(passwordToCheck, storedPassword);
+			Long expires = verified.get(digest);
+			if (expires != null) {
+				if (expires > System.currentTimeMillis()) {
+					return true;
+				}
+				verified.remove(digest);
+			}
+		}
+
+		boolean matches;
+		Future<Boolean> result;
+		try {
+			result = getVerifyPool().submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					return verify(passwordToCheck, storedPassword);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.warn("Too many logins waiting for password verification, login rejected");
+			return false;
+		}
+		try {
+			matches = result.get(verifyTimeoutMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.cancel(true);
+			return false;
+		} catch (ExecutionException e) {
+			log.error("Password verification failed", e.getCause());
+			return false;
+		} catch (TimeoutException e) {
+			log.warn("Password verification timed out, login rejected");
+			result.cancel(true);
+			return false;
+		}
+
+		if (matches && digest != null) {
+			if (verified.size() >= cacheSize) {
+				evictExpired();
+			}
+			verified.put(digest, System.currentTimeMillis() + cacheTtlMs);
+		}
+		return matches;
+	}
+
+	/**
+	 * Check if a stored hash should be replaced by a hash of the current scheme
+	 *
+	 * @param storedPassword stored hash
+	 * @return true for MD5 hashes and PBKDF2 hashes with fewer iterations
+	 */
+	public boolean needsUpgrade(String storedPassword) {
+		if (!storedPassword.startsWith(PBKDF2 + ':')) {
+			return true;
+		}
+		String[] parts = storedPassword.split(":");
+		try {
+			return Integer.parseInt(parts[1]) < iterations;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Shut the verification pool down
+	 */
+	public synchronized void close() {
+		if (verifyPool != null) {
+			verifyPool.shutdownNow();
+			verifyPool = null;
+		}
+	}
+
+	private boolean verify(String password, String storedPassword) {
+		if (!storedPassword.startsWith(PBKDF2 + ':')) {
+			return md5.matches(password, storedPassword);
+		}
+		String[] parts = storedPassword.split(":");
+		if (parts.length != 4) {
+			log.error("Invalid password hash format");
+			return false;
+		}
+		try {
+			byte[] salt = fromHex(parts[2]);
+			byte[] expected = fromHex(parts[3]);
+			byte[] hash = pbkdf2(password, salt, Integer.parseInt(parts[1]));
+			return MessageDigest.isEqual(hash, expected);
+		} catch (IllegalArgumentException e) {
+			log.error("Invalid password hash format");
+			return false;
+		}
+	}
+
+	private synchronized ThreadPoolExecutor getVerifyPool() {
+		if (verifyPool == null) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			// logins beyond the queue are rejected instead of piling up
+			verifyPool = new ThreadPoolExecutor(verifyThreads, verifyThreads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(verifyThreads * 64), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "password-verifier-" + threadNumber.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			verifyPool.allowCoreThreadTimeOut(true);
+		}
+		return verifyPool;
+	}
+
+	private String cacheDigest(String password, String storedPassword) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(cacheKey, "HmacSHA256"));
+			mac.update(storedPassword.getBytes(UTF8));
+			mac.update((byte) 0);
+			return toHex(mac.doFinal(password.getBytes(UTF8)));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HmacSHA256 is not available", e);
+		}
+	}
+
+	private void evictExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<Long> it = verified.values().iterator();
+		while (it.hasNext()) {
+			if (it.next() <= now) {
+				it.remove();
+			}
+		}
+		if (verified.size() >= cacheSize) {
+			verified.clear();
+		}
+	}
+
+	private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+		try {
+			PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+			try {
+				return SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(spec).getEncoded();
+			} finally {
+				spec.clearPassword();
+			}
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(PBKDF2_ALGORITHM + " is not available", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		if (hex.length() % 2 != 0) {
+			throw new IllegalArgumentException("Invalid hex string");
+		}
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int hi = Character.digit(hex.charAt(2 * i), 16);
+			int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (hi < 0 || lo < 0) {
+				throw new IllegalArgumentException("Invalid hex string");
+			}
+			bytes[i] = (byte) ((hi << 4) | lo);
+		}
+		return bytes;
+	}
+}
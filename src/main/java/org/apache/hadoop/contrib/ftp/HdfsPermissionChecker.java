@@ -0,0 +1,310 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.AclEntry;
+import org.apache.hadoop.fs.permission.AclEntryScope;
+import org.apache.hadoop.fs.permission.AclEntryType;
+import org.apache.hadoop.fs.permission.AclStatus;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates HDFS permissions the way the NameNode does: owner, ACL entries
+ * of named users and groups limited by the mask, group and other. Decisions
+ * are cached per user, path, modification time, permission, owner and group,
+ * so any change made through HDFS produces a new key. ACL changes which
+ * leave all of them untouched are seen once the decision expires.
+ * <p/>
+ * A miss decides every FsAction at once, so the other actions of the same
+ * path answer from the cache. The ACL of a path is fetched only if its ACL
+ * bit is set, and at most once per path and modification time for all
+ * users until it expires.
+ */
+public class HdfsPermissionChecker implements HdfsMetrics.CacheStatistics {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsPermissionChecker.class);
+
+	private final int maxSize;
+
+	private final long ttlMs;
+
+	private final LinkedHashMap<Key, Decision> decisions;
+
+	private final LinkedHashMap<Key, Acl> acls;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private static class Key {
+		private final String user;
+		private final Path path;
+		private final long modificationTime;
+		private final short permission;
+		private final String owner;
+		private final String group;
+
+		/**
+		 * @param user user of a decision, null for the ACL of the path
+		 */
+		private Key(String user, Path path, FileStatus status) {
+			this.user = user;
+			this.path = path;
+			this.modificationTime = status.getModificationTime();
+			this.permission = status.getPermission().toShort();
+			this.owner = status.getOwner();
+			this.group = status.getGroup();
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return modificationTime == other.modificationTime
+					&& permission == other.permission
+					&& equal(user, other.user)
+					&& path.equals(other.path)
+					&& equal(owner, other.owner)
+					&& equal(group, other.group);
+		}
+
+		public int hashCode() {
+			int h = user == null ? 0 : user.hashCode();
+			h = 31 * h + path.hashCode();
+			h = 31 * h + (int) (modificationTime ^ (modificationTime >>> 32));
+			h = 31 * h + permission;
+			return h;
+		}
+
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	private static class Decision {
+		// indexed by the ordinal of the FsAction
+		private final boolean[] allowed;
+		private final long expires;
+
+		private Decision(boolean[] allowed, long expires) {
+			this.allowed = allowed;
+			this.expires = expires;
+		}
+	}
+
+	private static class Acl {
+		private final AclStatus status;
+		private final long expires;
+
+		private Acl(AclStatus status, long expires) {
+			this.status = status;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Constructs the checker
+	 *
+	 * @param maxSize maximum number of cached decisions and of cached ACLs,
+	 *                0 disables the cache
+	 * @param ttlMs   time a decision is valid in milliseconds
+	 */
+	public HdfsPermissionChecker(final int maxSize, long ttlMs) {
+		this.maxSize = maxSize;
+		this.ttlMs = ttlMs;
+		this.decisions = new LinkedHashMap<Key, Decision>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key, Decision> eldest) {
+				if (size() > maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+		this.acls = new LinkedHashMap<Key, Acl>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key, Acl> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Checks if the user may perform an action on a path
+	 *
+	 * @param user   user to check
+	 * @param fs     file system of the user, used to fetch ACLs
+	 * @param path   path to check
+	 * @param status status of the path
+	 * @param action action to check
+	 * @return true if the action is allowed
+	 */
+	public boolean check(HdfsUser user, FileSystem fs, Path path, FileStatus status, FsAction action) {
+		if (maxSize <= 0) {
+			return evaluate(user, fs, path, status)[action.ordinal()];
+		}
+		Key key = new Key(user.getName(), path, status);
+		long now = System.currentTimeMillis();
+		synchronized (decisions) {
+			Decision decision = decisions.get(key);
+			if (decision != null && decision.expires > now) {
+				hits.incrementAndGet();
+				return decision.allowed[action.ordinal()];
+			}
+		}
+		misses.incrementAndGet();
+		boolean[] allowed = evaluate(user, fs, path, status);
+		synchronized (decisions) {
+			decisions.put(key, new Decision(allowed, now + ttlMs));
+		}
+		return allowed[action.ordinal()];
+	}
+
+	/**
+	 * Checks if the user may delete a path. HDFS requires write and execute
+	 * permission on the parent, and ownership of the path or the parent if
+	 * the sticky bit of the parent is set.
+	 *
+	 * @param user         user to check
+	 * @param fs           file system of the user
+	 * @param parent       parent directory
+	 * @param parentStatus status of the parent directory
+	 * @param status       status of the path to delete
+	 * @return true if the path may be deleted
+	 */
+	public boolean checkDelete(HdfsUser user, FileSystem fs, Path parent, FileStatus parentStatus,
+							   FileStatus status) {
+		if (!check(user, fs, parent, parentStatus, FsAction.WRITE_EXECUTE)) {
+			return false;
+		}
+		if (parentStatus.getPermission().getStickyBit()) {
+			String name = user.getName();
+			return name.equals(parentStatus.getOwner()) || name.equals(status.getOwner());
+		}
+		return true;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public int getSize() {
+		synchronized (decisions) {
+			return decisions.size();
+		}
+	}
+
+	/**
+	 * Decide every FsAction of the user on a path
+	 *
+	 * @return decisions indexed by the ordinal of the FsAction
+	 */
+	private boolean[] evaluate(HdfsUser user, FileSystem fs, Path path, FileStatus status) {
+		FsAction[] actions = FsAction.values();
+		boolean[] allowed = new boolean[actions.length];
+		FsPermission permission = status.getPermission();
+		FsAction granted;
+		if (user.getName().equals(status.getOwner())) {
+			granted = permission.getUserAction();
+		} else {
+			if (permission.getAclBit()) {
+				try {
+					AclStatus acl = getAcl(fs, path, status);
+					for (FsAction action : actions) {
+						allowed[action.ordinal()] = evaluateAcl(user, acl, status, permission, action);
+					}
+					return allowed;
+				} catch (UnsupportedOperationException e) {
+					log.debug("ACLs are not supported for " + path);
+				} catch (IOException e) {
+					log.error("Can not get the ACLs of " + path, e);
+					return allowed;
+				}
+			}
+			if (user.isGroupMember(status.getGroup())) {
+				granted = permission.getGroupAction();
+			} else {
+				granted = permission.getOtherAction();
+			}
+		}
+		for (FsAction action : actions) {
+			allowed[action.ordinal()] = granted.implies(action);
+		}
+		return allowed;
+	}
+
+	/**
+	 * Get the ACL of a path, fetched once per path and status for all users
+	 */
+	private AclStatus getAcl(FileSystem fs, Path path, FileStatus status) throws IOException {
+		if (maxSize <= 0) {
+			return fs.getAclStatus(path);
+		}
+		Key key = new Key(null, path, status);
+		long now = System.currentTimeMillis();
+		synchronized (acls) {
+			Acl acl = acls.get(key);
+			if (acl != null && acl.expires > now) {
+				return acl.status;
+			}
+		}
+		AclStatus acl = fs.getAclStatus(path);
+		synchronized (acls) {
+			acls.put(key, new Acl(acl, now + ttlMs));
+		}
+		return acl;
+	}
+
+	/**
+	 * Evaluate the extended ACL of a path for anyone but the owner. The group
+	 * bits of the permission hold the mask of the ACL.
+	 */
+	private boolean evaluateAcl(HdfsUser user, AclStatus acl, FileStatus status, FsPermission permission,
+								FsAction action) {
+		FsAction mask = permission.getGroupAction();
+		boolean groupMatched = false;
+		for (AclEntry entry : acl.getEntries()) {
+			if (entry.getScope() != AclEntryScope.ACCESS) {
+				continue;
+			}
+			if (entry.getType() == AclEntryType.USER && user.getName().equals(entry.getName())) {
+				return entry.getPermission().and(mask).implies(action);
+			}
+		}
+		for (AclEntry entry : acl.getEntries()) {
+			if (entry.getScope() != AclEntryScope.ACCESS || entry.getType() != AclEntryType.GROUP) {
+				continue;
+			}
+			String group = entry.getName() == null ? status.getGroup() : entry.getName();
+			if (user.isGroupMember(group)) {
+				if (entry.getPermission().and(mask).implies(action)) {
+					return true;
+				}
+				groupMatched = true;
+			}
+		}
+		if (groupMatched) {
+			return false;
+		}
+		return permission.getOtherAction().implies(action);
+	}
+}
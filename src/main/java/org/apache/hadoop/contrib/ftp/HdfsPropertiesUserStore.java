@@ -0,0 +1,227 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.ftpserver.util.BaseProperties;
+import org.apache.ftpserver.util.IoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * User store in the users.properties format of the FTP server. Every change
+ * rewrites the whole file.
+ */
+public class HdfsPropertiesUserStore implements HdfsUserStore {
+
+	private final static String DEPRECATED_PREFIX = "FtpServer.user.";
+
+	private final static String PREFIX = "ftpserver.user.";
+
+	private final File file;
+
+	private BaseProperties props = new BaseProperties();
+
+	// a modification time may not change for edits within this many
+	// milliseconds, file systems store it in seconds or coarser
+	private final static long MODIFIED_GRANULARITY = 2000;
+
+	// modification time, length and checksum of the file when last loaded or saved
+	private long loadedModified = 0;
+
+	private long loadedLength = 0;
+
+	private long loadedChecksum = 0;
+
+	// time the content was last known to match the checksum
+	private long verifiedAt = 0;
+
+	/**
+	 * Constructs the store
+	 *
+	 * @param file users file, created on the first change if missing
+	 */
+	public HdfsPropertiesUserStore(File file) {
+		this.file = file;
+	}
+
+	public synchronized Map<String, Map<String, String>> load() throws IOException {
+		BaseProperties loaded = new BaseProperties();
+		if (file.exists()) {
+			// take the modification time before reading, a change while
+			// reading is picked up by the next check
+			loadedModified = file.lastModified();
+			verifiedAt = System.currentTimeMillis();
+			byte[] content = Files.readAllBytes(file.toPath());
+			loadedLength = content.length;
+			loadedChecksum = checksum(content);
+			loaded.load(new ByteArrayInputStream(content));
+		}
+		props = loaded;
+		if (convertDeprecatedPropertyNames()) {
+			store();
+		}
+
+		Map<String, Map<String, String>> users = new HashMap<String, Map<String, String>>();
+		Enumeration<?> keys = props.propertyNames();
+		while (keys.hasMoreElements()) {
+			String key = (String) keys.nextElement();
+			int pos = key.lastIndexOf('.');
+			if (!key.startsWith(PREFIX) || pos <= PREFIX.length()) {
+				continue;
+			}
+			String name = key.substring(PREFIX.length(), pos);
+			Map<String, String> attributes = users.get(name);
+			if (attributes == null) {
+				attributes = new HashMap<String, String>();
+				users.put(name, attributes);
+			}
+			attributes.put(key.substring(pos + 1), props.getProperty(key));
+		}
+		return users;
+	}
+
+	public synchronized void save(String name, Map<String, String> attributes) throws IOException {
+		setUser(name, attributes);
+		store();
+	}
+
+	public synchronized void saveAll(Map<String, Map<String, String>> users) throws IOException {
+		for (Map.Entry<String, Map<String, String>> user : users.entrySet()) {
+			setUser(user.getKey(), user.getValue());
+		}
+		store();
+	}
+
+	public synchronized void delete(String name) throws IOException {
+		removeUser(name);
+		store();
+	}
+
+	/**
+	 * Check the modification time and length of the file. While an edit
+	 * could still keep both, within the granularity of the modification
+	 * time after the last load or save, the content is compared as well.
+	 */
+	public synchronized boolean isModified() {
+		if (!file.exists()) {
+			return false;
+		}
+		if (file.lastModified() != loadedModified || file.length() != loadedLength) {
+			return true;
+		}
+		if (verifiedAt - loadedModified >= MODIFIED_GRANULARITY) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		try {
+			if (checksum(Files.readAllBytes(file.toPath())) != loadedChecksum) {
+				return true;
+			}
+		} catch (IOException e) {
+			// changed meanwhile, the next check sees it
+			return false;
+		}
+		// any later edit gets a later modification time
+		verifiedAt = now;
+		return false;
+	}
+
+	public boolean isWritable() {
+		return isWritable(file);
+	}
+
+	/**
+	 * Check if a file can be written or created
+	 */
+	static boolean isWritable(File file) {
+		if (file.exists()) {
+			return file.canWrite();
+		}
+		File dir = file.getAbsoluteFile().getParentFile();
+		return dir == null || !dir.exists() || dir.canWrite();
+	}
+
+	public String getLocation() {
+		return file.getAbsolutePath();
+	}
+
+	public void close() {
+	}
+
+	private void setUser(String name, Map<String, String> attributes) {
+		removeUser(name);
+		String thisPrefix = PREFIX + name + '.';
+		for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+			props.setProperty(thisPrefix + attribute.getKey(), attribute.getValue());
+		}
+	}
+
+	private void removeUser(String name) {
+		String thisPrefix = PREFIX + name + '.';
+		List<String> remKeys = new ArrayList<String>();
+		Enumeration<?> propNames = props.propertyNames();
+		while (propNames.hasMoreElements()) {
+			String thisKey = propNames.nextElement().toString();
+			if (thisKey.startsWith(thisPrefix) && thisKey.indexOf('.', thisPrefix.length()) == -1) {
+				remKeys.add(thisKey);
+			}
+		}
+		for (String key : remKeys) {
+			props.remove(key);
+		}
+	}
+
+	private boolean convertDeprecatedPropertyNames() {
+		List<String> deprecated = new ArrayList<String>();
+		Enumeration<?> keys = props.propertyNames();
+		while (keys.hasMoreElements()) {
+			String key = (String) keys.nextElement();
+			if (key.startsWith(DEPRECATED_PREFIX)) {
+				deprecated.add(key);
+			}
+		}
+		for (String key : deprecated) {
+			String newKey = PREFIX + key.substring(DEPRECATED_PREFIX.length());
+			props.setProperty(newKey, props.getProperty(key));
+			props.remove(key);
+		}
+		return !deprecated.isEmpty();
+	}
+
+	private void store() throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Cannot create directory for user data file : "
+					+ dir.getAbsolutePath());
+		}
+
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		props.store(content, "Generated file - don't edit (please)");
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(file);
+			content.writeTo(fos);
+		} finally {
+			IoUtils.close(fos);
+		}
+		verifiedAt = System.currentTimeMillis();
+		loadedModified = file.lastModified();
+		loadedLength = file.length();
+		loadedChecksum = checksum(content.toByteArray());
+	}
+
+	private static long checksum(byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content, 0, content.length);
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,100 @@
+package org.apache.hadoop.contrib.ftp;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chunk buffers shared by the read-ahead of all downloads. Buffers are
+ * allocated on demand up to a memory limit and reused afterwards, so the
+ * read-ahead never holds more than the limit however many downloads run.
+ * A download which gets no buffer reads without read-ahead until buffers
+ * are released again.
+ * <p/>
+ * Hits count reused buffers, misses allocated buffers, evictions requests
+ * refused at the limit, the size is the number of allocated buffers.
+ */
+public class HdfsReadAheadBuffers implements HdfsMetrics.CacheStatistics {
+
+	private final int chunkSize;
+
+	private final int maxBuffers;
+
+	private final ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+
+	private int allocated = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong refused = new AtomicLong();
+
+	/**
+	 * Constructs the pool
+	 *
+	 * @param chunkSize   size of a buffer
+	 * @param memoryLimit maximum bytes of all buffers, at least one buffer is allowed
+	 */
+	public HdfsReadAheadBuffers(int chunkSize, long memoryLimit) {
+		this.chunkSize = chunkSize;
+		this.maxBuffers = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryLimit / chunkSize));
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Take a buffer of chunkSize bytes
+	 *
+	 * @return buffer or null if all buffers the limit allows are in use
+	 */
+	public byte[] acquire() {
+		synchronized (this) {
+			byte[] buf = free.poll();
+			if (buf != null) {
+				hits.incrementAndGet();
+				return buf;
+			}
+			if (allocated >= maxBuffers) {
+				refused.incrementAndGet();
+				return null;
+			}
+			allocated++;
+		}
+		misses.incrementAndGet();
+		try {
+			return new byte[chunkSize];
+		} catch (OutOfMemoryError e) {
+			synchronized (this) {
+				allocated--;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Return a buffer taken with {@link #acquire()}
+	 *
+	 * @param buf buffer no longer used
+	 */
+	public synchronized void release(byte[] buf) {
+		free.push(buf);
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return refused.get();
+	}
+
+	public synchronized int getSize() {
+		return allocated;
+	}
+}
@@ -0,0 +1,313 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Input stream for large downloads which keeps the next chunks of the file
+ * in flight with positional reads on a shared pool, so several DataNodes
+ * are read at once and block boundaries do not stall the transfer. Data is
+ * returned in order. Chunks are read into buffers of the shared
+ * HdfsReadAheadBuffers, at most depth + 1 per stream. When the buffers are
+ * exhausted the stream reads directly into the caller's array until
+ * buffers are free again.
+ */
+public class HdfsReadAheadInputStream extends InputStream {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsReadAheadInputStream.class);
+
+	private final static int NEW = 0;
+
+	private final static int RUNNING = 1;
+
+	private final static int CANCELLED = 2;
+
+	private final FSDataInputStream in;
+
+	private final Path path;
+
+	private final long length;
+
+	private final int depth;
+
+	private final int chunkSize;
+
+	private final HdfsReadAheadBuffers buffers;
+
+	private final ExecutorService executor;
+
+	// chunks being fetched, in file order
+	private final ArrayDeque<Fetch> pending = new ArrayDeque<Fetch>();
+
+	// offset of the next chunk to fetch
+	private long nextFetch;
+
+	private byte[] current;
+
+	private int currentLen;
+
+	private int currentPos;
+
+	private boolean closed = false;
+
+	// statistics of the transfer
+	private final long startOffset;
+
+	private final long startTime = System.nanoTime();
+
+	private long bytesRead = 0;
+
+	private int chunksRead = 0;
+
+	private int stalls = 0;
+
+	private long stallNanos = 0;
+
+	private int directReads = 0;
+
+	/**
+	 * Positional read of one chunk into a pooled buffer. A fetch which has
+	 * not started yet can be cancelled, a running one is waited for, so the
+	 * buffer and the stream are never used after they were given back.
+	 */
+	private class Fetch implements Callable<Integer> {
+		private final byte[] buf;
+		private final long position;
+		private final int len;
+		private final AtomicInteger state = new AtomicInteger(NEW);
+		private Future<Integer> future;
+
+		private Fetch(byte[] buf, long position, int len) {
+			this.buf = buf;
+			this.position = position;
+			this.len = len;
+		}
+
+		public Integer call() throws IOException {
+			if (!state.compareAndSet(NEW, RUNNING)) {
+				return 0;
+			}
+			in.readFully(position, buf, 0, len);
+			return len;
+		}
+	}
+
+	/**
+	 * Constructs the stream and starts fetching the first chunks
+	 *
+	 * @param in       stream of the file, used for positional reads only
+	 * @param path     path of the file
+	 * @param offset   offset to start reading at
+	 * @param length   length of the file
+	 * @param depth    number of chunks fetched ahead
+	 * @param buffers  buffers shared by all downloads, chunks are aligned to multiples of their size
+	 * @param executor pool running the reads
+	 */
+	public HdfsReadAheadInputStream(FSDataInputStream in, Path path, long offset, long length,
+									int depth, HdfsReadAheadBuffers buffers, ExecutorService executor) {
+		this.in = in;
+		this.path = path;
+		this.length = length;
+		this.depth = depth;
+		this.chunkSize = buffers.getChunkSize();
+		this.buffers = buffers;
+		this.executor = executor;
+		this.nextFetch = offset;
+		this.startOffset = offset;
+		fill();
+	}
+
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureData()) {
+			if (nextFetch >= length) {
+				return -1;
+			}
+			return readDirect(b, off, len);
+		}
+		int n = Math.min(len, currentLen - currentPos);
+		System.arraycopy(current, currentPos, b, off, n);
+		currentPos += n;
+		bytesRead += n;
+		return n;
+	}
+
+	public int available() throws IOException {
+		return current == null ? 0 : currentLen - currentPos;
+	}
+
+	/**
+	 * Close the stream. Fetches which did not start are cancelled, running
+	 * ones are waited for before the file is closed and the buffers are
+	 * returned.
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		boolean interrupted = false;
+		for (Fetch fetch : pending) {
+			if (fetch.state.compareAndSet(NEW, CANCELLED)) {
+				fetch.future.cancel(false);
+			} else {
+				while (true) {
+					try {
+						fetch.future.get();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					} catch (ExecutionException e) {
+						// the result is not needed any more
+						break;
+					}
+				}
+			}
+			buffers.release(fetch.buf);
+		}
+		pending.clear();
+		releaseCurrent();
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		in.close();
+
+		long millis = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+		log.info("read-ahead " + path + ": offset=" + startOffset + " bytes=" + bytesRead
+				+ " chunks=" + chunksRead + " stalls=" + stalls
+				+ " stall-ms=" + stallNanos / 1000000 + " direct-reads=" + directReads
+				+ " throughput=" + (bytesRead * 1000 / millis / 1024 / 1024) + "MB/s");
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public int getChunksRead() {
+		return chunksRead;
+	}
+
+	/**
+	 * Get the number of times the transfer had to wait for a chunk
+	 *
+	 * @return number of stalls
+	 */
+	public int getStalls() {
+		return stalls;
+	}
+
+	/**
+	 * Make sure the current chunk has unread data
+	 *
+	 * @return false at the end of the file or if no chunk is in flight
+	 * because the buffers are exhausted
+	 */
+	private boolean ensureData() throws IOException {
+		if (current != null && currentPos < currentLen) {
+			return true;
+		}
+		releaseCurrent();
+		fill();
+		Fetch fetch = pending.poll();
+		if (fetch == null) {
+			return false;
+		}
+		try {
+			if (!fetch.future.isDone()) {
+				stalls++;
+				long start = System.nanoTime();
+				currentLen = fetch.future.get();
+				stallNanos += System.nanoTime() - start;
+			} else {
+				currentLen = fetch.future.get();
+			}
+		} catch (InterruptedException e) {
+			// the read may still run, close() waits for it
+			pending.addFirst(fetch);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading " + path);
+		} catch (ExecutionException e) {
+			buffers.release(fetch.buf);
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Error when reading " + path, e.getCause());
+		}
+		current = fetch.buf;
+		currentPos = 0;
+		chunksRead++;
+		fill();
+		return true;
+	}
+
+	/**
+	 * Read the next bytes without read-ahead, up to the next chunk boundary
+	 * so the chunks fetched later stay aligned
+	 */
+	private int readDirect(byte[] b, int off, int len) throws IOException {
+		long position = nextFetch;
+		int n = (int) Math.min(Math.min(len, chunkSize - position % chunkSize), length - position);
+		n = in.read(position, b, off, n);
+		if (n == -1) {
+			throw new EOFException("File " + path + " ended before " + length + " bytes");
+		}
+		nextFetch += n;
+		bytesRead += n;
+		directReads++;
+		return n;
+	}
+
+	private void releaseCurrent() {
+		if (current != null) {
+			buffers.release(current);
+			current = null;
+		}
+	}
+
+	/**
+	 * Schedule reads until depth chunks are in flight or the buffers are
+	 * exhausted
+	 */
+	private void fill() {
+		while (pending.size() < depth && nextFetch < length) {
+			byte[] buf = buffers.acquire();
+			if (buf == null) {
+				return;
+			}
+			// the first chunk ends at a chunk boundary, the rest stay aligned
+			int len = (int) Math.min(chunkSize - nextFetch % chunkSize, length - nextFetch);
+			Fetch fetch = new Fetch(buf, nextFetch, len);
+			try {
+				fetch.future = executor.submit(HdfsOverFtpSystem.getMetrics().attribute(fetch));
+			} catch (RuntimeException e) {
+				buffers.release(buf);
+				throw e;
+			}
+			pending.add(fetch);
+			nextFetch += len;
+		}
+	}
+}
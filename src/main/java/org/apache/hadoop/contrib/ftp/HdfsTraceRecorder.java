@@ -0,0 +1,288 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.ftpserver.ftplet.FileObject;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records an anonymized trace of the FTP sessions, one line per event:
+ * <pre>
+ * &lt;session&gt; &lt;ms since start&gt; &lt;command&gt; &lt;reply code&gt; &lt;bytes&gt; &lt;argument&gt;
+ * </pre>
+ * Connects and disconnects are recorded as the commands + and -. User names
+ * and every component of a path are replaced by a keyed hash, so the
+ * directory structure is kept but no name can be recovered. Passwords and
+ * the arguments of other commands are not recorded. A successful PASS
+ * records the hashed home directory the session starts in.
+ */
+public class HdfsTraceRecorder {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsTraceRecorder.class);
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final static String SESSION_ATTRIBUTE = "org.apache.hadoop.contrib.ftp.trace.session";
+
+	// commands with a path argument
+	private final static Set<String> PATH_COMMANDS = new HashSet<String>(Arrays.asList(
+			"CWD", "XCWD", "LIST", "NLST", "MLSD", "MLST", "RETR", "STOR", "STOU", "APPE", "SIZE", "MDTM",
+			"DELE", "MKD", "XMKD", "RMD", "XRMD", "RNFR", "RNTO", "STAT"));
+
+	// commands whose argument holds nothing to anonymize
+	private final static Set<String> PLAIN_COMMANDS = new HashSet<String>(Arrays.asList(
+			"TYPE", "MODE", "STRU", "REST", "OPTS"));
+
+	private final File file;
+
+	private final long maxSize;
+
+	private final Mac mac;
+
+	private final long start = System.nanoTime();
+
+	private final AtomicLong sessions = new AtomicLong();
+
+	private Writer writer;
+
+	private long written = 0;
+
+	private ScheduledExecutorService flusher;
+
+	/**
+	 * Constructs the recorder
+	 *
+	 * @param file    trace file
+	 * @param key     key of the name hashes, traces hashed with the same key can be correlated
+	 * @param maxSize size in bytes after which recording stops
+	 */
+	public HdfsTraceRecorder(File file, String key, long maxSize) {
+		this.file = file;
+		this.maxSize = maxSize;
+		byte[] keyBytes;
+		if (key == null || key.isEmpty()) {
+			keyBytes = new byte[32];
+			new SecureRandom().nextBytes(keyBytes);
+		} else {
+			keyBytes = key.getBytes(UTF8);
+		}
+		try {
+			mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(keyBytes, "HmacSHA256"));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HmacSHA256 is not available", e);
+		}
+	}
+
+	/**
+	 * Open the trace file and start flushing it every second
+	 *
+	 * @throws IOException if the file can not be created
+	 */
+	public synchronized void start() throws IOException {
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8), 64 * 1024);
+		write("# hdfs-over-ftp trace v1 start=" + System.currentTimeMillis() + "\n");
+		flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "trace-flusher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+		log.info("Recording the session trace to " + file.getAbsolutePath());
+	}
+
+	public synchronized void close() {
+		if (flusher != null) {
+			flusher.shutdownNow();
+			flusher = null;
+		}
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.error("Failed closing the trace " + file.getAbsolutePath(), e);
+			}
+			writer = null;
+		}
+	}
+
+	public void connect(FtpSession session) {
+		long id = sessions.incrementAndGet();
+		session.setAttribute(SESSION_ATTRIBUTE, id);
+		record(id, "+", 0, 0, null);
+	}
+
+	public void disconnect(FtpSession session) {
+		Object id = session.getAttribute(SESSION_ATTRIBUTE);
+		if (id instanceof Long) {
+			record((Long) id, "-", 0, 0, null);
+		}
+	}
+
+	/**
+	 * Record a finished command
+	 *
+	 * @param session  session of the command
+	 * @param command  upper case command
+	 * @param argument argument as sent by the client, may be null
+	 * @param code     reply code, 0 if unknown
+	 * @param bytes    bytes transferred by the command
+	 */
+	public void command(FtpSession session, String command, String argument, int code, long bytes) {
+		Object id = session.getAttribute(SESSION_ATTRIBUTE);
+		if (!(id instanceof Long)) {
+			return;
+		}
+		String recorded = null;
+		if ("USER".equals(command)) {
+			recorded = argument == null ? null : hash(argument.trim());
+		} else if ("PASS".equals(command)) {
+			// the session starts in the home directory, not the password
+			if (code == 230) {
+				recorded = homeDirectory(session);
+			}
+		} else if (PATH_COMMANDS.contains(command)) {
+			recorded = anonymizeArgument(argument);
+		} else if (PLAIN_COMMANDS.contains(command)) {
+			recorded = argument;
+		}
+		record((Long) id, command, code, bytes, recorded);
+	}
+
+	private String homeDirectory(FtpSession session) {
+		try {
+			FileObject home = session.getFileSystemView().getHomeDirectory();
+			return home == null ? null : anonymizePath(home.getFullName());
+		} catch (FtpException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Hash the path of an argument, keeping the leading options of LIST
+	 */
+	private String anonymizeArgument(String argument) {
+		if (argument == null) {
+			return null;
+		}
+		String rest = argument.trim();
+		StringBuilder sb = new StringBuilder();
+		while (rest.startsWith("-")) {
+			int pos = rest.indexOf(' ');
+			String option = pos == -1 ? rest : rest.substring(0, pos);
+			sb.append(option).append(' ');
+			rest = pos == -1 ? "" : rest.substring(pos + 1).trim();
+		}
+		sb.append(anonymizePath(rest));
+		return sb.toString().trim();
+	}
+
+	private String anonymizePath(String path) {
+		StringBuilder sb = new StringBuilder(path.length());
+		int begin = 0;
+		while (begin <= path.length()) {
+			int end = path.indexOf('/', begin);
+			if (end == -1) {
+				end = path.length();
+			}
+			String component = path.substring(begin, end);
+			if (component.isEmpty() || ".".equals(component) || "..".equals(component)) {
+				sb.append(component);
+			} else {
+				sb.append(hash(component));
+			}
+			if (end < path.length()) {
+				sb.append('/');
+			}
+			begin = end + 1;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Hash a name to 12 hex digits, unique enough for the names of a directory
+	 */
+	private String hash(String name) {
+		byte[] digest;
+		synchronized (mac) {
+			digest = mac.doFinal(name.getBytes(UTF8));
+		}
+		StringBuilder sb = new StringBuilder(12);
+		for (int i = 0; i < 6; i++) {
+			sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(digest[i] & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	private void record(long session, String command, int code, long bytes, String argument) {
+		StringBuilder sb = new StringBuilder(64);
+		sb.append(session).append(' ')
+				.append((System.nanoTime() - start) / 1000000).append(' ')
+				.append(command.toUpperCase(Locale.ENGLISH)).append(' ')
+				.append(code).append(' ')
+				.append(bytes);
+		if (argument != null && !argument.isEmpty()) {
+			// the line format has no room for line breaks
+			sb.append(' ').append(argument.replace('\n', ' ').replace('\r', ' '));
+		}
+		sb.append('\n');
+		write(sb.toString());
+	}
+
+	private synchronized void write(String line) {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.write(line);
+			written += line.length();
+			if (written >= maxSize) {
+				log.info("The trace reached " + maxSize + " bytes, recording stopped");
+				close();
+			}
+		} catch (IOException e) {
+			log.error("Failed writing the trace, recording stopped", e);
+			close();
+		}
+	}
+
+	private synchronized void flush() {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			log.error("Failed flushing the trace " + file.getAbsolutePath(), e);
+		}
+	}
+}
@@ -7,7 +7,10 @@ import org.apache.log4j.Logger;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Implemented User to add group persmissions
@@ -30,6 +33,11 @@ public class HdfsUser implements User, Serializable {
 
 	private ArrayList<String> groups = new ArrayList<String>();
 
+	// hashed copy of groups for membership checks
+	private Set<String> groupSet = Collections.emptySet();
+
+	private HdfsWriteProfile writeProfile = new HdfsWriteProfile("user");
+
 	private Logger log = Logger.getLogger(HdfsUser.class);
 
 	/**
@@ -75,12 +83,7 @@ public class HdfsUser implements User, Serializable {
 	 * @return true if the user id a member of the group
 	 */
 	public boolean isGroupMember(String group) {
-		for (String userGroup : groups) {
-			if (userGroup.equals(group)) {
-				return true;
-			}
-		}
-		return false;
+		return group != null && groupSet.contains(group);
 	}
 
 	/**
@@ -93,6 +96,26 @@ public class HdfsUser implements User, Serializable {
 			log.error("User " + name + " is not a memer of any group");
 		}
 		this.groups = groups;
+		this.groupSet = Collections.unmodifiableSet(new HashSet<String>(groups));
+	}
+
+	/**
+	 * Get the block size, replication and buffer size set for the user, values
+	 * of 0 are taken from the write profiles
+	 *
+	 * @return write settings of the user
+	 */
+	public HdfsWriteProfile getWriteProfile() {
+		return writeProfile;
+	}
+
+	/**
+	 * Set the write settings of the user
+	 *
+	 * @param writeProfile to set
+	 */
+	public void setWriteProfile(HdfsWriteProfile writeProfile) {
+		this.writeProfile = writeProfile;
 	}
 
 	/**
@@ -0,0 +1,214 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.ftpserver.usermanager.AbstractUserManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index of the users of a user store, replaced as a whole on
+ * every change so lookups need neither locks nor attribute parsing and
+ * never see a change half applied. A change copies the map and inserts
+ * into the sorted names, O(n) without sorting again; a reload of the
+ * store builds a new index.
+ */
+public class HdfsUserIndex {
+
+	private final Map<String, Entry> users;
+
+	private final String[] names;
+
+	/**
+	 * Settings of one user as read from the users file
+	 */
+	static class Entry {
+		final String name;
+		final String password;
+		final String homeDirectory;
+		final boolean enabled;
+		final boolean writePermission;
+		final int maxLoginNumber;
+		final int maxLoginPerIP;
+		final int maxUploadRate;
+		final int maxDownloadRate;
+		final int maxIdleTime;
+		final List<String> groups;
+		final long blockSize;
+		final short replication;
+		final int bufferSize;
+		// all attributes as stored
+		final Map<String, String> attributes;
+
+		private Entry(String name, Map<String, String> attributes) {
+			this.name = name;
+			this.attributes = Collections.unmodifiableMap(new HashMap<String, String>(attributes));
+			this.password = attributes.get(AbstractUserManager.ATTR_PASSWORD);
+			String home = attributes.get(AbstractUserManager.ATTR_HOME);
+			this.homeDirectory = home == null ? "/" : home;
+			this.enabled = getBoolean(AbstractUserManager.ATTR_ENABLE, true);
+			this.writePermission = getBoolean(AbstractUserManager.ATTR_WRITE_PERM, false);
+			this.maxLoginNumber = (int) getLong(AbstractUserManager.ATTR_MAX_LOGIN_NUMBER);
+			this.maxLoginPerIP = (int) getLong(AbstractUserManager.ATTR_MAX_LOGIN_PER_IP);
+			this.maxUploadRate = (int) getLong(AbstractUserManager.ATTR_MAX_UPLOAD_RATE);
+			this.maxDownloadRate = (int) getLong(AbstractUserManager.ATTR_MAX_DOWNLOAD_RATE);
+			this.maxIdleTime = (int) getLong(AbstractUserManager.ATTR_MAX_IDLE_TIME);
+			this.groups = parseGroups(attributes.get(HdfsUserManager.ATTR_GROUPS));
+			this.blockSize = getLong(HdfsUserManager.ATTR_BLOCK_SIZE);
+			this.replication = (short) getLong(HdfsUserManager.ATTR_REPLICATION);
+			this.bufferSize = (int) getLong(HdfsUserManager.ATTR_BUFFER_SIZE);
+		}
+
+		private boolean getBoolean(String attribute, boolean defaultValue) {
+			String value = attributes.get(attribute);
+			return value == null ? defaultValue : "true".equalsIgnoreCase(value.trim());
+		}
+
+		private long getLong(String attribute) {
+			String value = attributes.get(attribute);
+			if (value == null) {
+				return 0;
+			}
+			try {
+				return Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+
+		private static List<String> parseGroups(String groupsLine) {
+			if (groupsLine == null || groupsLine.trim().isEmpty()) {
+				// groups may come from the group mapping only
+				return Collections.emptyList();
+			}
+			return Collections.unmodifiableList(Arrays.asList(groupsLine.split(",")));
+		}
+	}
+
+	private HdfsUserIndex(Map<String, Entry> users, String[] names) {
+		this.users = users;
+		this.names = names;
+	}
+
+	/**
+	 * Build the index of the users of a store
+	 *
+	 * @param attributes attributes by user name
+	 * @return index of the users
+	 */
+	public static HdfsUserIndex build(Map<String, Map<String, String>> attributes) {
+		Map<String, Entry> users = new HashMap<String, Entry>();
+		for (Map.Entry<String, Map<String, String>> user : attributes.entrySet()) {
+			if (isUser(user.getValue())) {
+				users.put(user.getKey(), new Entry(user.getKey(), user.getValue()));
+			}
+		}
+		String[] names = users.keySet().toArray(new String[users.size()]);
+		Arrays.sort(names);
+		return new HdfsUserIndex(Collections.unmodifiableMap(users), names);
+	}
+
+	/**
+	 * Check if stored attributes make a user, a user exists once it has a
+	 * home directory
+	 */
+	private static boolean isUser(Map<String, String> attributes) {
+		return attributes.containsKey(AbstractUserManager.ATTR_HOME);
+	}
+
+	/**
+	 * Get a copy of the index with a user added or replaced. Attributes
+	 * without a home directory remove the user, as {@link #build(Map)}
+	 * would skip them.
+	 *
+	 * @param name       user name
+	 * @param attributes all attributes of the user
+	 * @return new index
+	 */
+	public HdfsUserIndex withUser(String name, Map<String, String> attributes) {
+		return withUsers(Collections.singletonMap(name, attributes));
+	}
+
+	/**
+	 * Get a copy of the index with several users added or replaced
+	 *
+	 * @param changed all attributes by user name
+	 * @return new index
+	 */
+	public HdfsUserIndex withUsers(Map<String, Map<String, String>> changed) {
+		Map<String, Entry> copy = new HashMap<String, Entry>(users);
+		String[] copyNames = names;
+		for (Map.Entry<String, Map<String, String>> user : changed.entrySet()) {
+			String name = user.getKey();
+			if (isUser(user.getValue())) {
+				if (copy.put(name, new Entry(name, user.getValue())) == null) {
+					copyNames = insert(copyNames, name);
+				}
+			} else if (copy.remove(name) != null) {
+				copyNames = remove(copyNames, name);
+			}
+		}
+		return new HdfsUserIndex(Collections.unmodifiableMap(copy), copyNames);
+	}
+
+	/**
+	 * Get a copy of the index without a user
+	 *
+	 * @param name user name
+	 * @return new index
+	 */
+	public HdfsUserIndex withoutUser(String name) {
+		if (!users.containsKey(name)) {
+			return this;
+		}
+		Map<String, Entry> copy = new HashMap<String, Entry>(users);
+		copy.remove(name);
+		return new HdfsUserIndex(Collections.unmodifiableMap(copy), remove(names, name));
+	}
+
+	private static String[] insert(String[] sorted, String name) {
+		int pos = -Arrays.binarySearch(sorted, name) - 1;
+		String[] copy = new String[sorted.length + 1];
+		System.arraycopy(sorted, 0, copy, 0, pos);
+		copy[pos] = name;
+		System.arraycopy(sorted, pos, copy, pos + 1, sorted.length - pos);
+		return copy;
+	}
+
+	private static String[] remove(String[] sorted, String name) {
+		int pos = Arrays.binarySearch(sorted, name);
+		String[] copy = new String[sorted.length - 1];
+		System.arraycopy(sorted, 0, copy, 0, pos);
+		System.arraycopy(sorted, pos + 1, copy, pos, sorted.length - pos - 1);
+		return copy;
+	}
+
+	/**
+	 * Get the settings of a user
+	 *
+	 * @param name user name
+	 * @return settings or null if the user does not exist
+	 */
+	Entry get(String name) {
+		return users.get(name);
+	}
+
+	public boolean contains(String name) {
+		return users.containsKey(name);
+	}
+
+	/**
+	 * Get the names of all users
+	 *
+	 * @return sorted user names
+	 */
+	public String[] getNames() {
+		return names.clone();
+	}
+
+	public int size() {
+		return users.size();
+	}
+}
@@ -3,16 +3,17 @@ package org.apache.hadoop.contrib.ftp;
 import org.apache.ftpserver.FtpServerConfigurationException;
 import org.apache.ftpserver.ftplet.*;
 import org.apache.ftpserver.usermanager.*;
-import org.apache.ftpserver.util.BaseProperties;
-import org.apache.ftpserver.util.IoUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Extended AbstractUserManager to use  HdfsUser
@@ -21,17 +22,42 @@ public class HdfsUserManager extends AbstractUserManager {
 
 	private final Logger LOG = LoggerFactory.getLogger(HdfsUserManager.class);
 
-	private final static String DEPRECATED_PREFIX = "FtpServer.user.";
+	final static String ATTR_GROUPS = "groups";
 
-	private final static String PREFIX = "ftpserver.user.";
+	final static String ATTR_BLOCK_SIZE = "blocksize";
 
-	private BaseProperties userDataProp;
+	final static String ATTR_REPLICATION = "replication";
+
+	final static String ATTR_BUFFER_SIZE = "buffersize";
+
+	private final static int MAX_PENDING_UPGRADES = 10000;
+
+	// guarded by this, only used to modify the users
+	private HdfsUserStore userStore;
+
+	// read without locking, replaced whenever the users change
+	private volatile HdfsUserIndex userIndex;
 
 	private File userDataFile = new File("users.conf");
 
-	private boolean isConfigured = false;
+	private volatile boolean isConfigured = false;
+
+	private long reloadInterval = 0;
+
+	private ScheduledExecutorService reloader = null;
+
+	private PasswordEncryptor passwordEncryptor = new HdfsPasswordEncryptor();
+
+	private boolean passwordUpgrade = false;
 
-	private PasswordEncryptor passwordEncryptor = new Md5PasswordEncryptor();
+	// verified passwords and the hashes they were verified against, by user
+	// name, waiting for the upgrader. Guarded by itself.
+	private final LinkedHashMap<String, String[]> pendingUpgrades = new LinkedHashMap<String, String[]>();
+
+	private ExecutorService upgrader = null;
+
+	// set when the store could not take the upgraded hashes
+	private volatile boolean upgradeFailed = false;
 
 
 	/**
@@ -45,7 +71,7 @@ public class HdfsUserManager extends AbstractUserManager {
 
 	/**
 	 * Set the file used to store and read users. Must be set before
-	 * {@link #configure()} is called.
+	 * {@link #configure()} is called. Ignored if a user store is set.
 	 *
 	 * @param propFile A file containing users
 	 */
@@ -58,10 +84,25 @@ public class HdfsUserManager extends AbstractUserManager {
 	}
 
 
+	/**
+	 * Set the store of the users. Must be set before {@link #configure()}
+	 * is called. Defaults to the users.properties file set by
+	 * {@link #setFile(File)}.
+	 *
+	 * @param userStore store of the users
+	 */
+	public void setUserStore(HdfsUserStore userStore) {
+		if (isConfigured) {
+			throw new IllegalStateException("Must be called before configure()");
+		}
+
+		this.userStore = userStore;
+	}
+
 	/**
 	 * Retrieve the password encryptor used for this user manager
 	 *
-	 * @return The password encryptor. Default to {@link Md5PasswordEncryptor}
+	 * @return The password encryptor. Default to {@link HdfsPasswordEncryptor}
 	 *         if no other has been provided
 	 */
 	public PasswordEncryptor getPasswordEncryptor() {
@@ -79,107 +120,150 @@ public class HdfsUserManager extends AbstractUserManager {
 	}
 
 
+	/**
+	 * Set if stored hashes of an older scheme are replaced after the next
+	 * successful login of the user. The new hashes are computed and stored
+	 * in batches by a background thread, never on the login path.
+	 *
+	 * @param passwordUpgrade true to upgrade stored hashes
+	 */
+	public void setPasswordUpgrade(boolean passwordUpgrade) {
+		this.passwordUpgrade = passwordUpgrade;
+	}
+
+	/**
+	 * Set the interval the users file is checked for changes in. Must be
+	 * set before {@link #configure()} is called.
+	 *
+	 * @param reloadInterval interval in milliseconds, 0 disables reloading
+	 */
+	public void setReloadInterval(long reloadInterval) {
+		if (isConfigured) {
+			throw new IllegalStateException("Must be called before configure()");
+		}
+
+		this.reloadInterval = reloadInterval;
+	}
+
 	/**
 	 * Lazy init the user manager
+	 *
+	 * @return current user index
 	 */
-	private void lazyInit() {
-		if (!isConfigured) {
-			configure();
+	private HdfsUserIndex lazyInit() {
+		HdfsUserIndex index = userIndex;
+		if (index == null) {
+			synchronized (this) {
+				if (!isConfigured) {
+					configure();
+				}
+				index = userIndex;
+			}
 		}
+		return index;
 	}
 
 	/**
 	 * Configure user manager.
 	 */
-	public void configure() {
+	public synchronized void configure() {
 		isConfigured = true;
+		if (userStore == null) {
+			userStore = new HdfsPropertiesUserStore(userDataFile);
+		}
 		try {
-			userDataProp = new BaseProperties();
-
-			if (userDataFile != null && userDataFile.exists()) {
-				FileInputStream fis = null;
-				try {
-					fis = new FileInputStream(userDataFile);
-					userDataProp.load(fis);
-				} finally {
-					IoUtils.close(fis);
-				}
-			}
+			userIndex = HdfsUserIndex.build(userStore.load());
 		} catch (IOException e) {
 			throw new FtpServerConfigurationException(
-					"Error loading user data file : "
-							+ userDataFile.getAbsolutePath(), e);
+					"Error loading user data : " + userStore.getLocation(), e);
 		}
 
-		convertDeprecatedPropertyNames();
+		if (reloadInterval > 0 && reloader == null) {
+			reloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "users-file-reloader");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			reloader.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					reloadIfChanged();
+				}
+			}, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+		}
 	}
 
-	private void convertDeprecatedPropertyNames() {
-		Enumeration<?> keys = userDataProp.propertyNames();
-
-		boolean doSave = false;
-
-		while (keys.hasMoreElements()) {
-			String key = (String) keys.nextElement();
-
-			if (key.startsWith(DEPRECATED_PREFIX)) {
-				String newKey = PREFIX
-						+ key.substring(DEPRECATED_PREFIX.length());
-				userDataProp.setProperty(newKey, userDataProp.getProperty(key));
-				userDataProp.remove(key);
-
-				doSave = true;
-			}
+	/**
+	 * Load the users again if the store was changed by someone else since
+	 * it was last loaded or written. Sessions already logged in keep their
+	 * user.
+	 */
+	private synchronized void reloadIfChanged() {
+		if (userStore == null || !userStore.isModified()) {
+			return;
 		}
-
-		if (doSave) {
-			try {
-				saveUserData();
-			} catch (FtpException e) {
-				throw new FtpServerConfigurationException(
-						"Failed to save updated user data", e);
-			}
+		try {
+			userIndex = HdfsUserIndex.build(userStore.load());
+			upgradeFailed = false;
+			LOG.info("Reloaded " + userIndex.size() + " users from " + userStore.getLocation());
+		} catch (Exception e) {
+			LOG.error("Failed reloading user data, keeping the loaded users", e);
 		}
 	}
 
 	/**
-	 * Save user data. Store the properties.
+	 * Save user data. Store the properties. The password is hashed before
+	 * the lock is taken, so logins and other saves do not wait for it.
 	 */
-	public synchronized void save(User usr) throws FtpException {
-		lazyInit();
-
+	public void save(User usr) throws FtpException {
 		// null value check
 		if (usr.getName() == null) {
 			throw new NullPointerException("User name is null.");
 		}
-		String thisPrefix = PREFIX + usr.getName() + '.';
+
+		String password = usr.getPassword() == null ? null : passwordEncryptor.encrypt(usr.getPassword());
+		synchronized (this) {
+			save(usr, password);
+		}
+	}
+
+	private void save(User usr, String encryptedPassword) throws FtpException {
+		HdfsUserIndex index = lazyInit();
+
+		// keep attributes not known to the user object, like groups
+		Map<String, String> attributes = new HashMap<String, String>();
+		HdfsUserIndex.Entry existing = index.get(usr.getName());
+		if (existing != null) {
+			attributes.putAll(existing.attributes);
+		}
 
 		// set other properties
-		userDataProp.setProperty(thisPrefix + ATTR_PASSWORD, getPassword(usr));
+		attributes.put(ATTR_PASSWORD, getPassword(usr, encryptedPassword));
 
 		String home = usr.getHomeDirectory();
 		if (home == null) {
 			home = "/";
 		}
-		userDataProp.setProperty(thisPrefix + ATTR_HOME, home);
-		userDataProp.setProperty(thisPrefix + ATTR_ENABLE, usr.getEnabled());
-		userDataProp.setProperty(thisPrefix + ATTR_WRITE_PERM, usr
-				.authorize(new WriteRequest()) != null);
-		userDataProp.setProperty(thisPrefix + ATTR_MAX_IDLE_TIME, usr
-				.getMaxIdleTime());
+		attributes.put(ATTR_HOME, home);
+		attributes.put(ATTR_ENABLE, String.valueOf(usr.getEnabled()));
+		attributes.put(ATTR_WRITE_PERM, String.valueOf(usr
+				.authorize(new WriteRequest()) != null));
+		attributes.put(ATTR_MAX_IDLE_TIME, String.valueOf(usr
+				.getMaxIdleTime()));
 
 		TransferRateRequest transferRateRequest = new TransferRateRequest();
 		transferRateRequest = (TransferRateRequest) usr
 				.authorize(transferRateRequest);
 
 		if (transferRateRequest != null) {
-			userDataProp.setProperty(thisPrefix + ATTR_MAX_UPLOAD_RATE,
-					transferRateRequest.getMaxUploadRate());
-			userDataProp.setProperty(thisPrefix + ATTR_MAX_DOWNLOAD_RATE,
-					transferRateRequest.getMaxDownloadRate());
+			attributes.put(ATTR_MAX_UPLOAD_RATE,
+					String.valueOf(transferRateRequest.getMaxUploadRate()));
+			attributes.put(ATTR_MAX_DOWNLOAD_RATE,
+					String.valueOf(transferRateRequest.getMaxDownloadRate()));
 		} else {
-			userDataProp.remove(thisPrefix + ATTR_MAX_UPLOAD_RATE);
-			userDataProp.remove(thisPrefix + ATTR_MAX_DOWNLOAD_RATE);
+			attributes.remove(ATTR_MAX_UPLOAD_RATE);
+			attributes.remove(ATTR_MAX_DOWNLOAD_RATE);
 		}
 
 		// request that always will succeed
@@ -189,65 +273,61 @@ public class HdfsUserManager extends AbstractUserManager {
 				.authorize(concurrentLoginRequest);
 
 		if (concurrentLoginRequest != null) {
-			userDataProp.setProperty(thisPrefix + ATTR_MAX_LOGIN_NUMBER,
-					concurrentLoginRequest.getMaxConcurrentLogins());
-			userDataProp.setProperty(thisPrefix + ATTR_MAX_LOGIN_PER_IP,
-					concurrentLoginRequest.getMaxConcurrentLoginsPerIP());
+			attributes.put(ATTR_MAX_LOGIN_NUMBER,
+					String.valueOf(concurrentLoginRequest.getMaxConcurrentLogins()));
+			attributes.put(ATTR_MAX_LOGIN_PER_IP,
+					String.valueOf(concurrentLoginRequest.getMaxConcurrentLoginsPerIP()));
 		} else {
-			userDataProp.remove(thisPrefix + ATTR_MAX_LOGIN_NUMBER);
-			userDataProp.remove(thisPrefix + ATTR_MAX_LOGIN_PER_IP);
+			attributes.remove(ATTR_MAX_LOGIN_NUMBER);
+			attributes.remove(ATTR_MAX_LOGIN_PER_IP);
 		}
 
-		saveUserData();
+		if (usr instanceof HdfsUser) {
+			HdfsWriteProfile writeProfile = ((HdfsUser) usr).getWriteProfile();
+			setOrRemove(attributes, ATTR_BLOCK_SIZE, writeProfile.getBlockSize());
+			setOrRemove(attributes, ATTR_REPLICATION, writeProfile.getReplication());
+			setOrRemove(attributes, ATTR_BUFFER_SIZE, writeProfile.getBufferSize());
+		}
+
+		saveUserData(usr.getName(), attributes);
+	}
+
+	private void setOrRemove(Map<String, String> attributes, String key, long value) {
+		if (value > 0) {
+			attributes.put(key, String.valueOf(value));
+		} else {
+			attributes.remove(key);
+		}
 	}
 
 	/**
+	 * Store a user and publish it
+	 *
 	 * @throws FtpException
 	 */
-	private void saveUserData() throws FtpException {
-		File dir = userDataFile.getAbsoluteFile().getParentFile();
-		if (dir != null && !dir.exists() && !dir.mkdirs()) {
-			String dirName = dir.getAbsolutePath();
-			throw new FtpServerConfigurationException(
-					"Cannot create directory for user data file : " + dirName);
-		}
-
-		// save user data
-		FileOutputStream fos = null;
+	private void saveUserData(String name, Map<String, String> attributes) throws FtpException {
 		try {
-			fos = new FileOutputStream(userDataFile);
-			userDataProp.store(fos, "Generated file - don't edit (please)");
+			userStore.save(name, attributes);
 		} catch (IOException ex) {
 			LOG.error("Failed saving user data", ex);
 			throw new FtpException("Failed saving user data", ex);
-		} finally {
-			IoUtils.close(fos);
 		}
+		userIndex = userIndex.withUser(name, attributes);
 	}
 
 	/**
-	 * Delete an user. Removes all this user entries from the properties. After
-	 * removing the corresponding from the properties, save the data.
+	 * Delete an user. Removes all this user entries from the store.
 	 */
 	public synchronized void delete(String usrName) throws FtpException {
 		lazyInit();
 
-		// remove entries from properties
-		String thisPrefix = PREFIX + usrName + '.';
-		Enumeration<?> propNames = userDataProp.propertyNames();
-		ArrayList<String> remKeys = new ArrayList<String>();
-		while (propNames.hasMoreElements()) {
-			String thisKey = propNames.nextElement().toString();
-			if (thisKey.startsWith(thisPrefix)) {
-				remKeys.add(thisKey);
-			}
-		}
-		Iterator<String> remKeysIt = remKeys.iterator();
-		while (remKeysIt.hasNext()) {
-			userDataProp.remove(remKeysIt.next());
+		try {
+			userStore.delete(usrName);
+		} catch (IOException ex) {
+			LOG.error("Failed deleting user data", ex);
+			throw new FtpException("Failed deleting user data", ex);
 		}
-
-		saveUserData();
+		userIndex = userIndex.withoutUser(usrName);
 	}
 
 	/**
@@ -262,101 +342,164 @@ public class HdfsUserManager extends AbstractUserManager {
 	 *   else
 	 *     password = &quot;&quot;
 	 * </pre>
+	 *
+	 * @param encryptedPassword new password already encrypted, null if not set
 	 */
-	private String getPassword(User usr) {
-		String name = usr.getName();
-		String password = usr.getPassword();
-
-		if (password != null) {
-			password = passwordEncryptor.encrypt(password);
-		} else {
-			String blankPassword = passwordEncryptor.encrypt("");
+	private String getPassword(User usr, String encryptedPassword) {
+		if (encryptedPassword != null) {
+			return encryptedPassword;
+		}
+		HdfsUserIndex.Entry entry = lazyInit().get(usr.getName());
+		if (entry != null && entry.password != null) {
+			return entry.password;
+		}
+		return passwordEncryptor.encrypt("");
+	}
 
-			if (doesExist(name)) {
-				String key = PREFIX + name + '.' + ATTR_PASSWORD;
-				password = userDataProp.getProperty(key, blankPassword);
-			} else {
-				password = blankPassword;
+	/**
+	 * Queue the replacement of the stored hash of a user by a hash of the
+	 * current scheme. Nothing is queued when the store is read-only, an
+	 * earlier upgrade failed or the queue is full.
+	 *
+	 * @param name        user name
+	 * @param password    verified password
+	 * @param oldPassword stored hash the password was verified against
+	 */
+	private void queueUpgrade(String name, String password, String oldPassword) {
+		if (upgradeFailed) {
+			return;
+		}
+		boolean start;
+		synchronized (pendingUpgrades) {
+			if (pendingUpgrades.containsKey(name) || pendingUpgrades.size() >= MAX_PENDING_UPGRADES) {
+				return;
 			}
+			// a running upgrader takes the queue only once, so start another one
+			start = pendingUpgrades.isEmpty();
+			pendingUpgrades.put(name, new String[]{password, oldPassword});
+		}
+		if (start) {
+			getUpgrader().execute(new Runnable() {
+				public void run() {
+					upgradePasswords();
+				}
+			});
 		}
-		return password;
+	}
+
+	private synchronized ExecutorService getUpgrader() {
+		if (upgrader == null) {
+			upgrader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "password-upgrader");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return upgrader;
 	}
 
 	/**
-	 * Get all user names.
+	 * Hash the queued passwords without holding the lock, then store all
+	 * of them whose stored hash did not change meanwhile with one write
 	 */
-	public synchronized String[] getAllUserNames() {
-		lazyInit();
+	private void upgradePasswords() {
+		Map<String, String[]> batch;
+		synchronized (pendingUpgrades) {
+			batch = new LinkedHashMap<String, String[]>(pendingUpgrades);
+			pendingUpgrades.clear();
+		}
+		Map<String, String> hashes = new HashMap<String, String>();
+		for (Map.Entry<String, String[]> upgrade : batch.entrySet()) {
+			hashes.put(upgrade.getKey(), passwordEncryptor.encrypt(upgrade.getValue()[0]));
+		}
 
-		// get all user names
-		String suffix = '.' + ATTR_HOME;
-		ArrayList<String> ulst = new ArrayList<String>();
-		Enumeration<?> allKeys = userDataProp.propertyNames();
-		int prefixlen = PREFIX.length();
-		int suffixlen = suffix.length();
-		while (allKeys.hasMoreElements()) {
-			String key = (String) allKeys.nextElement();
-			if (key.endsWith(suffix)) {
-				String name = key.substring(prefixlen);
-				int endIndex = name.length() - suffixlen;
-				name = name.substring(0, endIndex);
-				ulst.add(name);
+		synchronized (this) {
+			if (userStore == null || userIndex == null || upgradeFailed) {
+				return;
+			}
+			Map<String, Map<String, String>> changed = new LinkedHashMap<String, Map<String, String>>();
+			for (Map.Entry<String, String[]> upgrade : batch.entrySet()) {
+				HdfsUserIndex.Entry entry = userIndex.get(upgrade.getKey());
+				if (entry == null || !upgrade.getValue()[1].equals(entry.password)) {
+					// changed meanwhile
+					continue;
+				}
+				Map<String, String> attributes = new HashMap<String, String>(entry.attributes);
+				attributes.put(ATTR_PASSWORD, hashes.get(upgrade.getKey()));
+				changed.put(upgrade.getKey(), attributes);
+			}
+			if (changed.isEmpty()) {
+				return;
 			}
+			if (!userStore.isWritable()) {
+				upgradeFailed = true;
+				LOG.warn(userStore.getLocation() + " is read-only, password hashes are not upgraded");
+				return;
+			}
+			try {
+				userStore.saveAll(changed);
+			} catch (IOException e) {
+				upgradeFailed = true;
+				LOG.error("Failed upgrading the password hashes of " + changed.size()
+						+ " users, no more upgrades until the users are reloaded", e);
+				return;
+			}
+			userIndex = userIndex.withUsers(changed);
+			LOG.info("Upgraded the password hashes of " + changed.size() + " users");
 		}
-
-		Collections.sort(ulst);
-		return ulst.toArray(new String[0]);
 	}
 
-	private ArrayList<String> parseGroups(String groupsLine) {
-		String groupsArray[] = groupsLine.split(",");
-		return new ArrayList(Arrays.asList(groupsArray));
+	/**
+	 * Get all user names.
+	 */
+	public String[] getAllUserNames() {
+		return lazyInit().getNames();
 	}
 
 	/**
 	 * Load user data.
 	 */
-	public synchronized User getUserByName(String userName) {
-		lazyInit();
-
-		if (!doesExist(userName)) {
+	public User getUserByName(String userName) {
+		HdfsUserIndex.Entry entry = lazyInit().get(userName);
+		if (entry == null) {
 			return null;
 		}
 
-		String baseKey = PREFIX + userName + '.';
 		HdfsUser user = new HdfsUser();
 		user.setName(userName);
-		user.setEnabled(userDataProp.getBoolean(baseKey + ATTR_ENABLE, true));
-		user.setHomeDirectory(userDataProp
-				.getProperty(baseKey + ATTR_HOME, "/"));
-
-		user.setGroups(parseGroups(userDataProp
-				.getProperty(baseKey + "groups")));
+		user.setEnabled(entry.enabled);
+		user.setHomeDirectory(entry.homeDirectory);
+
+		ArrayList<String> groups = new ArrayList<String>(entry.groups);
+		HdfsGroupMapping groupMapping = HdfsOverFtpSystem.getGroupMapping();
+		if (groupMapping != null) {
+			// groups of users.properties come first and keep the main group
+			for (String group : groupMapping.getGroups(userName)) {
+				if (!groups.contains(group)) {
+					groups.add(group);
+				}
+			}
+		}
+		user.setGroups(groups);
 
 		List<Authority> authorities = new ArrayList<Authority>();
 
-		if (userDataProp.getBoolean(baseKey + ATTR_WRITE_PERM, false)) {
+		if (entry.writePermission) {
 			authorities.add(new WritePermission());
 		}
 
-		int maxLogin = userDataProp.getInteger(baseKey + ATTR_MAX_LOGIN_NUMBER,
-				0);
-		int maxLoginPerIP = userDataProp.getInteger(baseKey
-				+ ATTR_MAX_LOGIN_PER_IP, 0);
-
-		authorities.add(new ConcurrentLoginPermission(maxLogin, maxLoginPerIP));
-
-		int uploadRate = userDataProp.getInteger(
-				baseKey + ATTR_MAX_UPLOAD_RATE, 0);
-		int downloadRate = userDataProp.getInteger(baseKey
-				+ ATTR_MAX_DOWNLOAD_RATE, 0);
+		authorities.add(new ConcurrentLoginPermission(entry.maxLoginNumber, entry.maxLoginPerIP));
 
-		authorities.add(new TransferRatePermission(downloadRate, uploadRate));
+		authorities.add(new TransferRatePermission(entry.maxDownloadRate, entry.maxUploadRate));
 
 		user.setAuthorities(authorities.toArray(new Authority[0]));
 
-		user.setMaxIdleTime(userDataProp.getInteger(baseKey
-				+ ATTR_MAX_IDLE_TIME, 0));
+		user.setMaxIdleTime(entry.maxIdleTime);
+
+		user.setWriteProfile(new HdfsWriteProfile(userName,
+				entry.blockSize, entry.replication, entry.bufferSize));
 
 		return user;
 	}
@@ -364,19 +507,16 @@ public class HdfsUserManager extends AbstractUserManager {
 	/**
 	 * User existance check
 	 */
-	public synchronized boolean doesExist(String name) {
-		lazyInit();
-
-		String key = PREFIX + name + '.' + ATTR_HOME;
-		return userDataProp.containsKey(key);
+	public boolean doesExist(String name) {
+		return lazyInit().contains(name);
 	}
 
 	/**
 	 * User authenticate method
 	 */
-	public synchronized User authenticate(Authentication authentication)
+	public User authenticate(Authentication authentication)
 			throws AuthenticationFailedException {
-		lazyInit();
+		HdfsUserIndex index = lazyInit();
 
 		if (authentication instanceof UsernamePasswordAuthentication) {
 			UsernamePasswordAuthentication upauth = (UsernamePasswordAuthentication) authentication;
@@ -392,22 +532,25 @@ public class HdfsUserManager extends AbstractUserManager {
 				password = "";
 			}
 
-			String storedPassword = userDataProp.getProperty(PREFIX + user + '.'
-					+ ATTR_PASSWORD);
+			HdfsUserIndex.Entry entry = index.get(user);
 
-			if (storedPassword == null) {
+			if (entry == null || entry.password == null) {
 				// user does not exist
 				throw new AuthenticationFailedException("Authentication failed");
 			}
 
-			if (passwordEncryptor.matches(password, storedPassword)) {
+			if (passwordEncryptor.matches(password, entry.password)) {
+				if (passwordUpgrade && passwordEncryptor instanceof HdfsPasswordEncryptor
+						&& ((HdfsPasswordEncryptor) passwordEncryptor).needsUpgrade(entry.password)) {
+					queueUpgrade(user, password, entry.password);
+				}
 				return getUserByName(user);
 			} else {
 				throw new AuthenticationFailedException("Authentication failed");
 			}
 
 		} else if (authentication instanceof AnonymousAuthentication) {
-			if (doesExist("anonymous")) {
+			if (index.contains("anonymous")) {
 				return getUserByName("anonymous");
 			} else {
 				throw new AuthenticationFailedException("Authentication failed");
@@ -422,9 +565,18 @@ public class HdfsUserManager extends AbstractUserManager {
 	 * Close the user manager - remove existing entries.
 	 */
 	public synchronized void dispose() {
-		if (userDataProp != null) {
-			userDataProp.clear();
-			userDataProp = null;
+		if (reloader != null) {
+			reloader.shutdownNow();
+			reloader = null;
+		}
+		if (upgrader != null) {
+			upgrader.shutdownNow();
+			upgrader = null;
+		}
+		userIndex = null;
+		isConfigured = false;
+		if (userStore != null) {
+			userStore.close();
 		}
 	}
 }
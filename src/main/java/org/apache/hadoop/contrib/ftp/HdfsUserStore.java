@@ -0,0 +1,73 @@
+package org.apache.hadoop.contrib.ftp;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Persistent storage of the users of {@link HdfsUserManager}. A user is
+ * stored as a map of attribute names, as used in users.properties without
+ * the user prefix, to values. Implementations must be safe for use by
+ * several threads.
+ */
+public interface HdfsUserStore {
+
+	/**
+	 * Load all users
+	 *
+	 * @return attributes by user name
+	 * @throws IOException if the store can not be read
+	 */
+	Map<String, Map<String, String>> load() throws IOException;
+
+	/**
+	 * Create or replace a user
+	 *
+	 * @param name       user name
+	 * @param attributes all attributes of the user
+	 * @throws IOException if the user can not be stored
+	 */
+	void save(String name, Map<String, String> attributes) throws IOException;
+
+	/**
+	 * Create or replace several users with a single write of the store
+	 *
+	 * @param users all attributes by user name
+	 * @throws IOException if the users can not be stored
+	 */
+	void saveAll(Map<String, Map<String, String>> users) throws IOException;
+
+	/**
+	 * Delete a user
+	 *
+	 * @param name user name
+	 * @throws IOException if the user can not be deleted
+	 */
+	void delete(String name) throws IOException;
+
+	/**
+	 * Check if the store was changed by someone else since it was last
+	 * loaded or written
+	 *
+	 * @return true if the users should be loaded again
+	 */
+	boolean isModified();
+
+	/**
+	 * Check if changes can be stored
+	 *
+	 * @return false if the store is read-only
+	 */
+	boolean isWritable();
+
+	/**
+	 * Get a description of the store for log messages
+	 *
+	 * @return location of the store
+	 */
+	String getLocation();
+
+	/**
+	 * Release the resources of the store
+	 */
+	void close();
+}
@@ -0,0 +1,196 @@
+package org.apache.hadoop.contrib.ftp;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Block size, replication and buffer size used for uploads of the users,
+ * groups and paths the profile matches. A value of 0 keeps the value of a
+ * less specific profile or the cluster default.
+ */
+public class HdfsWriteProfile implements Serializable {
+
+	private static final long serialVersionUID = 4153264787519012349L;
+
+	private final String name;
+
+	private long blockSize = 0;
+
+	private short replication = 0;
+
+	private int bufferSize = 0;
+
+	private Set<String> users = Collections.emptySet();
+
+	private Set<String> groups = Collections.emptySet();
+
+	private String pathPrefix = null;
+
+	/**
+	 * Constructs an empty profile
+	 *
+	 * @param name name of the profile
+	 */
+	public HdfsWriteProfile(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Constructs a profile with the given values
+	 */
+	public HdfsWriteProfile(String name, long blockSize, short replication, int bufferSize) {
+		this.name = name;
+		this.blockSize = blockSize;
+		this.replication = replication;
+		this.bufferSize = bufferSize;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(long blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	public short getReplication() {
+		return replication;
+	}
+
+	public void setReplication(short replication) {
+		this.replication = replication;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Set the users the profile applies to
+	 *
+	 * @param users comma separated user names
+	 */
+	public void setUsers(String users) {
+		this.users = parseList(users);
+	}
+
+	/**
+	 * Set the groups the profile applies to
+	 *
+	 * @param groups comma separated group names
+	 */
+	public void setGroups(String groups) {
+		this.groups = parseList(groups);
+	}
+
+	public String getPathPrefix() {
+		return pathPrefix;
+	}
+
+	/**
+	 * Set the directory the profile applies to, including everything below it
+	 *
+	 * @param pathPrefix directory
+	 */
+	public void setPathPrefix(String pathPrefix) {
+		if (pathPrefix != null && pathPrefix.length() > 1 && pathPrefix.endsWith("/")) {
+			pathPrefix = pathPrefix.substring(0, pathPrefix.length() - 1);
+		}
+		this.pathPrefix = pathPrefix;
+	}
+
+	/**
+	 * Checks if the profile applies to an upload. All criteria set in the
+	 * profile must match, a profile without criteria applies to all uploads.
+	 *
+	 * @param user uploading user
+	 * @param path path of the uploaded file
+	 * @return true if the profile applies
+	 */
+	public boolean matches(HdfsUser user, String path) {
+		if (!users.isEmpty() && !users.contains(user.getName())) {
+			return false;
+		}
+		if (!groups.isEmpty()) {
+			boolean member = false;
+			for (String group : groups) {
+				if (user.isGroupMember(group)) {
+					member = true;
+					break;
+				}
+			}
+			if (!member) {
+				return false;
+			}
+		}
+		if (pathPrefix != null && !"/".equals(pathPrefix)) {
+			return path.equals(pathPrefix) || path.startsWith(pathPrefix + "/");
+		}
+		return true;
+	}
+
+	/**
+	 * Get the number of criteria of the profile, more specific profiles
+	 * override less specific ones
+	 *
+	 * @return specificity of the profile
+	 */
+	int getSpecificity() {
+		int specificity = 0;
+		if (!users.isEmpty()) {
+			specificity += 1;
+		}
+		if (!groups.isEmpty()) {
+			specificity += 1;
+		}
+		if (pathPrefix != null) {
+			specificity += 1 + pathPrefix.length();
+		}
+		return specificity;
+	}
+
+	/**
+	 * Override the values of this profile by the non zero values of another one
+	 *
+	 * @param other profile with precedence
+	 */
+	void override(HdfsWriteProfile other) {
+		if (other.blockSize > 0) {
+			blockSize = other.blockSize;
+		}
+		if (other.replication > 0) {
+			replication = other.replication;
+		}
+		if (other.bufferSize > 0) {
+			bufferSize = other.bufferSize;
+		}
+	}
+
+	public String toString() {
+		return name + "[blockSize=" + blockSize + ", replication=" + replication
+				+ ", bufferSize=" + bufferSize + "]";
+	}
+
+	private static Set<String> parseList(String list) {
+		Set<String> set = new HashSet<String>();
+		if (list != null) {
+			for (String item : Arrays.asList(list.split(","))) {
+				if (!item.trim().isEmpty()) {
+					set.add(item.trim());
+				}
+			}
+		}
+		return set;
+	}
+}
@@ -0,0 +1,181 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Write profiles of hdfs-over-ftp.properties, resolved for every upload.
+ * <p/>
+ * <pre>
+ * write-profile.archive.users = alice,bob
+ * write-profile.archive.block-size = 536870912
+ * write-profile.scratch.path-prefix = /scratch
+ * write-profile.scratch.replication = 2
+ * </pre>
+ * Matching profiles are applied from the least to the most specific one,
+ * values set for the user in users.properties are applied last. A profile
+ * with an invalid value is rejected as a whole when it is loaded: block
+ * sizes must be positive multiples of dfs.bytes-per-checksum, replications
+ * between 1 and dfs.replication.max and buffer sizes positive.
+ */
+public class HdfsWriteProfiles {
+
+	private final static Logger log = LoggerFactory.getLogger(HdfsWriteProfiles.class);
+
+	private final static String PREFIX = "write-profile.";
+
+	private final static String BYTES_PER_CHECKSUM_KEY = "dfs.bytes-per-checksum";
+
+	private final static int BYTES_PER_CHECKSUM_DEFAULT = 512;
+
+	private final static String REPLICATION_MAX_KEY = "dfs.replication.max";
+
+	private final static int REPLICATION_MAX_DEFAULT = 512;
+
+	private final List<HdfsWriteProfile> profiles;
+
+	/**
+	 * Constructs the profiles
+	 *
+	 * @param profiles profiles in any order
+	 */
+	public HdfsWriteProfiles(List<HdfsWriteProfile> profiles) {
+		this.profiles = new ArrayList<HdfsWriteProfile>(profiles);
+		Collections.sort(this.profiles, new Comparator<HdfsWriteProfile>() {
+			public int compare(HdfsWriteProfile p1, HdfsWriteProfile p2) {
+				int c = p1.getSpecificity() - p2.getSpecificity();
+				return c != 0 ? c : p1.getName().compareTo(p2.getName());
+			}
+		});
+	}
+
+	/**
+	 * Load the profiles from the server properties, checked against the
+	 * HDFS configuration on the class path
+	 *
+	 * @param props server properties
+	 * @return valid profiles
+	 */
+	public static HdfsWriteProfiles load(Properties props) {
+		return load(props, new HdfsConfiguration());
+	}
+
+	/**
+	 * Load the profiles from the server properties
+	 *
+	 * @param props server properties
+	 * @param conf  HDFS configuration the values are checked against
+	 * @return valid profiles
+	 */
+	public static HdfsWriteProfiles load(Properties props, Configuration conf) {
+		int bytesPerChecksum = conf.getInt(BYTES_PER_CHECKSUM_KEY, BYTES_PER_CHECKSUM_DEFAULT);
+		int maxReplication = conf.getInt(REPLICATION_MAX_KEY, REPLICATION_MAX_DEFAULT);
+		Map<String, HdfsWriteProfile> byName = new LinkedHashMap<String, HdfsWriteProfile>();
+		Set<String> rejected = new HashSet<String>();
+		Enumeration<?> keys = props.propertyNames();
+		while (keys.hasMoreElements()) {
+			String key = (String) keys.nextElement();
+			if (!key.startsWith(PREFIX)) {
+				continue;
+			}
+			int pos = key.indexOf('.', PREFIX.length());
+			if (pos == -1) {
+				log.error("Invalid write profile setting " + key);
+				continue;
+			}
+			String name = key.substring(PREFIX.length(), pos);
+			String attr = key.substring(pos + 1);
+			String value = props.getProperty(key).trim();
+
+			HdfsWriteProfile profile = byName.get(name);
+			if (profile == null) {
+				profile = new HdfsWriteProfile(name);
+				byName.put(name, profile);
+			}
+			try {
+				String error = null;
+				if ("block-size".equals(attr)) {
+					long blockSize = Long.parseLong(value);
+					if (blockSize <= 0 || blockSize % bytesPerChecksum != 0) {
+						error = "must be a positive multiple of " + BYTES_PER_CHECKSUM_KEY + "=" + bytesPerChecksum;
+					}
+					profile.setBlockSize(blockSize);
+				} else if ("replication".equals(attr)) {
+					short replication = Short.parseShort(value);
+					if (replication < 1 || replication > maxReplication) {
+						error = "must be between 1 and " + REPLICATION_MAX_KEY + "=" + maxReplication;
+					}
+					profile.setReplication(replication);
+				} else if ("buffer-size".equals(attr)) {
+					int bufferSize = Integer.parseInt(value);
+					if (bufferSize <= 0) {
+						error = "must be positive";
+					}
+					profile.setBufferSize(bufferSize);
+				} else if ("users".equals(attr)) {
+					profile.setUsers(value);
+				} else if ("groups".equals(attr)) {
+					profile.setGroups(value);
+				} else if ("path-prefix".equals(attr)) {
+					profile.setPathPrefix(value);
+				} else {
+					log.error("Unknown write profile setting " + key);
+				}
+				if (error != null) {
+					log.error("Invalid value of write profile setting " + key + ": " + value + ", " + error);
+					rejected.add(name);
+				}
+			} catch (NumberFormatException e) {
+				log.error("Invalid value of write profile setting " + key + ": " + value);
+				rejected.add(name);
+			}
+		}
+		for (String name : rejected) {
+			log.error("write profile " + name + " is rejected because of invalid settings");
+			byName.remove(name);
+		}
+		for (HdfsWriteProfile profile : byName.values()) {
+			log.info("write profile " + profile);
+		}
+		return new HdfsWriteProfiles(new ArrayList<HdfsWriteProfile>(byName.values()));
+	}
+
+	/**
+	 * Resolve the settings of an upload
+	 *
+	 * @param user uploading user
+	 * @param path path of the uploaded file
+	 * @param fs   file system providing the defaults
+	 * @return profile with all values set
+	 */
+	public HdfsWriteProfile resolve(HdfsUser user, Path path, FileSystem fs) {
+		HdfsWriteProfile resolved = new HdfsWriteProfile("default",
+				fs.getDefaultBlockSize(path), fs.getDefaultReplication(path),
+				fs.getConf().getInt(CommonConfigurationKeys.IO_FILE_BUFFER_SIZE_KEY,
+						CommonConfigurationKeys.IO_FILE_BUFFER_SIZE_DEFAULT));
+		String pathName = path.toUri().getPath();
+		for (HdfsWriteProfile profile : profiles) {
+			if (profile.matches(user, pathName)) {
+				resolved.override(profile);
+			}
+		}
+		resolved.override(user.getWriteProfile());
+		return resolved;
+	}
+}
@@ -1,11 +1,10 @@
 package org.apache.hadoop.contrib.ftp;
 
-import org.apache.ftpserver.usermanager.Md5PasswordEncryptor;
 import org.apache.ftpserver.usermanager.PasswordEncryptor;
 
 public class RegisterUser {
   public static void main(String[] args) throws Exception{
-    PasswordEncryptor passwordEncryptor = new Md5PasswordEncryptor();
+    PasswordEncryptor passwordEncryptor = new HdfsPasswordEncryptor();
     if(args.length == 2){
       String username = args[0];
       String password = args[1];
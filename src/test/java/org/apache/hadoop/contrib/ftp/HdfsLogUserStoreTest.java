@@ -0,0 +1,137 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replay of the users log of HdfsLogUserStore, recovery from a torn last
+ * record and compaction.
+ */
+public class HdfsLogUserStoreTest {
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private File dir;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("hdfs-over-ftp-users").toFile();
+		file = new File(dir, "users.log");
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void replay() throws IOException {
+		HdfsLogUserStore store = new HdfsLogUserStore(file, null, false);
+		store.load();
+		store.save("alice", attributes("homedirectory", "/home/alice"));
+		store.save("bob", attributes("homedirectory", "/home/bob"));
+		store.save("alice", attributes("homedirectory", "/data/alice"));
+		store.delete("bob");
+		store.save("name with spaces", attributes("homedirectory", "/home/a b=c"));
+		store.close();
+
+		Map<String, Map<String, String>> users = new HdfsLogUserStore(file, null, false).load();
+		assertEquals(2, users.size());
+		assertEquals("/data/alice", users.get("alice").get("homedirectory"));
+		assertNull(users.get("bob"));
+		assertEquals("/home/a b=c", users.get("name with spaces").get("homedirectory"));
+	}
+
+	@Test
+	public void tornLastRecordIsDroppedAndCompacted() throws IOException {
+		HdfsLogUserStore store = new HdfsLogUserStore(file, null, false);
+		store.load();
+		store.save("alice", attributes("homedirectory", "/home/alice"));
+		store.close();
+		// an interrupted write leaves a record without value and line end
+		Files.write(file.toPath(), "put bob homedirec".getBytes(UTF8), StandardOpenOption.APPEND);
+
+		store = new HdfsLogUserStore(file, null, false);
+		Map<String, Map<String, String>> users = store.load();
+		assertEquals(1, users.size());
+		assertEquals("/home/alice", users.get("alice").get("homedirectory"));
+		assertFalse(readLog().contains("bob"));
+		assertEquals(1, records().size());
+
+		// new records do not continue the torn line
+		store.save("carol", attributes("homedirectory", "/home/carol"));
+		store.close();
+		users = new HdfsLogUserStore(file, null, false).load();
+		assertEquals(2, users.size());
+		assertEquals("/home/carol", users.get("carol").get("homedirectory"));
+	}
+
+	@Test
+	public void compaction() throws IOException {
+		HdfsLogUserStore store = new HdfsLogUserStore(file, null, false);
+		store.load();
+		store.save("alice", attributes("homedirectory", "/home/alice"));
+		for (int i = 0; i < 2000; i++) {
+			store.save("bob", attributes("homedirectory", "/home/bob" + i));
+		}
+		assertTrue("log holds " + records().size() + " records", records().size() <= 1000);
+		store.close();
+
+		Map<String, Map<String, String>> users = new HdfsLogUserStore(file, null, false).load();
+		assertEquals(2, users.size());
+		assertEquals("/home/bob1999", users.get("bob").get("homedirectory"));
+	}
+
+	@Test
+	public void importsPropertiesOnFirstLoad() throws IOException {
+		File properties = new File(dir, "users.properties");
+		Files.write(properties.toPath(), "ftpserver.user.alice.homedirectory=/home/alice\n".getBytes(UTF8));
+		Map<String, Map<String, String>> users = new HdfsLogUserStore(file, properties, false).load();
+		assertEquals("/home/alice", users.get("alice").get("homedirectory"));
+		assertTrue(file.exists());
+	}
+
+	private String readLog() throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), UTF8);
+	}
+
+	private List<String> records() throws IOException {
+		List<String> records = new ArrayList<String>();
+		for (String line : Files.readAllLines(file.toPath(), UTF8)) {
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				records.add(line);
+			}
+		}
+		return records;
+	}
+
+	private static Map<String, String> attributes(String name, String value) {
+		Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put(name, value);
+		return attributes;
+	}
+}
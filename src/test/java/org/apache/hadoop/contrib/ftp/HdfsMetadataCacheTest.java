@@ -0,0 +1,117 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Per user entries, negative entries, expiry and the invalidation of paths
+ * and subtrees of HdfsMetadataCache.
+ */
+public class HdfsMetadataCacheTest {
+
+	private final static String[] PATHS = {
+			"/a", "/a/b", "/a/b/c", "/a/b/c/d", "/a/bc", "/a/b-c", "/a/b0", "/x"};
+
+	private final HdfsMetadataCache cache = new HdfsMetadataCache(100, 60000);
+
+	@Test
+	public void entriesArePerUser() throws FileNotFoundException {
+		cache.put("alice", new Path("/a"), status("/a"));
+		assertNotNull(cache.get("alice", new Path("/a")));
+		assertNull(cache.get("bob", new Path("/a")));
+	}
+
+	@Test
+	public void negativeEntries() {
+		cache.putNotFound("alice", new Path("/missing"));
+		try {
+			cache.get("alice", new Path("/missing"));
+			fail("missing path served");
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void expiredEntriesAreDropped() throws FileNotFoundException {
+		HdfsMetadataCache expiring = new HdfsMetadataCache(100, -1);
+		expiring.put("alice", new Path("/a"), status("/a"));
+		assertNull(expiring.get("alice", new Path("/a")));
+		assertEquals(0, expiring.getSize());
+	}
+
+	@Test
+	public void invalidateDropsPathAndParent() throws FileNotFoundException {
+		fill();
+		cache.invalidate(new Path("/a/b"), false);
+		assertCached(false, "/a", "/a/b");
+		assertCached(true, "/a/b/c", "/a/b/c/d", "/a/bc", "/a/b-c", "/a/b0", "/x");
+	}
+
+	@Test
+	public void invalidateSubtree() throws FileNotFoundException {
+		fill();
+		cache.invalidate(new Path("/a/b"), true);
+		assertCached(false, "/a", "/a/b", "/a/b/c", "/a/b/c/d");
+		// siblings sharing the name as a prefix stay
+		assertCached(true, "/a/bc", "/a/b-c", "/a/b0", "/x");
+	}
+
+	@Test
+	public void invalidateRootSubtree() throws FileNotFoundException {
+		fill();
+		cache.put("alice", new Path("/"), status("/"));
+		cache.invalidate(new Path("/"), true);
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void evictsBeyondMaxSize() throws FileNotFoundException {
+		HdfsMetadataCache small = new HdfsMetadataCache(2, 60000);
+		small.put("alice", new Path("/1"), status("/1"));
+		small.put("alice", new Path("/2"), status("/2"));
+		small.put("alice", new Path("/3"), status("/3"));
+		assertEquals(2, small.getSize());
+		assertEquals(1, small.getEvictions());
+		assertNull(small.get("alice", new Path("/1")));
+		// the evicted path is gone from the sorted view too
+		small.invalidate(new Path("/"), true);
+		assertEquals(0, small.getSize());
+	}
+
+	@Test
+	public void listingShare() {
+		assertTrue(cache.isListingCached(12));
+		assertFalse(cache.isListingCached(13));
+		assertFalse(new HdfsMetadataCache(0, 60000).isListingCached(1));
+	}
+
+	private void fill() {
+		for (String path : PATHS) {
+			cache.put("alice", new Path(path), status(path));
+			cache.put("bob", new Path(path), status(path));
+		}
+	}
+
+	private void assertCached(boolean cached, String... paths) throws FileNotFoundException {
+		for (String path : paths) {
+			for (String user : new String[]{"alice", "bob"}) {
+				assertEquals(user + " " + path, cached, cache.get(user, new Path(path)) != null);
+			}
+		}
+	}
+
+	private static FileStatus status(String path) {
+		return new FileStatus(0, true, 0, 0, 1, 1, null, "alice", "staff", new Path(path));
+	}
+}
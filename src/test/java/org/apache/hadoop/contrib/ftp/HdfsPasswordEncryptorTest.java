@@ -0,0 +1,92 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.ftpserver.usermanager.Md5PasswordEncryptor;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hash format, verification, the MD5 fallback and the upgrade decision of
+ * HdfsPasswordEncryptor.
+ */
+public class HdfsPasswordEncryptorTest {
+
+	private final static int ITERATIONS = 1000;
+
+	private final HdfsPasswordEncryptor encryptor = new HdfsPasswordEncryptor(ITERATIONS, 2, 10000, 0, 100);
+
+	@After
+	public void tearDown() {
+		encryptor.close();
+	}
+
+	@Test
+	public void pbkdf2Format() {
+		String hash = encryptor.encrypt("secret");
+		String[] parts = hash.split(":");
+		assertEquals(4, parts.length);
+		assertEquals(HdfsPasswordEncryptor.PBKDF2, parts[0]);
+		assertEquals(String.valueOf(ITERATIONS), parts[1]);
+		assertTrue("salt " + parts[2], parts[2].matches("[0-9a-f]{32}"));
+		assertTrue("hash " + parts[3], parts[3].matches("[0-9a-f]{64}"));
+	}
+
+	@Test
+	public void saltDiffersPerHash() {
+		assertFalse(encryptor.encrypt("secret").equals(encryptor.encrypt("secret")));
+	}
+
+	@Test
+	public void roundTrip() {
+		String hash = encryptor.encrypt("secret");
+		assertTrue(encryptor.matches("secret", hash));
+		assertFalse(encryptor.matches("Secret", hash));
+		assertFalse(encryptor.matches("", hash));
+		assertFalse(encryptor.matches(null, hash));
+		assertFalse(encryptor.matches("secret", null));
+	}
+
+	@Test
+	public void hashOfOtherIterationsStillMatches() {
+		String hash = new HdfsPasswordEncryptor(ITERATIONS / 2, 1, 10000, 0, 100).encrypt("secret");
+		assertTrue(encryptor.matches("secret", hash));
+	}
+
+	@Test
+	public void md5Fallback() {
+		String hash = new Md5PasswordEncryptor().encrypt("secret");
+		assertTrue(encryptor.matches("secret", hash));
+		assertFalse(encryptor.matches("other", hash));
+	}
+
+	@Test
+	public void malformedHashDoesNotMatch() {
+		assertFalse(encryptor.matches("secret", HdfsPasswordEncryptor.PBKDF2 + ":1000:zz"));
+		assertFalse(encryptor.matches("secret", HdfsPasswordEncryptor.PBKDF2 + ":1000:zz:00"));
+	}
+
+	@Test
+	public void upgrade() {
+		assertTrue(encryptor.needsUpgrade(new Md5PasswordEncryptor().encrypt("secret")));
+		assertTrue(encryptor.needsUpgrade(new HdfsPasswordEncryptor(ITERATIONS / 2, 1, 10000, 0, 100).encrypt("secret")));
+		assertFalse(encryptor.needsUpgrade(encryptor.encrypt("secret")));
+		assertFalse(encryptor.needsUpgrade(new HdfsPasswordEncryptor(ITERATIONS * 2, 1, 10000, 0, 100).encrypt("secret")));
+	}
+
+	@Test
+	public void cachedVerification() {
+		HdfsPasswordEncryptor cached = new HdfsPasswordEncryptor(ITERATIONS, 1, 10000, 60000, 100);
+		try {
+			String hash = cached.encrypt("secret");
+			assertTrue(cached.matches("secret", hash));
+			assertTrue(cached.matches("secret", hash));
+			// a cached success must not let other passwords in
+			assertFalse(cached.matches("other", hash));
+		} finally {
+			cached.close();
+		}
+	}
+}
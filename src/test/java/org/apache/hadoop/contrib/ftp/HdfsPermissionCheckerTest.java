@@ -0,0 +1,172 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.AclEntry;
+import org.apache.hadoop.fs.permission.AclEntryScope;
+import org.apache.hadoop.fs.permission.AclEntryType;
+import org.apache.hadoop.fs.permission.AclStatus;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decision table of HdfsPermissionChecker: owner, group and other bits,
+ * extended ACLs limited by the mask and the sticky bit on deletes.
+ */
+public class HdfsPermissionCheckerTest {
+
+	private final static Path PATH = new Path("/data/file");
+
+	private final static Path PARENT = new Path("/data");
+
+	private final HdfsPermissionChecker checker = new HdfsPermissionChecker(100, 60000);
+
+	private final AclFileSystem fs = new AclFileSystem();
+
+	/**
+	 * Answers getAclStatus with a fixed ACL and counts the lookups
+	 */
+	private static class AclFileSystem extends FilterFileSystem {
+		private AclStatus acl;
+		private int lookups = 0;
+
+		public AclStatus getAclStatus(Path path) throws IOException {
+			lookups++;
+			return acl;
+		}
+	}
+
+	@Test
+	public void ownerUsesOwnerBits() {
+		FileStatus status = status(PATH, permission(0640, false), "alice", "staff");
+		assertTrue(checker.check(user("alice"), fs, PATH, status, FsAction.READ_WRITE));
+		assertFalse(checker.check(user("alice"), fs, PATH, status, FsAction.EXECUTE));
+	}
+
+	@Test
+	public void ownerIsNotGrantedGroupBits() {
+		FileStatus status = status(PATH, permission(0070, false), "alice", "staff");
+		assertFalse(checker.check(user("alice", "staff"), fs, PATH, status, FsAction.READ));
+	}
+
+	@Test
+	public void groupAndOther() {
+		FileStatus status = status(PATH, permission(0640, false), "alice", "staff");
+		assertTrue(checker.check(user("bob", "staff"), fs, PATH, status, FsAction.READ));
+		assertFalse(checker.check(user("bob", "staff"), fs, PATH, status, FsAction.WRITE));
+		assertFalse(checker.check(user("carol"), fs, PATH, status, FsAction.READ));
+
+		FileStatus readable = status(PATH, permission(0644, false), "alice", "staff");
+		assertTrue(checker.check(user("carol"), fs, PATH, readable, FsAction.READ));
+		assertFalse(checker.check(user("carol"), fs, PATH, readable, FsAction.WRITE));
+	}
+
+	@Test
+	public void namedUserIsLimitedByMask() {
+		// the group bits hold the mask r-x
+		FileStatus status = status(PATH, permission(0750, true), "alice", "staff");
+		fs.acl = acl(entry(AclEntryType.USER, "bob", FsAction.ALL));
+		assertTrue(checker.check(user("bob"), fs, PATH, status, FsAction.READ_EXECUTE));
+		assertFalse(checker.check(user("bob"), fs, PATH, status, FsAction.WRITE));
+	}
+
+	@Test
+	public void namedUserComesBeforeGroups() {
+		FileStatus status = status(PATH, permission(0777, true), "alice", "staff");
+		fs.acl = acl(entry(AclEntryType.USER, "bob", FsAction.NONE),
+				entry(AclEntryType.GROUP, "staff", FsAction.ALL));
+		assertFalse(checker.check(user("bob", "staff"), fs, PATH, status, FsAction.READ));
+		assertTrue(checker.check(user("dave", "staff"), fs, PATH, status, FsAction.READ));
+	}
+
+	@Test
+	public void anyMatchingGroupEntryGrants() {
+		FileStatus status = status(PATH, permission(0777, true), "alice", "staff");
+		// the unnamed entry is the owning group of the file
+		fs.acl = acl(entry(AclEntryType.GROUP, null, FsAction.READ),
+				entry(AclEntryType.GROUP, "dev", FsAction.WRITE_EXECUTE));
+		assertTrue(checker.check(user("bob", "staff", "dev"), fs, PATH, status, FsAction.READ));
+		assertTrue(checker.check(user("bob", "staff", "dev"), fs, PATH, status, FsAction.WRITE));
+		assertFalse(checker.check(user("bob", "staff", "dev"), fs, PATH, status, FsAction.READ_WRITE));
+	}
+
+	@Test
+	public void matchedGroupsDenyWithoutFallingBackToOther() {
+		FileStatus status = status(PATH, permission(0777, true), "alice", "staff");
+		fs.acl = acl(entry(AclEntryType.GROUP, "dev", FsAction.EXECUTE));
+		assertFalse(checker.check(user("carol", "dev"), fs, PATH, status, FsAction.READ));
+		assertTrue(checker.check(user("erin"), fs, PATH, status, FsAction.READ));
+	}
+
+	@Test
+	public void aclIsFetchedOncePerStatus() {
+		FileStatus status = status(PATH, permission(0750, true), "alice", "staff");
+		fs.acl = acl(entry(AclEntryType.USER, "bob", FsAction.READ));
+		checker.check(user("bob"), fs, PATH, status, FsAction.READ);
+		checker.check(user("carol"), fs, PATH, status, FsAction.READ);
+		checker.check(user("bob"), fs, PATH, status, FsAction.WRITE);
+		assertEquals(1, fs.lookups);
+		assertEquals(1, checker.getHits());
+	}
+
+	@Test
+	public void deleteNeedsWriteAndExecuteOnParent() {
+		FileStatus file = status(PATH, permission(0644, false), "bob", "staff");
+		FileStatus parent = status(PARENT, permission(0755, false), "root", "staff");
+		assertFalse(checker.checkDelete(user("bob"), fs, PARENT, parent, file));
+
+		FileStatus writable = status(PARENT, permission(0757, false), "root", "staff");
+		assertTrue(checker.checkDelete(user("carol"), fs, PARENT, writable, file));
+	}
+
+	@Test
+	public void stickyBitLimitsDeletesToOwners() {
+		FileStatus file = status(PATH, permission(0644, false), "alice", "staff");
+		FileStatus parent = status(PARENT, permission(01777, false), "root", "staff");
+		assertTrue(checker.checkDelete(user("alice"), fs, PARENT, parent, file));
+		assertTrue(checker.checkDelete(user("root"), fs, PARENT, parent, file));
+		assertFalse(checker.checkDelete(user("bob"), fs, PARENT, parent, file));
+
+		FileStatus shared = status(PARENT, permission(0777, false), "root", "staff");
+		assertTrue(checker.checkDelete(user("bob"), fs, PARENT, shared, file));
+	}
+
+	private static HdfsUser user(String name, String... groups) {
+		HdfsUser user = new HdfsUser();
+		user.setName(name);
+		user.setGroups(new ArrayList<String>(Arrays.asList(groups)));
+		return user;
+	}
+
+	private static FsPermission permission(int mode, final boolean aclBit) {
+		return new FsPermission((short) mode) {
+			public boolean getAclBit() {
+				return aclBit;
+			}
+		};
+	}
+
+	private static FileStatus status(Path path, FsPermission permission, String owner, String group) {
+		return new FileStatus(0, false, 1, 1024, 1, 1, permission, owner, group, path);
+	}
+
+	private static AclEntry entry(AclEntryType type, String name, FsAction permission) {
+		return new AclEntry.Builder().setScope(AclEntryScope.ACCESS).setType(type)
+				.setName(name).setPermission(permission).build();
+	}
+
+	private static AclStatus acl(AclEntry... entries) {
+		return new AclStatus.Builder().owner("alice").group("staff")
+				.addEntries(Arrays.asList(entries)).build();
+	}
+}
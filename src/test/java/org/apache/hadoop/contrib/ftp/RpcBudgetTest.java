@@ -0,0 +1,395 @@
+package org.apache.hadoop.contrib.ftp;
+
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FileObject;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.usermanager.WritePermission;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the NameNode operations every FTP command issues against the
+ * budgets in rpc-budgets.properties. The commands run against a
+ * MiniDFSCluster through HdfsFileSystemView and HdfsFileObject in the order
+ * the command implementations of the FTP server call them, LIST, NLST and
+ * MLSD through the streaming listing of HdfsFtplet the gateway serves them
+ * with. The ClientProtocol proxy of the DFSClient the view uses is replaced
+ * by one which counts the RPCs of every thread, the lease renewals aside,
+ * so the calls of the DataStreamer are counted as well. The metadata cache
+ * is disabled, so the budgets hold for the first access of a path.
+ * <p/>
+ * Run with -Drpc.budgets.record=file to write the measured operations to
+ * the file instead of checking them.
+ */
+public class RpcBudgetTest {
+
+	private final static int LARGE_DIRECTORY = 10000;
+
+	private final static int SMALL_DIRECTORY = 10;
+
+	private final static String RECORD_PROPERTY = "rpc.budgets.record";
+
+	private final static Map<String, Long> budgets = new TreeMap<String, Long>();
+
+	private final static Map<String, Long> recorded = new TreeMap<String, Long>();
+
+	private static File baseDir;
+
+	private static MiniDFSCluster cluster;
+
+	private static FileSystemView view;
+
+	private static String home;
+
+	private static FileSystem userFs;
+
+	// names of the NameNode RPCs since the last check
+	private final static List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * Command run against the view, between two reads of the operations
+	 */
+	private abstract static class Command {
+		abstract boolean run() throws IOException, FtpException;
+	}
+
+	@BeforeClass
+	public static void setUp() throws IOException, FtpException {
+		java.util.Properties props = new java.util.Properties();
+		InputStream in = RpcBudgetTest.class.getResourceAsStream("/rpc-budgets.properties");
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		for (String name : props.stringPropertyNames()) {
+			budgets.put(name, Long.parseLong(props.getProperty(name).trim()));
+		}
+
+		baseDir = Files.createTempDirectory("hdfs-over-ftp-rpc").toFile();
+		Configuration conf = new Configuration();
+		conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, new File(baseDir, "dfs").getAbsolutePath());
+		conf.setBoolean("dfs.namenode.acls.enabled", true);
+		cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+		cluster.waitActive();
+		FileSystem fs = cluster.getFileSystem();
+
+		Path root = new Path("/rpc");
+		createFiles(fs, new Path(root, "small"), SMALL_DIRECTORY);
+		createFiles(fs, new Path(root, "large"), LARGE_DIRECTORY);
+		FSDataOutputStream out = fs.create(new Path(root, "file"), true);
+		try {
+			out.write(new byte[4096]);
+		} finally {
+			out.close();
+		}
+		fs.create(new Path(root, "delete-me"), true).close();
+		fs.create(new Path(root, "rename-me"), true).close();
+
+		// every access goes to the NameNode, a single data node holds one replica
+		HdfsOverFtpSystem.setMetadataCacheSize(0);
+		HdfsOverFtpSystem.setWriteProfiles(new HdfsWriteProfiles(Collections.singletonList(
+				new HdfsWriteProfile("rpc-budget", 0, (short) 1, 0))));
+		HdfsOverFtpSystem.setHDFS_URI(fs.getUri().toString());
+
+		HdfsUser user = new HdfsUser();
+		user.setName(UserGroupInformation.getCurrentUser().getShortUserName());
+		user.setHomeDirectory(root.toUri().getPath());
+		user.setEnabled(true);
+		user.setAuthorities(new Authority[]{new WritePermission()});
+		HdfsFileSystemManager manager = new HdfsFileSystemManager(false);
+		view = manager.createFileSystemView(user);
+		home = root.toUri().getPath();
+
+		// the cache hands out the handle the view uses
+		userFs = HdfsOverFtpSystem.getFileSystemCache().acquire(user.getName(), manager);
+		DFSClient client = ((DistributedFileSystem) userFs).getClient();
+		countCalls(client);
+		// fetched once per client and kept, not an operation of the first command
+		client.getServerDefaults();
+		calls.clear();
+	}
+
+	@AfterClass
+	public static void tearDown() throws IOException {
+		try {
+			if (userFs != null) {
+				HdfsOverFtpSystem.getFileSystemCache().release(userFs);
+			}
+			if (view != null) {
+				view.dispose();
+			}
+			if (cluster != null) {
+				cluster.shutdown();
+			}
+		} finally {
+			FileUtil.fullyDelete(baseDir);
+		}
+		String record = System.getProperty(RECORD_PROPERTY);
+		if (record != null) {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(record), Charset.forName("UTF-8"));
+			try {
+				for (Map.Entry<String, Long> entry : recorded.entrySet()) {
+					writer.write(entry.getKey() + " = " + entry.getValue() + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	@Test
+	public void list() throws IOException, FtpException {
+		check("LIST." + SMALL_DIRECTORY, listing("LIST", "small", SMALL_DIRECTORY));
+		check("LIST." + LARGE_DIRECTORY, listing("LIST", "large", LARGE_DIRECTORY));
+	}
+
+	@Test
+	public void nlst() throws IOException, FtpException {
+		check("NLST." + LARGE_DIRECTORY, listing("NLST", "large", LARGE_DIRECTORY));
+	}
+
+	@Test
+	public void mlsd() throws IOException, FtpException {
+		check("MLSD." + SMALL_DIRECTORY, listing("MLSD", "small", SMALL_DIRECTORY));
+		check("MLSD." + LARGE_DIRECTORY, listing("MLSD", "large", LARGE_DIRECTORY));
+	}
+
+	@Test
+	public void size() throws IOException, FtpException {
+		check("SIZE", new Command() {
+			boolean run() throws FtpException {
+				FileObject file = view.getFileObject(home + "/file");
+				return file.doesExist() && file.isFile() && file.getSize() == 4096;
+			}
+		});
+	}
+
+	@Test
+	public void mdtm() throws IOException, FtpException {
+		check("MDTM", new Command() {
+			boolean run() throws FtpException {
+				FileObject file = view.getFileObject(home + "/file");
+				return file.doesExist() && file.getLastModified() > 0;
+			}
+		});
+	}
+
+	@Test
+	public void cwd() throws IOException, FtpException {
+		try {
+			check("CWD", new Command() {
+				boolean run() throws FtpException {
+					return view.changeDirectory(home + "/small");
+				}
+			});
+		} finally {
+			view.changeDirectory(home);
+		}
+	}
+
+	@Test
+	public void retr() throws IOException, FtpException {
+		check("RETR", new Command() {
+			boolean run() throws IOException, FtpException {
+				FileObject file = view.getFileObject(home + "/file");
+				if (!file.doesExist() || !file.isFile() || !file.hasReadPermission()) {
+					return false;
+				}
+				InputStream in = file.createInputStream(0);
+				try {
+					byte[] buffer = new byte[4096];
+					while (in.read(buffer) != -1) {
+						// drain
+					}
+				} finally {
+					in.close();
+				}
+				return true;
+			}
+		});
+	}
+
+	@Test
+	public void stor() throws IOException, FtpException {
+		check("STOR", new Command() {
+			boolean run() throws IOException, FtpException {
+				FileObject file = view.getFileObject(home + "/uploaded");
+				if (!file.hasWritePermission()) {
+					return false;
+				}
+				OutputStream out = file.createOutputStream(0);
+				try {
+					out.write(new byte[4096]);
+				} finally {
+					out.close();
+				}
+				return true;
+			}
+		});
+	}
+
+	@Test
+	public void mkd() throws IOException, FtpException {
+		check("MKD", new Command() {
+			boolean run() throws FtpException {
+				FileObject dir = view.getFileObject(home + "/created");
+				return dir.hasWritePermission() && !dir.doesExist() && dir.mkdir();
+			}
+		});
+	}
+
+	@Test
+	public void dele() throws IOException, FtpException {
+		check("DELE", new Command() {
+			boolean run() throws FtpException {
+				FileObject file = view.getFileObject(home + "/delete-me");
+				return file.hasDeletePermission() && file.isFile() && file.delete();
+			}
+		});
+	}
+
+	@Test
+	public void rename() throws IOException, FtpException {
+		final FileObject[] renameFrom = new FileObject[1];
+		check("RNFR", new Command() {
+			boolean run() throws FtpException {
+				renameFrom[0] = view.getFileObject(home + "/rename-me");
+				return renameFrom[0].doesExist();
+			}
+		});
+		check("RNTO", new Command() {
+			boolean run() throws FtpException {
+				FileObject to = view.getFileObject(home + "/renamed");
+				return to.hasWritePermission() && renameFrom[0].doesExist() && renameFrom[0].move(to);
+			}
+		});
+	}
+
+	/**
+	 * LIST, NLST or MLSD as HdfsFtplet streams it to the data connection
+	 */
+	private Command listing(final String command, final String dir, final int entries) {
+		return new Command() {
+			boolean run() throws IOException, FtpException {
+				HdfsFtplet ftplet = new HdfsFtplet();
+				HdfsFileObject directory = ftplet.getListedDirectory(view, command, home + "/" + dir);
+				if (directory == null) {
+					return false;
+				}
+				final int[] lines = new int[1];
+				ftplet.writeListing(directory, command, new HdfsFtplet.ListingWriter() {
+					public void write(String batch) {
+						for (int pos = batch.indexOf('\n'); pos != -1; pos = batch.indexOf('\n', pos + 1)) {
+							lines[0]++;
+						}
+					}
+				});
+				return lines[0] == entries;
+			}
+		};
+	}
+
+	private void check(String name, Command command) throws IOException, FtpException {
+		Long budget = budgets.get(name);
+		boolean record = System.getProperty(RECORD_PROPERTY) != null;
+		if (budget == null && !record) {
+			fail("No budget for " + name);
+		}
+
+		calls.clear();
+		boolean succeeded = command.run();
+		List<String> used;
+		synchronized (calls) {
+			used = new ArrayList<String>(calls);
+		}
+
+		assertTrue(name + " failed after the NameNode calls " + used, succeeded);
+		if (record) {
+			synchronized (recorded) {
+				recorded.put(name, (long) used.size());
+			}
+		} else {
+			assertTrue(name + " issued " + used.size() + " NameNode calls, its budget is " + budget
+					+ ": " + used, used.size() <= budget);
+		}
+	}
+
+	/**
+	 * Replace the NameNode proxy of the client by one which records the
+	 * name of every call
+	 */
+	private static void countCalls(DFSClient client) throws IOException {
+		try {
+			Field field = DFSClient.class.getDeclaredField("namenode");
+			field.setAccessible(true);
+			final ClientProtocol namenode = (ClientProtocol) field.get(client);
+			field.set(client, Proxy.newProxyInstance(ClientProtocol.class.getClassLoader(),
+					new Class<?>[]{ClientProtocol.class, Closeable.class}, new InvocationHandler() {
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							// the client stops the proxy when it is closed
+							if (method.getDeclaringClass() == Closeable.class) {
+								RPC.stopProxy(namenode);
+								return null;
+							}
+							if (!"renewLease".equals(method.getName())) {
+								calls.add(method.getName());
+							}
+							try {
+								return method.invoke(namenode, args);
+							} catch (InvocationTargetException e) {
+								throw e.getCause();
+							}
+						}
+					}));
+		} catch (NoSuchFieldException e) {
+			throw new IOException("Can not count the NameNode calls of " + client, e);
+		} catch (IllegalAccessException e) {
+			throw new IOException("Can not count the NameNode calls of " + client, e);
+		}
+	}
+
+	private static void createFiles(FileSystem fs, Path dir, int count) throws IOException {
+		fs.mkdirs(dir);
+		for (int i = 0; i < count; i++) {
+			fs.create(new Path(dir, String.format("file-%08d", i)), true).close();
+		}
+	}
+}